@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.Arrays;
 import java.util.Set;
-import java.util.Stack;
 import java.util.TreeSet;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -37,23 +36,39 @@ import org.apache.lucene.util.CharsRef;
 import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute;
 import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.ReloadableSKOSEngine;
 
 /**
  * A SKOS-specific TokenFilter implementation
+ * 
+ * Emitting an expanded term does not allocate: the terms wait in the reused
+ * expansion buffer, their analyzed forms are cached, the attributes of the
+ * expanded token are kept in a reused copy and the payloads are constants
+ * per type.
  */
 public abstract class AbstractSKOSFilter extends TokenFilter {
   
-  /* a stack holding the expanded terms for a token */
-  protected Stack<ExpandedTerm> termStack;
-  
   /* an engine delivering SKOS concepts */
   protected SKOSEngine engine;
   
+  /* the engine given to the constructor, may be reloadable */
+  private final SKOSEngine source;
+  
   /* the skos types to expand to */
   protected Set<SKOSType> types;
   
-  /* provides access to the the term attributes */
-  protected AttributeSource.State current;
+  /*
+   * receives the expanded terms of a token from the engine; also the stack of
+   * the terms still to be emitted, which are taken from its end
+   */
+  protected final SKOSExpansion expansion = new SKOSExpansion();
+  
+  /* the number of expanded terms on the stack */
+  private int stackSize;
+  
+  /* a copy of the attributes of the expanded token, reused for all tokens */
+  private AttributeSource current;
   
   /* the term text (propagated to the index) */
   protected final CharTermAttribute termAtt;
@@ -64,12 +79,26 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
   /* the binary payload attached to the indexed term (propagated to the index) */
   protected final PayloadAttribute payloadAtt;
   
+  /*
+   * the encoded SKOS type of each type (by ordinal), attached as payload to
+   * every expanded term; consumers buffering tokens keep the reference, so
+   * they are never modified. Each filter has its own, so that a consumer
+   * modifying a payload only affects the tokens of that filter.
+   */
+  private final BytesRef[] payloads = new BytesRef[SKOSType.values().length];
+  
   /* the SKOS-specific attribute attached to a term */
   protected final SKOSTypeAttribute skosAtt;
   
   /* the analyzer to use when parsing */
   protected final Analyzer analyzer;
   
+  /* the analyzed forms of the expanded terms, shared by the analyzer's users */
+  private final AnalyzedTermCache analyzedTerms;
+  
+  /* the buffer for analyzing terms that are not cached yet */
+  private final CharsRef analyzeBuffer = new CharsRef();
+  
   /**
    * Constructor
    * 
@@ -83,9 +112,10 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
   public AbstractSKOSFilter(TokenStream input, SKOSEngine engine,
       Analyzer analyzer, SKOSType... types) {
     super(input);
-    termStack = new Stack<ExpandedTerm>();
     this.engine = engine;
+    this.source = engine;
     this.analyzer = analyzer;
+    this.analyzedTerms = AnalyzedTermCache.forAnalyzer(analyzer);
     
     if (types != null && types.length > 0) {
       this.types = new TreeSet<SKOSType>(Arrays.asList(types));
@@ -98,6 +128,11 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
     this.posIncrAtt = addAttribute(PositionIncrementAttribute.class);
     this.payloadAtt = addAttribute(PayloadAttribute.class);
     this.skosAtt = addAttribute(SKOSTypeAttribute.class);
+    
+    for (SKOSType type : SKOSType.values()) {
+      payloads[type.ordinal()] = new BytesRef(PayloadHelper.encodeInt(type
+          .ordinal()));
+    }
   }
   
   /**
@@ -108,6 +143,56 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
   @Override
   public abstract boolean incrementToken() throws IOException;
   
+  /**
+   * Pins the current engine of a reloadable engine, so that the whole stream
+   * is expanded against the same vocabulary
+   */
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    clearStack();
+    releaseEngine();
+    if (source instanceof ReloadableSKOSEngine) {
+      engine = ((ReloadableSKOSEngine) source).acquire();
+    }
+  }
+  
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      releaseEngine();
+    }
+  }
+  
+  private void releaseEngine() throws IOException {
+    if (engine != source) {
+      SKOSEngine pinned = engine;
+      engine = source;
+      ((ReloadableSKOSEngine) source).release(pinned);
+    }
+  }
+  
+  /**
+   * Returns true if there are expanded terms on the stack
+   */
+  protected boolean hasTermsOnStack() {
+    return stackSize > 0;
+  }
+  
+  /**
+   * Keeps the attributes of the current token for the expanded terms on the
+   * stack
+   */
+  protected void captureCurrent() {
+    if (current == null) {
+      // all attributes are known once the stream is consumed
+      current = cloneAttributes();
+    }
+    copyTo(current);
+  }
+  
   /**
    * Replaces the current term (attributes) with term (attributes) from the
    * stack
@@ -115,26 +200,27 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
    * @throws IOException
    */
   protected void processTermOnStack() throws IOException {
-    ExpandedTerm expandedTerm = termStack.pop();
+    String term = expansion.getTerm(--stackSize);
     
-    String term = expandedTerm.getTerm();
+    SKOSType termType = expansion.getType(stackSize);
     
-    SKOSType termType = expandedTerm.getTermType();
+    if (stackSize == 0) {
+      expansion.clear();
+    }
     
-    String sTerm = "";
+    // analyzed once per term and analyzer
+    String sTerm = analyzedTerms.analyze(analyzer, term, analyzeBuffer);
     
-    try {
-      sTerm = analyze(analyzer, term, new CharsRef()).toString();
-    } catch (IllegalArgumentException e) {
+    if (sTerm == null) {
       // skip this term
       return;
     }
     
     /*
-     * copies the values of all attribute implementations from this state into
-     * the implementations of the target stream
+     * copies the values of all attribute implementations from the expanded
+     * token into the implementations of this stream
      */
-    restoreState(current);
+    current.copyTo(this);
     
     /*
      * Adds the expanded term to the term buffer
@@ -156,8 +242,7 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
      * converts the SKOS Attribute to a payload, which is propagated to the
      * index
      */
-    byte[] bytes = PayloadHelper.encodeInt(skosAtt.getSkosType().ordinal());
-    payloadAtt.setPayload(new BytesRef(bytes));
+    payloadAtt.setPayload(payloads[termType.ordinal()]);
   }
   
   /* Snipped from Solr's SynonymMap */
@@ -206,33 +291,27 @@ public abstract class AbstractSKOSFilter extends TokenFilter {
   protected void pushLabelsToStack(String[] labels, SKOSType type) {
     
     if (labels != null) {
-      for (String label : labels) {
-        termStack.push(new ExpandedTerm(label, type));
+      if (stackSize == 0) {
+        expansion.clear();
       }
+      expansion.addAll(labels, type);
+      stackSize = expansion.size();
     }
     
   }
   
   /**
-   * Helper class for capturing terms and term types
+   * Pushes the terms collected in the expansion onto the stack
    */
-  protected static class ExpandedTerm {
-    
-    private final String term;
-    
-    private final SKOSType termType;
-    
-    protected ExpandedTerm(String term, SKOSType termType) {
-      this.term = term;
-      this.termType = termType;
-    }
-    
-    protected String getTerm() {
-      return this.term;
-    }
-    
-    protected SKOSType getTermType() {
-      return this.termType;
-    }
+  protected void pushExpansionToStack() {
+    stackSize = expansion.size();
+  }
+  
+  /**
+   * Removes the terms on the stack
+   */
+  protected void clearStack() {
+    expansion.clear();
+    stackSize = 0;
   }
 }
@@ -0,0 +1,97 @@
+package at.ac.univie.mminf.luceneSKOS.analysis;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.util.CharsRef;
+
+/**
+ * Caches the analyzed forms of expansion terms for one analyzer.
+ *
+ * The analyzer of a filter is fixed, so the analyzed form of a label never
+ * changes. The first time a term is emitted it is analyzed and its form
+ * remembered; afterwards the filter copies the form into the term attribute
+ * without creating a token stream. Terms the analyzer eliminates are
+ * remembered as well.
+ *
+ * There is one cache per analyzer instance, shared by all filters (and
+ * threads) using that instance. Since a vocabulary has a bounded number of
+ * labels the cache rarely fills up; if it does, it is cleared.
+ */
+final class AnalyzedTermCache {
+
+  /** The maximum number of cached terms */
+  static final int MAX_SIZE = 100000;
+
+  /* stands for terms that the analyzer eliminates */
+  private static final String REJECTED = new String();
+
+  /* the caches by analyzer, released along with the analyzer */
+  private static final Map<Analyzer,AnalyzedTermCache> CACHES = new WeakHashMap<Analyzer,AnalyzedTermCache>();
+
+  private final Map<String,String> terms = new ConcurrentHashMap<String,String>();
+
+  private AnalyzedTermCache() {}
+
+  /** Returns the cache of the given analyzer */
+  static AnalyzedTermCache forAnalyzer(Analyzer analyzer) {
+    synchronized (CACHES) {
+      AnalyzedTermCache cache = CACHES.get(analyzer);
+      if (cache == null) {
+        cache = new AnalyzedTermCache();
+        CACHES.put(analyzer, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Returns the analyzed form of a term, null if the analyzer eliminates it
+   *
+   * @param analyzer
+   *          the analyzer of this cache
+   * @param reuse
+   *          a buffer for analyzing terms that are not cached yet
+   */
+  String analyze(Analyzer analyzer, String term, CharsRef reuse)
+      throws IOException {
+    String analyzed = terms.get(term);
+    if (analyzed == null) {
+      try {
+        analyzed = AbstractSKOSFilter.analyze(analyzer, term, reuse)
+            .toString();
+      } catch (IllegalArgumentException e) {
+        analyzed = REJECTED;
+      }
+      if (terms.size() >= MAX_SIZE) {
+        terms.clear();
+      }
+      terms.put(term, analyzed);
+    }
+    return analyzed == REJECTED ? null : analyzed;
+  }
+
+  /** Returns the number of cached terms */
+  int size() {
+    return terms.size();
+  }
+}
@@ -19,6 +19,7 @@ package at.ac.univie.mminf.luceneSKOS.analysis;
 import java.io.IOException;
 import java.io.Reader;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.core.KeywordTokenizer;
 import org.apache.lucene.analysis.core.LowerCaseFilter;
@@ -35,6 +36,8 @@ import org.apache.lucene.util.Version;
 import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine.EvictionPolicy;
 
 /**
  * An analyzer for expanding fields that contain either (i) URI references to
@@ -71,6 +74,12 @@ public class SKOSAnalyzer extends StopwordAnalyzerBase {
   
   private int maxTokenLength = DEFAULT_MAX_TOKEN_LENGTH;
   
+  /**
+   * Analyzes the expansion terms; shared by the components of all threads,
+   * since analyzers reuse their own components per thread
+   */
+  private final Analyzer termAnalyzer = new StandardAnalyzer(matchVersion);
+  
   /**
    * An unmodifiable set containing some common English words that are usually
    * not useful for searching.
@@ -138,6 +147,30 @@ public class SKOSAnalyzer extends StopwordAnalyzerBase {
     this.types = types;
   }
   
+  /**
+   * Caches the answers of the SKOS engine, replacing a previously enabled
+   * cache. This setting only takes effect for token streams created
+   * afterwards.
+   * 
+   * @param maxSize
+   *          the maximum number of cached answers
+   * @param policy
+   *          the eviction policy (LRU or LFU)
+   * @param cacheMisses
+   *          whether labels and concepts without expansions are cached
+   * @return the cache, providing hit and miss counts
+   */
+  public CachingSKOSEngine enableCache(int maxSize, EvictionPolicy policy,
+      boolean cacheMisses) {
+    if (skosEngine instanceof CachingSKOSEngine) {
+      skosEngine = ((CachingSKOSEngine) skosEngine).getEngine();
+    }
+    CachingSKOSEngine cache = SKOSEngineFactory.getCachingSKOSEngine(
+        skosEngine, maxSize, policy, cacheMisses);
+    skosEngine = cache;
+    return cache;
+  }
+  
   /**
    * Set maximum allowed token length. If a token is seen that exceeds this
    * length then it is discarded. This setting only takes effect the next time
@@ -159,8 +192,8 @@ public class SKOSAnalyzer extends StopwordAnalyzerBase {
       Reader reader) {
     if (expansionType.equals(ExpansionType.URI)) {
       final KeywordTokenizer src = new KeywordTokenizer(reader);
-      TokenStream tok = new SKOSURIFilter(src, skosEngine,
-          new StandardAnalyzer(matchVersion), types);
+      TokenStream tok = new SKOSURIFilter(src, skosEngine, termAnalyzer,
+          types);
       tok = new LowerCaseFilter(matchVersion, tok);
       return new TokenStreamComponents(src, tok);
     } else {
@@ -169,8 +202,8 @@ public class SKOSAnalyzer extends StopwordAnalyzerBase {
       TokenStream tok = new StandardFilter(matchVersion, src);
       // prior to this we get the classic behavior, standardfilter does it for
       // us.
-      tok = new SKOSLabelFilter(tok, skosEngine, new StandardAnalyzer(
-          matchVersion), bufferSize, types);
+      tok = new SKOSLabelFilter(tok, skosEngine, termAnalyzer, bufferSize,
+          types);
       tok = new LowerCaseFilter(matchVersion, tok);
       tok = new StopFilter(matchVersion, tok, stopwords);
       tok = new RemoveDuplicatesTokenFilter(tok);
@@ -183,4 +216,10 @@ public class SKOSAnalyzer extends StopwordAnalyzerBase {
       };
     }
   }
+  
+  @Override
+  public void close() {
+    termAnalyzer.close();
+    super.close();
+  }
 }
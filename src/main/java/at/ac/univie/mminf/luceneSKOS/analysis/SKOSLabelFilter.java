@@ -17,13 +17,17 @@ package at.ac.univie.mminf.luceneSKOS.analysis;
  */
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.EnumSet;
+import java.util.Set;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.AttributeSource;
 
 import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.LabelMatcher;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
 
 /**
@@ -34,16 +38,60 @@ import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
  * It takes labels (String values) as input and searches a given SKOS vocabulary
  * for matching concepts (based on their prefLabels). If a match is found, it
  * adds the concept's labels to the output token stream.
+ * 
+ * Multi-word labels are recognized with the {@link LabelMatcher} of the
+ * engine: at each token it follows the labels starting there for as many
+ * tokens as they match, so the lookahead stays short on ordinary text even
+ * with a large bufferSize, and only the longest label found is expanded.
+ * Tokens read ahead are kept in a ring of reusable attribute copies, so
+ * looking ahead does not allocate.
  */
 public final class SKOSLabelFilter extends AbstractSKOSFilter {
   
-  public static final int DEFAULT_BUFFER_SIZE = 1;
+  /**
+   * The default buffer size: the number of words of the longest label of the
+   * engine ({@link SKOSEngine#getMaxLabelWords()})
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 0;
   
   /* the size of the buffer used for multi-term prediction */
-  private int bufferSize = DEFAULT_BUFFER_SIZE;
+  private int bufferSize;
+  
+  /* true if the buffer size follows the labels of the engine */
+  private final boolean vocabularyBufferSize;
+  
+  /*
+   * the lookahead: a ring of attribute copies of the tokens read ahead,
+   * created once per stream and overwritten in place
+   */
+  private AttributeSource[] ring;
+  
+  /* the term attribute of each slot of the ring */
+  private CharTermAttribute[] ringTerms;
+  
+  /* the slot of the current token, if it is in the ring */
+  private int head;
   
-  /* a list serving as token buffer between consumed and consuming stream */
-  private Queue<State> buffer = new LinkedList<State>();
+  /* the number of tokens in the ring, including the current token */
+  private int count;
+  
+  /* true once the input has no more tokens */
+  private boolean exhausted;
+  
+  /* the requested types this filter expands to (related terms are not) */
+  private final Set<SKOSType> expansionTypes;
+  
+  /* recognizes the labels of the engine token by token */
+  private LabelMatcher matcher;
+  
+  /* the engine the matcher was obtained from */
+  private SKOSEngine matcherEngine;
+  
+  /* the tokens of the current label candidate, separated by spaces */
+  private char[] window = new char[32];
+  
+  /* the lengths of the prefixes of the window that are labels */
+  private int[] labelEnds;
   
   /**
    * Constructor for multi-term expansion support. Takes an input token stream,
@@ -56,14 +104,19 @@ public final class SKOSLabelFilter extends AbstractSKOSFilter {
    *          the skos expansion engine
    * @param bufferSize
    *          the length of the longest pref-label to consider (needed for
-   *          mult-term expansion)
+   *          mult-term expansion), {@link #DEFAULT_BUFFER_SIZE} for the
+   *          length of the longest label of the engine
    * @param types
    *          the skos types to expand to
    */
   public SKOSLabelFilter(TokenStream input, SKOSEngine skosEngine,
       Analyzer analyzer, int bufferSize, SKOSType... types) {
     super(input, skosEngine, analyzer, types);
-    this.bufferSize = bufferSize;
+    this.vocabularyBufferSize = bufferSize <= DEFAULT_BUFFER_SIZE;
+    setBufferSize(vocabularyBufferSize ? skosEngine.getMaxLabelWords()
+        : bufferSize);
+    this.expansionTypes = EnumSet.copyOf(this.types);
+    this.expansionTypes.remove(SKOSType.RELATED);
   }
   
   /**
@@ -72,70 +125,136 @@ public final class SKOSLabelFilter extends AbstractSKOSFilter {
   @Override
   public boolean incrementToken() throws IOException {
     /* there are expanded terms for the given token */
-    if (termStack.size() > 0) {
+    if (hasTermsOnStack()) {
       processTermOnStack();
       return true;
     }
     
-    while (buffer.size() < bufferSize && input.incrementToken()) {
-      buffer.add(input.captureState());
-      
-    }
-    
-    if (buffer.isEmpty()) {
+    if (count > 0) {
+      /* the next token was read ahead */
+      ring[head].copyTo(this);
+    } else if (exhausted || !input.incrementToken()) {
+      exhausted = true;
       return false;
     }
     
-    restoreState(buffer.peek());
-    
     /* check whether there are expanded terms for a given token */
     if (addAliasesToStack()) {
       /* if yes, capture the state of all attributes */
-      current = captureState();
+      captureCurrent();
     }
     
-    buffer.remove();
+    if (count > 0) {
+      head = (head + 1) % ring.length;
+      count--;
+    }
     
     return true;
   }
   
+  /**
+   * Follows the labels of the engine pinned for this stream if the buffer
+   * size is derived from the vocabulary
+   */
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    if (vocabularyBufferSize) {
+      setBufferSize(engine.getMaxLabelWords());
+    }
+    head = 0;
+    count = 0;
+    exhausted = false;
+  }
+  
+  /**
+   * Expands the longest label starting at the current token. The label
+   * matcher is fed one token after the other, reading ahead only while some
+   * label still starts with the tokens seen so far; the engine is only asked
+   * for the sequences that are labels, longest first. Tokens read ahead are
+   * copied into the ring and read from there, and the attributes of the
+   * current token are put back afterwards.
+   */
   private boolean addAliasesToStack() throws IOException {
-    for (int i = buffer.size(); i > 0; i--) {
-      String inputTokens = bufferToString(i);
+    if (matcherEngine != engine) {
+      // the engine pinned for this stream
+      matcher = engine.newLabelMatcher();
+      matcherEngine = engine;
+    }
+    matcher.reset();
+    
+    int length = 0;
+    int labels = 0;
+    boolean moved = false;
+    for (int i = 0; i < bufferSize; i++) {
+      CharTermAttribute term = termAtt;
+      if (i > 0) {
+        if (i >= count) {
+          if (exhausted) {
+            break;
+          }
+          // the input clears the attributes even when it has no more tokens
+          moved = true;
+          if (!readAhead()) {
+            break;
+          }
+        }
+        term = ringTerms[(head + i) % ring.length];
+      }
       
-      if (addTermsToStack(inputTokens)) {
+      if (!matcher.append(term.buffer(), 0, term.length())) {
         break;
       }
-      
+      window = ArrayUtil.grow(window, length + 1 + term.length());
+      if (i > 0) {
+        window[length++] = ' ';
+      }
+      System.arraycopy(term.buffer(), 0, window, length, term.length());
+      length += term.length();
+      if (matcher.isLabel()) {
+        labelEnds[labels++] = length;
+      }
     }
     
-    if (termStack.isEmpty()) {
-      return false;
+    if (moved) {
+      ring[head].copyTo(this);
     }
     
-    return true;
+    while (labels > 0) {
+      if (addTermsToStack(new String(window, 0, labelEnds[--labels]))) {
+        return true;
+      }
+    }
+    return false;
   }
   
   /**
-   * Converts the first x=noTokens states in the queue to a concatenated token
-   * string separated by white spaces
+   * Reads the next token of the input into the ring, keeping the current
+   * token in the ring first
+   * 
+   * @return false if the input has no more tokens
    */
-  private String bufferToString(int noTokens) {
-    State entered = captureState();
-    
-    State[] bufferedStates = buffer.toArray(new State[buffer.size()]);
-    
-    StringBuilder builder = new StringBuilder();
-    builder.append(termAtt.toString());
-    restoreState(bufferedStates[0]);
-    for (int i = 1; i < noTokens; i++) {
-      restoreState(bufferedStates[i]);
-      builder.append(" " + termAtt.toString());
+  private boolean readAhead() throws IOException {
+    if (ring == null) {
+      // all attributes are known once the stream is consumed
+      ring = new AttributeSource[bufferSize];
+      ringTerms = new CharTermAttribute[bufferSize];
+      for (int i = 0; i < bufferSize; i++) {
+        ring[i] = cloneAttributes();
+        ringTerms[i] = ring[i].getAttribute(CharTermAttribute.class);
+      }
     }
-    
-    restoreState(entered);
-    
-    return builder.toString();
+    if (count == 0) {
+      copyTo(ring[head]);
+      count = 1;
+    }
+    if (!input.incrementToken()) {
+      exhausted = true;
+      return false;
+    }
+    copyTo(ring[(head + count) % ring.length]);
+    count++;
+    return true;
   }
   
   /**
@@ -144,53 +263,29 @@ public final class SKOSLabelFilter extends AbstractSKOSFilter {
    */
   public boolean addTermsToStack(String term) throws IOException {
     try {
-      String[] conceptURIs = engine.getConcepts(term);
-      
-      for (String conceptURI : conceptURIs) {
-        if (types.contains(SKOSType.PREF)) {
-          String[] prefLabels = engine.getPrefLabels(conceptURI);
-          pushLabelsToStack(prefLabels, SKOSType.PREF);
-        }
-        if (types.contains(SKOSType.ALT)) {
-          String[] altLabels = engine.getAltLabels(conceptURI);
-          pushLabelsToStack(altLabels, SKOSType.ALT);
-        }
-        if (types.contains(SKOSType.HIDDEN)) {
-          String[] hiddenLabels = engine.getHiddenLabels(conceptURI);
-          pushLabelsToStack(hiddenLabels, SKOSType.HIDDEN);
-        }
-        if (types.contains(SKOSType.BROADER)) {
-          String[] broaderLabels = engine.getBroaderLabels(conceptURI);
-          pushLabelsToStack(broaderLabels, SKOSType.BROADER);
-        }
-        if (types.contains(SKOSType.BROADERTRANSITIVE)) {
-          String[] broaderTransitiveLabels = engine
-              .getBroaderTransitiveLabels(conceptURI);
-          pushLabelsToStack(broaderTransitiveLabels, SKOSType.BROADERTRANSITIVE);
-        }
-        if (types.contains(SKOSType.NARROWER)) {
-          String[] narrowerLabels = engine.getNarrowerLabels(conceptURI);
-          pushLabelsToStack(narrowerLabels, SKOSType.NARROWER);
-        }
-        if (types.contains(SKOSType.NARROWERTRANSITIVE)) {
-          String[] narrowerTransitiveLabels = engine
-              .getNarrowerTransitiveLabels(conceptURI);
-          pushLabelsToStack(narrowerTransitiveLabels,
-              SKOSType.NARROWERTRANSITIVE);
-        }
-      }
+      engine.expandLabel(term, expansionTypes, expansion);
     } catch (Exception e) {
       System.err
           .println("Error when accessing SKOS Engine.\n" + e.getMessage());
     }
+    pushExpansionToStack();
     
-    if (termStack.isEmpty()) {
+    if (!hasTermsOnStack()) {
       return false;
     }
     
     return true;
   }
   
+  private void setBufferSize(int size) {
+    size = Math.max(size, 1);
+    if (size != bufferSize) {
+      bufferSize = size;
+      labelEnds = new int[size];
+      ring = null;
+    }
+  }
+  
   public int getBufferSize() {
     return this.bufferSize;
   }
@@ -17,6 +17,8 @@ package at.ac.univie.mminf.luceneSKOS.analysis;
  */
 
 import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
@@ -35,6 +37,9 @@ import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
  */
 public final class SKOSURIFilter extends AbstractSKOSFilter {
   
+  /* the requested types this filter expands to (hidden and related are not) */
+  private final Set<SKOSType> expansionTypes;
+  
   /**
    * Constructor.
    * 
@@ -45,6 +50,9 @@ public final class SKOSURIFilter extends AbstractSKOSFilter {
   public SKOSURIFilter(TokenStream input, SKOSEngine skosEngine,
       Analyzer analyzer, SKOSType... types) {
     super(input, skosEngine, analyzer, types);
+    this.expansionTypes = EnumSet.copyOf(this.types);
+    this.expansionTypes.remove(SKOSType.HIDDEN);
+    this.expansionTypes.remove(SKOSType.RELATED);
   }
   
   /**
@@ -54,7 +62,7 @@ public final class SKOSURIFilter extends AbstractSKOSFilter {
   public boolean incrementToken() throws IOException {
     
     /* there are expanded terms for the given token */
-    if (termStack.size() > 0) {
+    if (hasTermsOnStack()) {
       processTermOnStack();
       return true;
     }
@@ -68,7 +76,7 @@ public final class SKOSURIFilter extends AbstractSKOSFilter {
     if (addTermsToStack(termAtt.toString())) {
       
       /* if yes, capture the state of all attributes */
-      current = captureState();
+      captureCurrent();
     }
     
     return true;
@@ -79,38 +87,14 @@ public final class SKOSURIFilter extends AbstractSKOSFilter {
    */
   public boolean addTermsToStack(String term) throws IOException {
     try {
-      if (types.contains(SKOSType.PREF)) {
-        String[] prefLabels = engine.getPrefLabels(term);
-        pushLabelsToStack(prefLabels, SKOSType.PREF);
-      }
-      if (types.contains(SKOSType.ALT)) {
-        String[] altLabels = engine.getAltLabels(term);
-        pushLabelsToStack(altLabels, SKOSType.ALT);
-      }
-      if (types.contains(SKOSType.BROADER)) {
-        String[] broaderLabels = engine.getBroaderLabels(term);
-        pushLabelsToStack(broaderLabels, SKOSType.BROADER);
-      }
-      if (types.contains(SKOSType.BROADERTRANSITIVE)) {
-        String[] broaderTransitiveLabels = engine
-            .getBroaderTransitiveLabels(term);
-        pushLabelsToStack(broaderTransitiveLabels, SKOSType.BROADERTRANSITIVE);
-      }
-      if (types.contains(SKOSType.NARROWER)) {
-        String[] narrowerLabels = engine.getNarrowerLabels(term);
-        pushLabelsToStack(narrowerLabels, SKOSType.NARROWER);
-      }
-      if (types.contains(SKOSType.NARROWERTRANSITIVE)) {
-        String[] narrowerTransitiveLabels = engine
-            .getNarrowerTransitiveLabels(term);
-        pushLabelsToStack(narrowerTransitiveLabels, SKOSType.NARROWERTRANSITIVE);
-      }
+      engine.expandConcept(term, expansionTypes, expansion);
     } catch (Exception e) {
       System.err
           .println("Error when accessing SKOS Engine.\n" + e.getMessage());
     }
+    pushExpansionToStack();
     
-    if (termStack.isEmpty()) {
+    if (!hasTermsOnStack()) {
       return false;
     }
     
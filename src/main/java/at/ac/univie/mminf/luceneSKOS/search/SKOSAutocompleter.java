@@ -47,6 +47,7 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
 import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSEngineImpl;
 
@@ -97,7 +98,9 @@ public final class SKOSAutocompleter {
       String... languages) throws IOException {
     
     // Makes sure we have a source!
-    skosEngine = new SKOSEngineImpl(version, filenameOrURI, languages);
+    SKOSEngineImpl skosEngineImpl = new SKOSEngineImpl(version, filenameOrURI,
+        languages);
+    skosEngine = skosEngineImpl;
     
     matchVersion = version;
     
@@ -107,12 +110,13 @@ public final class SKOSAutocompleter {
       langSig = "-" + StringUtils.join(this.languages, ".");
     }
     
+    // the completion data is kept per generation of the concept index
+    Directory indexDir = skosEngineImpl.getIndexDirectory();
     String name = FilenameUtils.getName(filenameOrURI);
-    File compldataDir = new File("skoscompldata/" + name + langSig);
+    File compldataDir = new File("skoscompldata/" + name + langSig + "/"
+        + ((FSDirectory) indexDir).getDirectory().getName());
     
     if (!compldataDir.isDirectory()) {
-      File dir = new File("skosdata/" + name + langSig);
-      Directory indexDir = FSDirectory.open(dir);
       this.autoCompleteDirectory = FSDirectory.open(compldataDir);
       reIndex(indexDir);
     }
@@ -165,11 +169,13 @@ public final class SKOSAutocompleter {
     for (int i=0; i < sourceReader.maxDoc(); i++) {
       Document sourceDoc = sourceReader.document(i);
       
-      String[] prefTerms = sourceDoc.getValues("pref");
+      String[] prefTerms = SKOSEngineImpl.getLabels(sourceDoc, SKOSType.PREF,
+          languages);
       if (prefTerms.length == 0)
         continue;
       
-      String[] altTerms = sourceDoc.getValues("alt");
+      String[] altTerms = SKOSEngineImpl.getLabels(sourceDoc, SKOSType.ALT,
+          languages);
       
       for (String pref : prefTerms) {
       
@@ -0,0 +1,72 @@
+package at.ac.univie.mminf.luceneSKOS.skos;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Recognizes the (multi-word) labels of a vocabulary word by word, as
+ * returned by {@link SKOSEngine#newLabelMatcher()}.
+ *
+ * A match starts with {@link #reset()}; each {@link #append} adds the next
+ * word, separated from the previous one by a single space, and tells whether
+ * some label still starts with the words appended so far. Once it returns
+ * false, no longer label can match and the caller stops. {@link #isLabel()}
+ * tells whether the words appended so far are a label themselves. Words are
+ * compared in lowercase, like the labels given to
+ * {@link SKOSEngine#expandLabel}.
+ *
+ * Matchers keep the state of one match and are used by a single thread.
+ */
+public abstract class LabelMatcher {
+
+  /**
+   * A matcher for engines that cannot recognize label prefixes: every
+   * sequence of words may be a label, so callers look all of them up
+   */
+  public static final LabelMatcher ANY = new LabelMatcher() {
+    @Override
+    public void reset() {}
+
+    @Override
+    public boolean append(char[] word, int offset, int length) {
+      return true;
+    }
+
+    @Override
+    public boolean isLabel() {
+      return true;
+    }
+  };
+
+  /** Starts a new match */
+  public abstract void reset();
+
+  /**
+   * Appends the next word to the current match
+   *
+   * @param word
+   *          the buffer holding the word
+   * @param offset
+   *          the start of the word in the buffer
+   * @param length
+   *          the length of the word
+   * @return false if no label starts with the words appended so far
+   */
+  public abstract boolean append(char[] word, int offset, int length);
+
+  /** Returns true if the words appended so far are a label */
+  public abstract boolean isLabel();
+}
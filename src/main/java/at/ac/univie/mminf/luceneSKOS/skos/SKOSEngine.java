@@ -17,6 +17,9 @@ package at.ac.univie.mminf.luceneSKOS.skos;
  */
 
 import java.io.IOException;
+import java.util.Set;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
 
 /**
  * An interface to the used SKOS model. It provides accessors to all the data
@@ -164,4 +167,76 @@ public interface SKOSEngine {
    */
   String[] getAltTerms(String label) throws IOException;
   
+  /**
+   * Appends the expansions of the given types for all concepts matching a
+   * given label to <code>expansion</code>. Concepts are expanded one after
+   * the other, the types of a concept in the order of
+   * {@link SKOSExpansion#EXPANSION_ORDER}. Label types expand to the labels of
+   * the concept, relation types to the labels (prefLabel + altLabel) of the
+   * related concepts.
+   * 
+   * @param label
+   * @param types
+   * @param expansion
+   * @throws IOException
+   */
+  void expandLabel(String label, Set<SKOSType> types, SKOSExpansion expansion)
+      throws IOException;
+  
+  /**
+   * Appends the expansions of the given types for a given concept URI to
+   * <code>expansion</code>, in the same way as {@link #expandLabel}
+   * 
+   * @param conceptURI
+   * @param types
+   * @param expansion
+   * @throws IOException
+   */
+  void expandConcept(String conceptURI, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException;
+  
+  /**
+   * Returns a new matcher that recognizes the labels this engine expands word
+   * by word, so that token filters find the longest label at a position
+   * without looking up every shorter sequence of words. The matcher is meant
+   * for a single thread; engines that cannot match label prefixes return
+   * {@link LabelMatcher#ANY}.
+   * 
+   * @return LabelMatcher
+   */
+  LabelMatcher newLabelMatcher();
+  
+  /**
+   * Returns the number of words of the longest label (prefLabel, altLabel or
+   * hiddenLabel) of the vocabulary, counting words as separated by spaces.
+   * A label can only match that many tokens, so this is the lookahead a
+   * label filter needs.
+   * 
+   * @return int
+   */
+  int getMaxLabelWords();
+  
+  /**
+   * Returns an engine over the same vocabulary that only considers labels of
+   * the given languages (and of the languages this engine is restricted to,
+   * if any). The view shares the data of this engine and must not be used
+   * once this engine is closed.
+   * 
+   * @param languages
+   *          the language tags, "" for labels without a tag, null for all
+   * @return SKOSEngine
+   * @throws UnsupportedOperationException
+   *           if the engine cannot restrict its languages
+   */
+  SKOSEngine getLanguageView(String... languages);
+  
+  /**
+   * Returns the approximate number of bytes this engine keeps on the Java
+   * heap, for sizing heaps. Data held in direct buffers or memory mappings is
+   * not included; language views report the data they share.
+   * 
+   * @return long
+   */
+  long ramBytesUsed();
+  
 }
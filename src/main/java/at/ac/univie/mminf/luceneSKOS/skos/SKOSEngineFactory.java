@@ -18,20 +18,47 @@ package at.ac.univie.mminf.luceneSKOS.skos;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.apache.lucene.util.Version;
 
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine.EvictionPolicy;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.ConceptIndexBuilder;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.FederatedSKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.FederatedSKOSEngine.Vocabulary;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.ReloadableSKOSEngine;
 import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSEngineImpl;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSEngineImpl.IndexLayout;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSGraphEngineImpl;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.Storage;
 
 /**
  * This factory instantiates the various kinds of SKOSEngine implementations
  */
 public class SKOSEngineFactory {
   
+  /** The supported engine implementations */
+  public enum EngineType {
+    /** Concepts are stored in a Lucene index ({@link SKOSEngineImpl}) */
+    INDEX,
+    /**
+     * Concepts are stored in a Lucene index with labels and relations as doc
+     * values ({@link SKOSEngineImpl}, {@link IndexLayout#DOC_VALUES})
+     */
+    DOCVALUES,
+    /** Concepts are compiled into an in-memory graph ({@link SKOSGraphEngineImpl}) */
+    GRAPH
+  }
+  
+  /** Default engine implementation */
+  public static final EngineType DEFAULT_ENGINE_TYPE = EngineType.INDEX;
+  
   /**
    * Sets up a SKOS Engine from a local rdf file (serialized in any rdf
    * serialization format) or a remote rdf serialization identified by a URI and
-   * reachable via HTTP.
+   * reachable via HTTP. Graph snapshots (*.skosgraph) are opened directly.
    * 
    * @param filenameOrURI
    *          the skos file
@@ -40,7 +67,7 @@ public class SKOSEngineFactory {
    */
   public static SKOSEngine getSKOSEngine(final Version version,
       String filenameOrURI) throws IOException {
-    return new SKOSEngineImpl(version, filenameOrURI);
+    return getSKOSEngine(version, filenameOrURI, (String[]) null);
   }
   
   /**
@@ -73,6 +100,206 @@ public class SKOSEngineFactory {
    */
   public static SKOSEngine getSKOSEngine(final Version version,
       String filenameOrURI, String... languages) throws IOException {
+    if (SKOSGraphEngineImpl.isSnapshot(filenameOrURI)) {
+      // snapshots can only be served by the graph engine
+      return new SKOSGraphEngineImpl(filenameOrURI, languages);
+    }
     return new SKOSEngineImpl(version, filenameOrURI, languages);
   }
-}
\ No newline at end of file
+  
+  /**
+   * Sets up a SKOS Engine of the given type from a given rdf file (serialized
+   * in any rdf serialization format) and considers only those concept labels
+   * that are defined in the language parameter. Graph snapshots (*.skosgraph)
+   * are opened by the graph engine, whatever the type.
+   * 
+   * @param type
+   *          the engine implementation to use
+   * @param filenameOrURI
+   *          the skos file
+   * @param languages
+   *          the languages to be considered
+   * @return SKOSEngine
+   * @throws IOException
+   */
+  public static SKOSEngine getSKOSEngine(final Version version,
+      EngineType type, String filenameOrURI, String... languages)
+      throws IOException {
+    return getSKOSEngine(version, type, filenameOrURI,
+        new ConceptIndexBuilder(), languages);
+  }
+  
+  /**
+   * Sets up a SKOS Engine of the given type from a given rdf file, building
+   * the concept index (if it is not up to date) with the given builder. The
+   * graph engine does not use the builder. Graph snapshots (*.skosgraph) are
+   * opened by the graph engine, whatever the type.
+   * 
+   * @param type
+   *          the engine implementation to use
+   * @param filenameOrURI
+   *          the skos file
+   * @param builder
+   *          the number of threads and the RAM buffer used for indexing
+   * @param languages
+   *          the languages to be considered
+   * @return SKOSEngine
+   * @throws IOException
+   */
+  public static SKOSEngine getSKOSEngine(final Version version,
+      EngineType type, String filenameOrURI, ConceptIndexBuilder builder,
+      String... languages) throws IOException {
+    return getSKOSEngine(version, type, filenameOrURI, builder, Storage.HEAP,
+        languages);
+  }
+  
+  /**
+   * Sets up a SKOS Engine of the given type from a given rdf file, building
+   * the concept index (if it is not up to date) with the given builder and
+   * keeping the tables derived from the vocabulary in the given storage. The
+   * graph engine always opens its snapshot through a memory mapping and does
+   * not use the builder. Graph snapshots (*.skosgraph) are opened directly.
+   * 
+   * @param type
+   *          the engine implementation to use
+   * @param filenameOrURI
+   *          the skos file
+   * @param builder
+   *          the number of threads and the RAM buffer used for indexing
+   * @param storage
+   *          where the labels, URIs and relations are held
+   * @param languages
+   *          the languages to be considered
+   * @return SKOSEngine
+   * @throws IOException
+   */
+  public static SKOSEngine getSKOSEngine(final Version version,
+      EngineType type, String filenameOrURI, ConceptIndexBuilder builder,
+      Storage storage, String... languages) throws IOException {
+    if (type == EngineType.GRAPH
+        || SKOSGraphEngineImpl.isSnapshot(filenameOrURI)) {
+      return new SKOSGraphEngineImpl(filenameOrURI, languages);
+    }
+    return new SKOSEngineImpl(version, filenameOrURI,
+        type == EngineType.DOCVALUES ? IndexLayout.DOC_VALUES
+            : IndexLayout.STORED_FIELDS, builder, storage, languages);
+  }
+  
+  /**
+   * Sets up a SKOS Engine that merges several vocabularies into one label
+   * dictionary, so that a single filter expands against all of them
+   * 
+   * @param vocabularies
+   *          the vocabularies with their priorities and expansion types
+   * @param languages
+   *          the languages to be considered
+   * @return a new FederatedSKOSEngine instance
+   * @throws IOException
+   */
+  public static FederatedSKOSEngine getFederatedSKOSEngine(
+      List<Vocabulary> vocabularies, String... languages) throws IOException {
+    return new FederatedSKOSEngine(vocabularies, languages);
+  }
+  
+  /**
+   * Sets up a SKOS Engine of the given type that can be reloaded at runtime.
+   * Every reload checks the source and rebuilds the engine's data if the
+   * source has changed.
+   * 
+   * @param type
+   *          the engine implementation to use
+   * @param filenameOrURI
+   *          the skos file
+   * @param languages
+   *          the languages to be considered
+   * @return a new ReloadableSKOSEngine instance
+   * @throws IOException
+   */
+  public static ReloadableSKOSEngine getReloadableSKOSEngine(
+      final Version version, final EngineType type,
+      final String filenameOrURI, final String... languages)
+      throws IOException {
+    return new ReloadableSKOSEngine(new Callable<SKOSEngine>() {
+      @Override
+      public SKOSEngine call() throws IOException {
+        return getSKOSEngine(version, type, filenameOrURI, languages);
+      }
+    });
+  }
+  
+  /**
+   * Wraps a SKOS Engine with a bounded cache of its answers
+   * 
+   * @param engine
+   *          the engine whose answers are cached
+   * @param maxSize
+   *          the maximum number of cached answers
+   * @param policy
+   *          the eviction policy (LRU or LFU)
+   * @param cacheMisses
+   *          whether labels and concepts without expansions are cached
+   * @return a new CachingSKOSEngine instance
+   */
+  public static CachingSKOSEngine getCachingSKOSEngine(SKOSEngine engine,
+      int maxSize, EvictionPolicy policy, boolean cacheMisses) {
+    return new CachingSKOSEngine(engine, maxSize, policy, cacheMisses);
+  }
+  
+  /**
+   * Sets up a SKOS Engine of the given type from a given InputStream. The
+   * inputstream must deliver data in a valid RDF serialization format.
+   * 
+   * @param type
+   *          the engine implementation to use
+   * @param inputStream
+   *          the input stream
+   * @param lang
+   *          the serialization format (N3, RDF/XML, TURTLE)
+   * @return a new SKOSEngine instance
+   * @throws IOException
+   */
+  public static SKOSEngine getSKOSEngine(final Version version,
+      EngineType type, InputStream inputStream, String lang)
+      throws IOException {
+    switch (type) {
+      case GRAPH:
+        return new SKOSGraphEngineImpl(inputStream, lang);
+      case DOCVALUES:
+        return new SKOSEngineImpl(version, inputStream, lang,
+            IndexLayout.DOC_VALUES);
+      default:
+        return new SKOSEngineImpl(version, inputStream, lang);
+    }
+  }
+  
+  /**
+   * Sets up a SKOS Engine of the given type from a given InputStream, keeping
+   * the tables derived from the vocabulary in the given storage. The
+   * inputstream must deliver data in a valid RDF serialization format.
+   * 
+   * @param type
+   *          the engine implementation to use
+   * @param inputStream
+   *          the input stream
+   * @param lang
+   *          the serialization format (N3, RDF/XML, TURTLE)
+   * @param storage
+   *          where the labels, URIs and relations are held
+   * @return a new SKOSEngine instance
+   * @throws IOException
+   */
+  public static SKOSEngine getSKOSEngine(final Version version,
+      EngineType type, InputStream inputStream, String lang, Storage storage)
+      throws IOException {
+    switch (type) {
+      case GRAPH:
+        return new SKOSGraphEngineImpl(inputStream, lang, storage);
+      case DOCVALUES:
+        return new SKOSEngineImpl(version, inputStream, lang,
+            IndexLayout.DOC_VALUES, new ConceptIndexBuilder(), storage);
+      default:
+        return new SKOSEngineImpl(version, inputStream, lang,
+            IndexLayout.STORED_FIELDS, new ConceptIndexBuilder(), storage);
+    }
+  }
+}
@@ -0,0 +1,483 @@
+package at.ac.univie.mminf.luceneSKOS.skos;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.util.Version;
+
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory.EngineType;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine.EvictionPolicy;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.ConceptIndexBuilder;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.FederatedSKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.FederatedSKOSEngine.Vocabulary;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.Storage;
+
+/**
+ * Shares SKOS engines among all users of the same vocabulary within a
+ * process.
+ *
+ * Engines are identified by a {@link Key}: the source file, the languages and
+ * the engine options. The first {@link #acquire} of a key loads the engine,
+ * later ones return the same instance and increase its reference count. Each
+ * acquire must be balanced by a {@link #release}; the engine is closed (if it
+ * is {@link Closeable}) and removed from the registry when the last reference
+ * is released.
+ *
+ * Index and graph engines hold the labels of all languages, so keys of the
+ * same vocabulary that only differ in their languages or cache options share
+ * one engine: each of them is a language view of the engine of all languages
+ * (see {@link SKOSEngine#getLanguageView}) with a cache of its own. The shared
+ * engine is closed along with the last of its views.
+ *
+ * Users that might miss their release (such as Solr filter factories, whose
+ * schema may outlive a core) pass an owner object. As a fallback, a
+ * background thread releases their reference once the owner has been garbage
+ * collected.
+ *
+ * Engines of different keys are loaded concurrently; concurrent acquires of
+ * the same key wait for a single load. All SKOSEngine implementations are
+ * safe for use by multiple threads.
+ */
+public final class SKOSEngineRegistry {
+
+  /* the owners of all registries that were garbage collected */
+  private static final ReferenceQueue<Object> COLLECTED_OWNERS = new ReferenceQueue<Object>();
+
+  static {
+    Thread reaper = new Thread("SKOS engine owner reaper") {
+      @Override
+      public void run() {
+        while (true) {
+          OwnerReference reference;
+          try {
+            reference = (OwnerReference) COLLECTED_OWNERS.remove();
+          } catch (InterruptedException e) {
+            return;
+          }
+          // a failed close still removes the engine from the registry, and
+          // there is no caller to report the failure to
+          try {
+            reference.registry.collected(reference);
+          } catch (IOException e) {
+            continue;
+          } catch (RuntimeException e) {
+            continue;
+          }
+        }
+      }
+    };
+    reaper.setDaemon(true);
+    reaper.start();
+  }
+
+  private static final SKOSEngineRegistry INSTANCE = new SKOSEngineRegistry();
+
+  /** Identifies a shared engine */
+  public static final class Key {
+
+    private final Version version;
+
+    private final EngineType type;
+
+    /* more than one for a federated engine, highest priority first */
+    private final List<String> sources;
+
+    /* sorted, null for all languages */
+    private final Set<String> languages;
+
+    private final int cacheSize;
+
+    private final EvictionPolicy cachePolicy;
+
+    private final boolean cacheMisses;
+
+    private final Storage storage;
+
+    /**
+     * Identifies an engine without a cache
+     *
+     * @param filenameOrURI
+     *          the skos file, local files are identified by their canonical
+     *          path
+     * @param languages
+     *          the languages to be considered, null for all
+     */
+    public Key(Version version, EngineType type, String filenameOrURI,
+        String... languages) throws IOException {
+      this(version, type, filenameOrURI, languages, 0, null, false);
+    }
+
+    /**
+     * Identifies an engine with a cache of the given size (no cache if 0)
+     *
+     * @see SKOSEngineFactory#getCachingSKOSEngine
+     */
+    public Key(Version version, EngineType type, String filenameOrURI,
+        String[] languages, int cacheSize, EvictionPolicy cachePolicy,
+        boolean cacheMisses) throws IOException {
+      this(version, type, filenameOrURI, languages, cacheSize, cachePolicy,
+          cacheMisses, Storage.HEAP);
+    }
+
+    /**
+     * Identifies an engine with a cache of the given size (no cache if 0)
+     * whose tables are held in the given storage
+     *
+     * @see SKOSEngineFactory#getCachingSKOSEngine
+     * @see Storage
+     */
+    public Key(Version version, EngineType type, String filenameOrURI,
+        String[] languages, int cacheSize, EvictionPolicy cachePolicy,
+        boolean cacheMisses, Storage storage) throws IOException {
+      this(version, type, new String[] {filenameOrURI}, languages, cacheSize,
+          cachePolicy, cacheMisses, storage);
+    }
+
+    /**
+     * Identifies an engine with a cache of the given size (no cache if 0)
+     * whose tables are held in the given storage. Several skos files are
+     * merged into a {@link FederatedSKOSEngine}, with priorities in the given
+     * order; the engine type and the storage only apply to a single file.
+     *
+     * @param filenamesOrURIs
+     *          the skos files, highest priority first
+     * @see SKOSEngineFactory#getFederatedSKOSEngine
+     */
+    public Key(Version version, EngineType type, String[] filenamesOrURIs,
+        String[] languages, int cacheSize, EvictionPolicy cachePolicy,
+        boolean cacheMisses, Storage storage) throws IOException {
+      if (filenamesOrURIs.length == 0) {
+        throw new IllegalArgumentException("No skos file given");
+      }
+      List<String> canonical = new ArrayList<String>(filenamesOrURIs.length);
+      for (String filenameOrURI : filenamesOrURIs) {
+        File file = new File(filenameOrURI);
+        canonical.add(file.exists() ? file.getCanonicalPath() : filenameOrURI);
+      }
+      this.version = version;
+      this.type = type;
+      this.sources = Collections.unmodifiableList(canonical);
+      this.languages = languages == null ? null : new TreeSet<String>(
+          Arrays.asList(languages));
+      this.cacheSize = cacheSize;
+      this.cachePolicy = cacheSize > 0 ? cachePolicy : null;
+      this.cacheMisses = cacheSize > 0 && cacheMisses;
+      this.storage = storage;
+    }
+
+    /** The key of the engine of all languages, without a cache */
+    private Key(Key view) {
+      version = view.version;
+      type = view.type;
+      sources = view.sources;
+      languages = null;
+      cacheSize = 0;
+      cachePolicy = null;
+      cacheMisses = false;
+      storage = view.storage;
+    }
+
+    /**
+     * Returns the key of the engine this key is a language view of, null if
+     * the engine of this key is loaded on its own
+     */
+    Key base() {
+      if (isFederated() || languages == null && cacheSize == 0) {
+        return null;
+      }
+      return new Key(this);
+    }
+
+    /** Creates the engine of this key as a view of the engine of its base */
+    SKOSEngine view(SKOSEngine base) {
+      SKOSEngine engine = base.getLanguageView(languages == null ? null
+          : languages.toArray(new String[languages.size()]));
+      if (cacheSize > 0) {
+        engine = SKOSEngineFactory.getCachingSKOSEngine(engine, cacheSize,
+            cachePolicy, cacheMisses);
+      }
+      return engine;
+    }
+
+    private boolean isFederated() {
+      return sources.size() > 1;
+    }
+
+    /** Loads a new engine for this key */
+    SKOSEngine load() throws IOException {
+      String[] languageArray = languages == null ? null : languages
+          .toArray(new String[languages.size()]);
+      SKOSEngine engine;
+      if (isFederated()) {
+        List<Vocabulary> vocabularies = new ArrayList<Vocabulary>();
+        for (int i = 0; i < sources.size(); i++) {
+          vocabularies.add(new Vocabulary(sources.get(i), sources.size() - i));
+        }
+        engine = SKOSEngineFactory.getFederatedSKOSEngine(vocabularies,
+            languageArray);
+      } else {
+        engine = SKOSEngineFactory.getSKOSEngine(version, type, sources
+            .get(0), new ConceptIndexBuilder(), storage, languageArray);
+      }
+      if (cacheSize > 0) {
+        engine = SKOSEngineFactory.getCachingSKOSEngine(engine, cacheSize,
+            cachePolicy, cacheMisses);
+      }
+      return engine;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return version == other.version && type == other.type
+          && sources.equals(other.sources)
+          && (languages == null ? other.languages == null : languages
+              .equals(other.languages)) && cacheSize == other.cacheSize
+          && cachePolicy == other.cachePolicy
+          && cacheMisses == other.cacheMisses && storage == other.storage;
+    }
+
+    @Override
+    public int hashCode() {
+      int h = sources.hashCode();
+      h = 31 * h + type.hashCode();
+      h = 31 * h + version.hashCode();
+      h = 31 * h + (languages == null ? 0 : languages.hashCode());
+      h = 31 * h + cacheSize;
+      h = 31 * h + storage.hashCode();
+      return h;
+    }
+
+    @Override
+    public String toString() {
+      return type + " " + StringUtils.join(sources, ",") + " " + (languages == null ? "all" : languages)
+          + (cacheSize > 0 ? " cache " + cacheSize + " " + cachePolicy : "")
+          + (storage != Storage.HEAP ? " " + storage : "");
+    }
+  }
+
+  /** A shared engine along with the number of its references */
+  private static final class Entry {
+
+    private final Key key;
+
+    /* the entry this one is a view of (holding a reference to it), or null */
+    private final Entry base;
+
+    /* set once loaded, guarded by the entry */
+    private SKOSEngine engine;
+
+    /* guarded by the registry */
+    private int refCount;
+
+    Entry(Key key, Entry base) {
+      this.key = key;
+      this.base = base;
+    }
+
+    synchronized SKOSEngine get() throws IOException {
+      if (engine == null) {
+        engine = base == null ? key.load() : key.view(base.get());
+      }
+      return engine;
+    }
+  }
+
+  /** A reference held on behalf of an owner object */
+  private static final class OwnerReference extends WeakReference<Object> {
+
+    private final SKOSEngineRegistry registry;
+
+    private final Entry entry;
+
+    OwnerReference(Object owner, SKOSEngineRegistry registry, Entry entry) {
+      super(owner, COLLECTED_OWNERS);
+      this.registry = registry;
+      this.entry = entry;
+    }
+  }
+
+  private final Map<Key,Entry> entries = new HashMap<Key,Entry>();
+
+  private final Map<SKOSEngine,Entry> engines = new IdentityHashMap<SKOSEngine,Entry>();
+
+  /* strongly held until the owner is collected */
+  private final Set<OwnerReference> owners = new HashSet<OwnerReference>();
+
+  SKOSEngineRegistry() {}
+
+  /** Returns the registry shared by the whole process */
+  public static SKOSEngineRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the engine for the given key, loading it if it is not shared yet.
+   * The reference must be handed back with {@link #release}.
+   *
+   * @throws IOException
+   *           if the engine cannot be loaded
+   */
+  public SKOSEngine acquire(Key key) throws IOException {
+    return acquire(key, null);
+  }
+
+  /**
+   * Returns the engine for the given key, loading it if it is not shared yet.
+   * The reference is released once the owner has been garbage collected, or
+   * with {@link #release}.
+   *
+   * @param owner
+   *          the object holding the reference, null if it is released
+   *          explicitly
+   * @throws IOException
+   *           if the engine cannot be loaded
+   */
+  public SKOSEngine acquire(Key key, Object owner) throws IOException {
+    Entry entry;
+    synchronized (this) {
+      entry = entry(key);
+    }
+
+    SKOSEngine engine;
+    try {
+      engine = entry.get();
+    } catch (IOException e) {
+      decRef(entry);
+      throw e;
+    } catch (RuntimeException e) {
+      decRef(entry);
+      throw e;
+    }
+
+    synchronized (this) {
+      engines.put(engine, entry);
+      if (owner != null) {
+        owners.add(new OwnerReference(owner, this, entry));
+      }
+    }
+    return engine;
+  }
+
+  /**
+   * Hands back a reference to an engine obtained from {@link #acquire}. The
+   * engine is closed when its last reference is released.
+   */
+  public void release(SKOSEngine engine) throws IOException {
+    Entry entry;
+    synchronized (this) {
+      entry = engines.get(engine);
+    }
+    if (entry != null) {
+      decRef(entry);
+    }
+  }
+
+  /**
+   * Hands back a reference obtained for the given owner, before it is
+   * garbage collected
+   */
+  public void release(SKOSEngine engine, Object owner) throws IOException {
+    synchronized (this) {
+      for (OwnerReference reference : owners) {
+        if (reference.get() == owner && reference.entry.engine == engine) {
+          owners.remove(reference);
+          reference.clear();
+          break;
+        }
+      }
+    }
+    release(engine);
+  }
+
+  /** Returns the number of references to the engine of the given key */
+  public synchronized int getRefCount(Key key) {
+    Entry entry = entries.get(key);
+    return entry == null ? 0 : entry.refCount;
+  }
+
+  /**
+   * Releases the reference of an owner that was garbage collected, unless it
+   * was released explicitly
+   */
+  private void collected(OwnerReference reference) throws IOException {
+    boolean held;
+    synchronized (this) {
+      held = owners.remove(reference);
+    }
+    if (held) {
+      decRef(reference.entry);
+    }
+  }
+
+  /**
+   * Returns the entry of a key with a new reference, creating it (and its
+   * base) if it is not shared yet
+   */
+  private Entry entry(Key key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      Key baseKey = key.base();
+      entry = new Entry(key, baseKey == null ? null : entry(baseKey));
+      entries.put(key, entry);
+    }
+    entry.refCount++;
+    return entry;
+  }
+
+  private void decRef(Entry entry) throws IOException {
+    synchronized (this) {
+      if (--entry.refCount > 0) {
+        return;
+      }
+      entries.remove(entry.key);
+      if (entry.engine != null) {
+        engines.remove(entry.engine);
+      }
+    }
+    try {
+      // a failed load leaves no engine behind
+      SKOSEngine engine = entry.engine;
+      if (engine instanceof Closeable) {
+        ((Closeable) engine).close();
+      }
+    } finally {
+      if (entry.base != null) {
+        decRef(entry.base);
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package at.ac.univie.mminf.luceneSKOS.skos;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+
+/**
+ * The typed expansions (terms) of a label or concept, as collected by
+ * {@link SKOSEngine#expandLabel} and {@link SKOSEngine#expandConcept}.
+ * 
+ * Expansion objects are meant to be reused: engines append to them and
+ * {@link #clear()} empties them without releasing their buffers.
+ */
+public final class SKOSExpansion {
+  
+  /**
+   * The order in which the types of a concept are expanded
+   */
+  public static final SKOSType[] EXPANSION_ORDER = new SKOSType[] {
+      SKOSType.PREF, SKOSType.ALT, SKOSType.HIDDEN, SKOSType.BROADER,
+      SKOSType.BROADERTRANSITIVE, SKOSType.NARROWER,
+      SKOSType.NARROWERTRANSITIVE, SKOSType.RELATED};
+  
+  private String[] terms = new String[8];
+  
+  private SKOSType[] types = new SKOSType[8];
+  
+  private int size;
+  
+  /** Removes all expansions */
+  public void clear() {
+    Arrays.fill(terms, 0, size, null);
+    size = 0;
+  }
+  
+  /** Returns the number of expansions */
+  public int size() {
+    return size;
+  }
+  
+  /** Returns true if there are no expansions */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  /** Returns the term of the expansion at the given position */
+  public String getTerm(int index) {
+    return terms[index];
+  }
+  
+  /** Returns the type of the expansion at the given position */
+  public SKOSType getType(int index) {
+    return types[index];
+  }
+  
+  /** Appends an expansion */
+  public void add(String term, SKOSType type) {
+    if (size == terms.length) {
+      terms = Arrays.copyOf(terms, size * 2);
+      types = Arrays.copyOf(types, size * 2);
+    }
+    terms[size] = term;
+    types[size++] = type;
+  }
+  
+  /** Appends all expansions of another expansion object */
+  public void addAll(SKOSExpansion expansion) {
+    for (int i = 0; i < expansion.size; i++) {
+      add(expansion.terms[i], expansion.types[i]);
+    }
+  }
+  
+  /** Appends expansions of the same type; null is ignored */
+  public void addAll(String[] terms, SKOSType type) {
+    if (terms != null) {
+      for (String term : terms) {
+        add(term, type);
+      }
+    }
+  }
+}
@@ -0,0 +1,642 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.LabelMatcher;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+
+/**
+ * A SKOSEngine that caches the answers of another engine.
+ *
+ * The cache holds at most a given number of answers and evicts the least
+ * recently (LRU) or least frequently (LFU) used ones. It is split into
+ * segments with a lock each, chosen by the hash of the request, so that many
+ * indexing threads rarely wait for each other.
+ *
+ * Empty answers (labels that match no concept, unknown concepts) are only
+ * cached if negative caching is enabled; vocabularies with few distinct labels
+ * benefit from it, while free text with many distinct tokens would mostly
+ * fill the cache with misses.
+ *
+ * The cache is never invalidated. To cache a {@link ReloadableSKOSEngine},
+ * wrap the engines created by its loader rather than the reloadable engine
+ * itself.
+ */
+public class CachingSKOSEngine implements SKOSEngine, Closeable {
+
+  /** The supported eviction policies */
+  public enum EvictionPolicy {
+    /** Evicts the least recently used answer */
+    LRU,
+    /** Evicts the least frequently used answer, the oldest one on ties */
+    LFU
+  }
+
+  /** Default maximum number of cached answers */
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  /** Default eviction policy */
+  public static final EvictionPolicy DEFAULT_EVICTION_POLICY = EvictionPolicy.LRU;
+
+  /* the requests, as stored in the cache keys */
+  private static final int PREF_LABELS = 0;
+  private static final int ALT_LABELS = 1;
+  private static final int HIDDEN_LABELS = 2;
+  private static final int RELATED_LABELS = 3;
+  private static final int RELATED_CONCEPTS = 4;
+  private static final int BROADER_CONCEPTS = 5;
+  private static final int NARROWER_CONCEPTS = 6;
+  private static final int BROADER_LABELS = 7;
+  private static final int NARROWER_LABELS = 8;
+  private static final int BROADER_TRANSITIVE_CONCEPTS = 9;
+  private static final int NARROWER_TRANSITIVE_CONCEPTS = 10;
+  private static final int BROADER_TRANSITIVE_LABELS = 11;
+  private static final int NARROWER_TRANSITIVE_LABELS = 12;
+  private static final int CONCEPTS = 13;
+  private static final int ALT_TERMS = 14;
+  private static final int EXPAND_LABEL = 15;
+  private static final int EXPAND_CONCEPT = 16;
+
+  /** Stands for a null answer in the cache */
+  private static final Object NULL = new Object();
+
+  private static final int SEGMENTS = 16;
+
+  /* small caches are not split, eviction is exact within a segment */
+  private static final int MIN_SEGMENT_SIZE = 64;
+
+  private final SKOSEngine engine;
+
+  private final int maxSize;
+
+  private final EvictionPolicy policy;
+
+  private final boolean cacheMisses;
+
+  private final Segment[] segments;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache with the default size and eviction policy, without
+   * negative caching
+   */
+  public CachingSKOSEngine(SKOSEngine engine) {
+    this(engine, DEFAULT_MAX_SIZE, DEFAULT_EVICTION_POLICY, false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param engine
+   *          the engine whose answers are cached
+   * @param maxSize
+   *          the maximum number of cached answers
+   * @param policy
+   *          the eviction policy
+   * @param cacheMisses
+   *          whether empty answers are cached as well
+   */
+  public CachingSKOSEngine(SKOSEngine engine, int maxSize,
+      EvictionPolicy policy, boolean cacheMisses) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("The cache size must be positive");
+    }
+    this.engine = engine;
+    this.maxSize = maxSize;
+    this.policy = policy;
+    this.cacheMisses = cacheMisses;
+
+    int count = Math.min(SEGMENTS,
+        Integer.highestOneBit(Math.max(1, maxSize / MIN_SEGMENT_SIZE)));
+    int capacity = (maxSize + count - 1) / count;
+    segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = policy == EvictionPolicy.LFU ? new LFUSegment(capacity)
+          : new LRUSegment(capacity);
+    }
+  }
+
+  /** Returns the engine whose answers are cached */
+  public SKOSEngine getEngine() {
+    return engine;
+  }
+
+  /** Returns the number of requests answered from the cache */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /** Returns the number of requests passed on to the engine */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** Returns the number of cached answers */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  /** Removes all cached answers; the counters are kept */
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  /** Closes the engine whose answers are cached, if it is Closeable */
+  @Override
+  public void close() throws IOException {
+    clear();
+    if (engine instanceof Closeable) {
+      ((Closeable) engine).close();
+    }
+  }
+
+  @Override
+  public String[] getPrefLabels(String conceptURI) throws IOException {
+    Key key = new Key(PREF_LABELS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getPrefLabels(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getAltLabels(String conceptURI) throws IOException {
+    Key key = new Key(ALT_LABELS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getAltLabels(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getHiddenLabels(String conceptURI) throws IOException {
+    Key key = new Key(HIDDEN_LABELS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getHiddenLabels(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getRelatedLabels(String conceptURI) throws IOException {
+    Key key = new Key(RELATED_LABELS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getRelatedLabels(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getRelatedConcepts(String conceptURI) throws IOException {
+    Key key = new Key(RELATED_CONCEPTS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getRelatedConcepts(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getBroaderConcepts(String conceptURI) throws IOException {
+    Key key = new Key(BROADER_CONCEPTS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getBroaderConcepts(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getNarrowerConcepts(String conceptURI) throws IOException {
+    Key key = new Key(NARROWER_CONCEPTS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getNarrowerConcepts(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getBroaderLabels(String conceptURI) throws IOException {
+    Key key = new Key(BROADER_LABELS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getBroaderLabels(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getNarrowerLabels(String conceptURI) throws IOException {
+    Key key = new Key(NARROWER_LABELS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getNarrowerLabels(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getBroaderTransitiveConcepts(String conceptURI)
+      throws IOException {
+    Key key = new Key(BROADER_TRANSITIVE_CONCEPTS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getBroaderTransitiveConcepts(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getNarrowerTransitiveConcepts(String conceptURI)
+      throws IOException {
+    Key key = new Key(NARROWER_TRANSITIVE_CONCEPTS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getNarrowerTransitiveConcepts(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getBroaderTransitiveLabels(String conceptURI)
+      throws IOException {
+    Key key = new Key(BROADER_TRANSITIVE_LABELS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getBroaderTransitiveLabels(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getNarrowerTransitiveLabels(String conceptURI)
+      throws IOException {
+    Key key = new Key(NARROWER_TRANSITIVE_LABELS, conceptURI, 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getNarrowerTransitiveLabels(conceptURI));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getConcepts(String label) throws IOException {
+    // the engines match labels case-insensitively
+    Key key = new Key(CONCEPTS, label.toLowerCase(), 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getConcepts(label));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public String[] getAltTerms(String label) throws IOException {
+    Key key = new Key(ALT_TERMS, label.toLowerCase(), 0);
+    Object answer = lookup(key);
+    if (answer == null) {
+      answer = store(key, engine.getAltTerms(label));
+    }
+    return strings(answer);
+  }
+
+  @Override
+  public void expandLabel(String label, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    Key key = new Key(EXPAND_LABEL, label.toLowerCase(), mask(types));
+    Object answer = lookup(key);
+    if (answer == null) {
+      SKOSExpansion result = new SKOSExpansion();
+      engine.expandLabel(label, types, result);
+      answer = store(key, result);
+    }
+    expansion.addAll((SKOSExpansion) answer);
+  }
+
+  @Override
+  public void expandConcept(String conceptURI, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    Key key = new Key(EXPAND_CONCEPT, conceptURI, mask(types));
+    Object answer = lookup(key);
+    if (answer == null) {
+      SKOSExpansion result = new SKOSExpansion();
+      engine.expandConcept(conceptURI, types, result);
+      answer = store(key, result);
+    }
+    expansion.addAll((SKOSExpansion) answer);
+  }
+
+  /**
+   * Returns a cache of the same size and policy over a language view of the
+   * engine. Closing it does not close this cache or its engine.
+   */
+  @Override
+  public SKOSEngine getLanguageView(String... languages) {
+    return new CachingSKOSEngine(engine.getLanguageView(languages), maxSize,
+        policy, cacheMisses);
+  }
+
+  /** Labels are matched by the engine whose answers are cached */
+  @Override
+  public LabelMatcher newLabelMatcher() {
+    return engine.newLabelMatcher();
+  }
+
+  @Override
+  public int getMaxLabelWords() {
+    return engine.getMaxLabelWords();
+  }
+
+  /**
+   * Returns the heap memory used by the engine whose answers are cached. The
+   * cached answers are not included; their number is bounded by the size of
+   * the cache.
+   */
+  @Override
+  public long ramBytesUsed() {
+    return engine.ramBytesUsed();
+  }
+
+  /** Returns the cached answer for a request, or null on a miss */
+  private Object lookup(Key key) {
+    Segment segment = segmentFor(key);
+    Object answer;
+    synchronized (segment) {
+      answer = segment.get(key);
+    }
+    if (answer == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return answer;
+  }
+
+  /**
+   * Caches the answer of the engine, unless it is empty and negative caching
+   * is disabled. Arrays are copied, so that callers cannot modify the cache.
+   */
+  private Object store(Key key, Object answer) {
+    if (answer == null) {
+      answer = NULL;
+    } else if (answer instanceof String[]) {
+      answer = ((String[]) answer).clone();
+    }
+    if (cacheMisses || !isEmpty(answer)) {
+      Segment segment = segmentFor(key);
+      synchronized (segment) {
+        segment.put(key, answer);
+      }
+    }
+    return answer;
+  }
+
+  private static boolean isEmpty(Object answer) {
+    if (answer == NULL) {
+      return true;
+    }
+    if (answer instanceof String[]) {
+      return ((String[]) answer).length == 0;
+    }
+    return ((SKOSExpansion) answer).isEmpty();
+  }
+
+  private static String[] strings(Object answer) {
+    return answer == NULL ? null : ((String[]) answer).clone();
+  }
+
+  private static int mask(Set<SKOSType> types) {
+    int mask = 0;
+    for (SKOSType type : types) {
+      mask |= 1 << type.ordinal();
+    }
+    return mask;
+  }
+
+  private Segment segmentFor(Key key) {
+    int hash = key.hash;
+    // spread the higher bits, the segments are chosen by the lower ones
+    hash ^= (hash >>> 16);
+    return segments[hash & (segments.length - 1)];
+  }
+
+  /** A request: the method called, its argument and the requested types */
+  private static final class Key {
+
+    private final int method;
+
+    private final String argument;
+
+    private final int types;
+
+    private final int hash;
+
+    Key(int method, String argument, int types) {
+      this.method = method;
+      this.argument = argument;
+      this.types = types;
+      this.hash = (argument.hashCode() * 31 + method) * 31 + types;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return method == other.method && types == other.types
+          && argument.equals(other.argument);
+    }
+  }
+
+  /** A part of the cache; callers synchronize on the segment */
+  private abstract static class Segment {
+
+    abstract Object get(Key key);
+
+    abstract void put(Key key, Object answer);
+
+    abstract int size();
+
+    abstract void clear();
+  }
+
+  /** A segment evicting the least recently used answer */
+  private static final class LRUSegment extends Segment {
+
+    private final LinkedHashMap<Key,Object> answers;
+
+    LRUSegment(final int capacity) {
+      answers = new LinkedHashMap<Key,Object>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,Object> eldest) {
+          return size() > capacity;
+        }
+      };
+    }
+
+    @Override
+    Object get(Key key) {
+      return answers.get(key);
+    }
+
+    @Override
+    void put(Key key, Object answer) {
+      answers.put(key, answer);
+    }
+
+    @Override
+    int size() {
+      return answers.size();
+    }
+
+    @Override
+    void clear() {
+      answers.clear();
+    }
+  }
+
+  /**
+   * A segment evicting the least frequently used answer. The keys are kept in
+   * one bucket per use count, each in insertion order, so that all operations
+   * take constant time.
+   */
+  private static final class LFUSegment extends Segment {
+
+    private static final class Entry {
+
+      final Object answer;
+
+      int count = 1;
+
+      Entry(Object answer) {
+        this.answer = answer;
+      }
+    }
+
+    private final int capacity;
+
+    private final Map<Key,Entry> answers = new HashMap<Key,Entry>();
+
+    private final Map<Integer,LinkedHashSet<Key>> buckets = new HashMap<Integer,LinkedHashSet<Key>>();
+
+    /* the lowest use count of a cached answer */
+    private int minCount;
+
+    LFUSegment(int capacity) {
+      this.capacity = capacity;
+    }
+
+    @Override
+    Object get(Key key) {
+      Entry entry = answers.get(key);
+      if (entry == null) {
+        return null;
+      }
+      LinkedHashSet<Key> bucket = buckets.get(entry.count);
+      bucket.remove(key);
+      if (bucket.isEmpty()) {
+        buckets.remove(entry.count);
+        if (minCount == entry.count) {
+          minCount++;
+        }
+      }
+      entry.count++;
+      bucket(entry.count).add(key);
+      return entry.answer;
+    }
+
+    @Override
+    void put(Key key, Object answer) {
+      if (answers.containsKey(key)) {
+        // another thread loaded the same answer
+        return;
+      }
+      if (answers.size() >= capacity) {
+        LinkedHashSet<Key> bucket = buckets.get(minCount);
+        Iterator<Key> iterator = bucket.iterator();
+        answers.remove(iterator.next());
+        iterator.remove();
+        if (bucket.isEmpty()) {
+          buckets.remove(minCount);
+        }
+      }
+      answers.put(key, new Entry(answer));
+      bucket(1).add(key);
+      minCount = 1;
+    }
+
+    private LinkedHashSet<Key> bucket(int count) {
+      LinkedHashSet<Key> bucket = buckets.get(count);
+      if (bucket == null) {
+        bucket = new LinkedHashSet<Key>();
+        buckets.put(count, bucket);
+      }
+      return bucket;
+    }
+
+    @Override
+    int size() {
+      return answers.size();
+    }
+
+    @Override
+    void clear() {
+      answers.clear();
+      buckets.clear();
+      minCount = 0;
+    }
+  }
+}
@@ -0,0 +1,703 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.LabelMatcher;
+
+/**
+ * An immutable, compiled representation of a SKOS vocabulary.
+ *
+ * Every concept is identified by a dense int id. Labels and relations are kept
+ * per SKOSType in CSR form: the entries of concept <code>id</code> are
+ * <code>targets[offsets[id]]</code> to <code>targets[offsets[id + 1] - 1]</code>.
+ * For label types the targets point into a shared table of distinct labels, for
+ * relation types they are concept ids. Every label entry also records the id
+ * of its language tag in the label dictionary, so that engines can be
+ * restricted to some of the languages of the graph.
+ *
+ * URIs that are only referenced as relation targets get an id as well (so that
+ * relations can be returned unchanged), but they are not concepts and have no
+ * entries of their own.
+ *
+ * The broaderTransitive and narrowerTransitive relations hold the complete
+ * transitive closure of broader and narrower, computed when the graph is
+ * built. Closure queries are therefore plain adjacency reads.
+ *
+ * All tables are held in buffers. A graph can therefore be saved as a
+ * snapshot and later opened through a memory mapping: opening only slices the
+ * mapped file into its sections, so it takes the same time for every
+ * vocabulary size and JVMs opening the same snapshot share the page cache.
+ * Only the label FST is copied to the heap.
+ */
+final class ConceptGraph {
+
+  /** The file extension of graph snapshots */
+  static final String SNAPSHOT_EXTENSION = "skosgraph";
+
+  /** The snapshot format version, to be increased on every format change */
+  static final int SNAPSHOT_VERSION = 6;
+
+  private static final int SNAPSHOT_MAGIC = 0x534B4F53; // "SKOS"
+
+  /** The SKOS types stored as labels */
+  static final SKOSType[] LABEL_TYPES = new SKOSType[] {SKOSType.PREF,
+      SKOSType.ALT, SKOSType.HIDDEN};
+
+  /** The SKOS types stored as relations between concepts */
+  static final SKOSType[] RELATION_TYPES = new SKOSType[] {SKOSType.BROADER,
+      SKOSType.NARROWER, SKOSType.BROADERTRANSITIVE,
+      SKOSType.NARROWERTRANSITIVE, SKOSType.RELATED};
+
+  /** The number of concepts; ids above are dangling relation targets */
+  private final int conceptCount;
+
+  /** The URI of each id */
+  private final StringTable uris;
+
+  /** Open-addressing hash table from URIs to ids, slots hold id + 1 */
+  private final IntBuffer uriHash;
+
+  /** The distinct labels of the vocabulary */
+  private final StringTable labels;
+
+  /** CSR offsets, indexed by SKOSType ordinal */
+  private final IntBuffer[] offsets;
+
+  /** CSR targets, indexed by SKOSType ordinal */
+  private final IntBuffer[] targets;
+
+  /**
+   * The language id of each label entry, parallel to the targets of the label
+   * types and indexed by SKOSType ordinal
+   */
+  private final ByteBuffer[] languages;
+
+  /** Maps a label to the ids of all concepts carrying it */
+  private final LabelDictionary labelDictionary;
+
+  private ConceptGraph(int conceptCount, StringTable uris, IntBuffer uriHash,
+      StringTable labels, IntBuffer[] offsets, IntBuffer[] targets,
+      ByteBuffer[] languages, LabelDictionary labelDictionary) {
+    this.conceptCount = conceptCount;
+    this.uris = uris;
+    this.uriHash = uriHash;
+    this.labels = labels;
+    this.offsets = offsets;
+    this.targets = targets;
+    this.languages = languages;
+    this.labelDictionary = labelDictionary;
+  }
+
+  /** Returns the number of concepts */
+  int size() {
+    return conceptCount;
+  }
+
+  /** Returns the id of a concept, or -1 if the URI is not a concept */
+  int getId(String conceptURI) {
+    int mask = uriHash.limit() - 1;
+    for (int slot = hash(conceptURI) & mask;; slot = (slot + 1) & mask) {
+      int id = uriHash.get(slot) - 1;
+      if (id < 0) {
+        return -1;
+      }
+      if (uris.equals(id, conceptURI)) {
+        return id < conceptCount ? id : -1;
+      }
+    }
+  }
+
+  /** Returns the URI of a given id */
+  String getURI(int id) {
+    return uris.get(id);
+  }
+
+  /** Returns the first CSR position of a concept's entries of a given type */
+  int start(SKOSType type, int id) {
+    return offsets[type.ordinal()].get(id);
+  }
+
+  /** Returns the CSR position after a concept's entries of a given type */
+  int end(SKOSType type, int id) {
+    return offsets[type.ordinal()].get(id + 1);
+  }
+
+  /** Returns the label or concept id at a given CSR position */
+  int target(SKOSType type, int position) {
+    return targets[type.ordinal()].get(position);
+  }
+
+  /**
+   * Returns the language id of the label entry at a given CSR position of a
+   * label type
+   */
+  int language(SKOSType type, int position) {
+    return languages[type.ordinal()].get(position) & 0xff;
+  }
+
+  /**
+   * Returns the ids of the given language tags, as accepted by the lookups
+   * restricted to languages, or null for all languages if the tags are null
+   */
+  BitSet getLanguageIds(Set<String> tags) {
+    return labelDictionary.getLanguageIds(tags);
+  }
+
+  /** Returns the label with the given label id */
+  String getLabel(int labelId) {
+    return labels.get(labelId);
+  }
+
+  /**
+   * Returns the ids of all concepts having the given (normalized) label in
+   * one of the given languages (all if null) in a buffer of the calling
+   * thread, which is overwritten by its next lookup
+   */
+  IntsRef concepts(String label, BitSet languageIds) throws IOException {
+    return labelDictionary.concepts(label, languageIds);
+  }
+
+  /**
+   * Returns the number of words of the longest label in one of the given
+   * languages (all if null)
+   */
+  int getMaxLabelWords(BitSet languageIds) {
+    return labelDictionary.getMaxLabelWords(languageIds);
+  }
+
+  /**
+   * Returns a new matcher of the labels of the graph in one of the given
+   * languages (all if null)
+   */
+  LabelMatcher newLabelMatcher(BitSet languageIds) {
+    return labelDictionary.newMatcher(languageIds);
+  }
+
+  /**
+   * Returns a copy of the graph whose tables are held in the given storage.
+   * The label FST is shared.
+   */
+  ConceptGraph copy(Storage storage) {
+    IntBuffer[] offsetsCopy = new IntBuffer[offsets.length];
+    IntBuffer[] targetsCopy = new IntBuffer[targets.length];
+    ByteBuffer[] languagesCopy = new ByteBuffer[languages.length];
+    for (int i = 0; i < offsets.length; i++) {
+      if (offsets[i] != null) {
+        offsetsCopy[i] = storage.copy(offsets[i], offsets[i].limit());
+        targetsCopy[i] = storage.copy(targets[i], targets[i].limit());
+      }
+      if (languages[i] != null) {
+        languagesCopy[i] = storage.copy(languages[i]);
+      }
+    }
+    return new ConceptGraph(conceptCount, uris.copy(storage), storage.copy(
+        uriHash, uriHash.limit()), labels.copy(storage), offsetsCopy,
+        targetsCopy, languagesCopy, labelDictionary.copy(storage));
+  }
+
+  /**
+   * Returns the heap memory used by the graph. Tables held in direct buffers
+   * or mapped from a snapshot are not included.
+   */
+  long ramBytesUsed() {
+    return RamUsageEstimator.shallowSizeOf(this) + uris.ramBytesUsed()
+        + Storage.ramBytesUsed(uriHash) + labels.ramBytesUsed()
+        + Storage.ramBytesUsed(offsets) + Storage.ramBytesUsed(targets)
+        + Storage.ramBytesUsed(languages) + labelDictionary.ramBytesUsed();
+  }
+
+  /** String.hashCode is specified, so it is safe to persist */
+  private static int hash(String uri) {
+    int h = uri.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Saves the graph as a snapshot. The snapshot is written to a temporary
+   * file first and then renamed, so readers never see a partial file.
+   */
+  void save(File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp), 1 << 16));
+    try {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeInt(conceptCount);
+      uris.write(out);
+      writeInts(out, uriHash);
+      labels.write(out);
+      for (SKOSType type : LABEL_TYPES) {
+        writeInts(out, offsets[type.ordinal()]);
+        writeInts(out, targets[type.ordinal()]);
+        ByteBuffer typeLanguages = languages[type.ordinal()].duplicate();
+        typeLanguages.clear();
+        out.writeInt(typeLanguages.remaining());
+        while (typeLanguages.hasRemaining()) {
+          out.writeByte(typeLanguages.get());
+        }
+        pad(out);
+      }
+      for (SKOSType type : RELATION_TYPES) {
+        writeInts(out, offsets[type.ordinal()]);
+        writeInts(out, targets[type.ordinal()]);
+      }
+      labelDictionary.write(out);
+    } finally {
+      out.close();
+    }
+
+    if (!tmp.renameTo(file)) {
+      // renameTo does not replace existing files on every platform
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not write snapshot " + file);
+      }
+    }
+  }
+
+  /**
+   * Opens a snapshot written by {@link #save} through a memory mapping
+   *
+   * @throws IOException
+   *           if the file is no snapshot or has an unsupported version
+   */
+  static ConceptGraph open(File file) throws IOException {
+    ByteBuffer in = map(file);
+    if (in.remaining() < 12 || in.getInt() != SNAPSHOT_MAGIC) {
+      throw new IOException("Not a SKOS graph snapshot: " + file);
+    }
+    int version = in.getInt();
+    if (version != SNAPSHOT_VERSION) {
+      throw new IOException("Unsupported snapshot version " + version
+          + " (expected " + SNAPSHOT_VERSION + "): " + file);
+    }
+
+    int conceptCount = in.getInt();
+    StringTable uris = StringTable.read(in);
+    IntBuffer uriHash = readInts(in);
+    StringTable labels = StringTable.read(in);
+    IntBuffer[] offsets = new IntBuffer[SKOSType.values().length];
+    IntBuffer[] targets = new IntBuffer[SKOSType.values().length];
+    ByteBuffer[] languages = new ByteBuffer[SKOSType.values().length];
+    for (SKOSType type : LABEL_TYPES) {
+      offsets[type.ordinal()] = readInts(in);
+      targets[type.ordinal()] = readInts(in);
+      languages[type.ordinal()] = slice(in, in.getInt());
+      skipPadding(in);
+    }
+    for (SKOSType type : RELATION_TYPES) {
+      offsets[type.ordinal()] = readInts(in);
+      targets[type.ordinal()] = readInts(in);
+    }
+    LabelDictionary labelDictionary = LabelDictionary.read(in);
+
+    return new ConceptGraph(conceptCount, uris, uriHash, labels, offsets,
+        targets, languages, labelDictionary);
+  }
+
+  /** Maps a file read-only; the mapping stays valid after it is closed */
+  static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() > Integer.MAX_VALUE) {
+        throw new IOException("File too large: " + file);
+      }
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+          raf.length());
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** Writes the length and the ints of a buffer */
+  static void writeInts(DataOutputStream out, IntBuffer ints)
+      throws IOException {
+    out.writeInt(ints.limit());
+    for (int i = 0; i < ints.limit(); i++) {
+      out.writeInt(ints.get(i));
+    }
+  }
+
+  /** Returns the ints written by {@link #writeInts} as a view */
+  static IntBuffer readInts(ByteBuffer in) {
+    return sliceInts(in, in.getInt());
+  }
+
+  /** Returns the next <code>count</code> ints of the buffer as a view */
+  static IntBuffer sliceInts(ByteBuffer in, int count) {
+    return slice(in, 4 * count).asIntBuffer();
+  }
+
+  /** Returns the next <code>length</code> bytes of the buffer as a view */
+  static ByteBuffer slice(ByteBuffer in, int length) {
+    ByteBuffer view = in.duplicate();
+    view.limit(view.position() + length);
+    in.position(in.position() + length);
+    return view.slice();
+  }
+
+  /** Pads the output to a multiple of four bytes to keep ints aligned */
+  static void pad(DataOutputStream out) throws IOException {
+    while (out.size() % 4 != 0) {
+      out.writeByte(0);
+    }
+  }
+
+  /** Skips the padding written by {@link #pad} */
+  static void skipPadding(ByteBuffer in) {
+    in.position((in.position() + 3) & ~3);
+  }
+
+  /**
+   * Collects concepts, labels and relations and compiles them into a
+   * {@link ConceptGraph}. Concepts keep the order in which they were first
+   * added.
+   *
+   * Entries are appended to primitive int arrays as (concept, value) pairs.
+   * They are grouped by concept and repeated values are dropped only when the
+   * graph is built, so adding is constant time even for hub concepts with
+   * thousands of relations.
+   */
+  static final class Builder {
+
+    /** The id of every URI added, as concept or as relation target */
+    private final Map<String,Integer> uriIds = new HashMap<String,Integer>();
+
+    private final List<String> uris = new ArrayList<String>();
+
+    /** Which URI ids are concepts */
+    private final BitSet isConcept = new BitSet();
+
+    /** The URI ids of the concepts, in the order they were first added */
+    private int[] concepts = new int[16];
+
+    private int conceptCount;
+
+    private final Map<String,Integer> labelIds = new HashMap<String,Integer>();
+
+    private final List<String> labels = new ArrayList<String>();
+
+    /** The ids of the distinct pairs of label id and language id */
+    private final Map<Long,Integer> pairIds = new HashMap<Long,Integer>();
+
+    private int[] pairLabels = new int[16];
+
+    private int[] pairLanguages = new int[16];
+
+    private final LabelDictionary.Builder labelDictionary = new LabelDictionary.Builder();
+
+    /**
+     * The entries per SKOSType: label pair ids for label types, URI ids for
+     * relation types
+     */
+    private final Entries[] entries = new Entries[SKOSType.values().length];
+
+    Builder() {
+      for (int i = 0; i < entries.length; i++) {
+        entries[i] = new Entries();
+      }
+    }
+
+    /** Registers a concept */
+    Builder addConcept(String conceptURI) {
+      concept(conceptURI);
+      return this;
+    }
+
+    /**
+     * Adds a (normalized) label without a language tag of the given label
+     * type, unless the concept has it already
+     */
+    Builder addLabel(String conceptURI, SKOSType type, String label) {
+      return addLabel(conceptURI, type, label, "");
+    }
+
+    /**
+     * Adds a (normalized) label of the given label type and language tag (""
+     * for none), unless the concept has it already in that language
+     */
+    Builder addLabel(String conceptURI, SKOSType type, String label,
+        String language) {
+      int concept = concept(conceptURI);
+
+      Integer labelId = labelIds.get(label);
+      if (labelId == null) {
+        labelId = labels.size();
+        labelIds.put(label, labelId);
+        labels.add(label);
+      }
+      int languageId = labelDictionary.languageId(language);
+
+      Long pair = Long.valueOf((long) labelId << 32 | languageId);
+      Integer pairId = pairIds.get(pair);
+      if (pairId == null) {
+        pairId = pairIds.size();
+        pairIds.put(pair, pairId);
+        pairLabels = ArrayUtil.grow(pairLabels, pairId + 1);
+        pairLanguages = ArrayUtil.grow(pairLanguages, pairId + 1);
+        pairLabels[pairId] = labelId;
+        pairLanguages[pairId] = languageId;
+      }
+
+      entries[type.ordinal()].add(concept, pairId);
+      return this;
+    }
+
+    /**
+     * Adds a relation of the given relation type, unless the concept has it
+     * already
+     */
+    Builder addRelation(String conceptURI, SKOSType type, String targetURI) {
+      entries[type.ordinal()].add(concept(conceptURI), uri(targetURI));
+      return this;
+    }
+
+    /** Returns the URI id of a concept, registering it */
+    private int concept(String conceptURI) {
+      int id = uri(conceptURI);
+      if (!isConcept.get(id)) {
+        isConcept.set(id);
+        concepts = ArrayUtil.grow(concepts, conceptCount + 1);
+        concepts[conceptCount++] = id;
+      }
+      return id;
+    }
+
+    private int uri(String uri) {
+      Integer id = uriIds.get(uri);
+      if (id == null) {
+        id = uris.size();
+        uriIds.put(uri, id);
+        uris.add(uri);
+      }
+      return id;
+    }
+
+    /** Compiles the collected data */
+    ConceptGraph build() throws IOException {
+      // concepts get the ids 0 to conceptCount - 1, other URIs none yet
+      int[] ids = new int[uris.size()];
+      Arrays.fill(ids, -1);
+      List<String> graphURIs = new ArrayList<String>(uris.size());
+      for (int id = 0; id < conceptCount; id++) {
+        ids[concepts[id]] = id;
+        graphURIs.add(uris.get(concepts[id]));
+      }
+
+      int[][] typeOffsets = new int[SKOSType.values().length][];
+      int[][] typeTargets = new int[SKOSType.values().length][];
+      for (SKOSType type : RELATION_TYPES) {
+        typeOffsets[type.ordinal()] = new int[conceptCount + 1];
+        typeTargets[type.ordinal()] = group(entries[type.ordinal()], ids,
+            uris.size(), typeOffsets[type.ordinal()]);
+      }
+
+      // dangling relation targets get the ids after the concepts
+      for (int id = 0; id < conceptCount; id++) {
+        for (SKOSType type : RELATION_TYPES) {
+          int[] targets = typeTargets[type.ordinal()];
+          int[] offsets = typeOffsets[type.ordinal()];
+          for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+            if (ids[targets[i]] < 0) {
+              ids[targets[i]] = graphURIs.size();
+              graphURIs.add(uris.get(targets[i]));
+            }
+          }
+        }
+      }
+      for (SKOSType type : RELATION_TYPES) {
+        int[] targets = typeTargets[type.ordinal()];
+        for (int i = 0; i < targets.length; i++) {
+          targets[i] = ids[targets[i]];
+        }
+      }
+
+      IntBuffer[] offsets = new IntBuffer[SKOSType.values().length];
+      IntBuffer[] targets = new IntBuffer[SKOSType.values().length];
+      ByteBuffer[] languages = new ByteBuffer[SKOSType.values().length];
+
+      for (SKOSType type : LABEL_TYPES) {
+        int[] labelOffsets = new int[conceptCount + 1];
+        int[] labelTargets = group(entries[type.ordinal()], ids, pairIds
+            .size(), labelOffsets);
+        byte[] languageIds = new byte[labelTargets.length];
+        for (int id = 0; id < conceptCount; id++) {
+          for (int i = labelOffsets[id]; i < labelOffsets[id + 1]; i++) {
+            int pairId = labelTargets[i];
+            labelTargets[i] = pairLabels[pairId];
+            languageIds[i] = (byte) pairLanguages[pairId];
+            labelDictionary.add(labels.get(labelTargets[i]), id, type,
+                pairLanguages[pairId]);
+          }
+        }
+        offsets[type.ordinal()] = IntBuffer.wrap(labelOffsets);
+        targets[type.ordinal()] = IntBuffer.wrap(labelTargets);
+        languages[type.ordinal()] = ByteBuffer.wrap(languageIds);
+      }
+
+      for (SKOSType type : new SKOSType[] {SKOSType.BROADER,
+          SKOSType.NARROWER, SKOSType.RELATED}) {
+        offsets[type.ordinal()] = IntBuffer.wrap(typeOffsets[type.ordinal()]);
+        targets[type.ordinal()] = IntBuffer.wrap(typeTargets[type.ordinal()]);
+      }
+
+      closure(SKOSType.BROADERTRANSITIVE, SKOSType.BROADER, graphURIs.size(),
+          typeOffsets, typeTargets, offsets, targets);
+      closure(SKOSType.NARROWERTRANSITIVE, SKOSType.NARROWER, graphURIs
+          .size(), typeOffsets, typeTargets, offsets, targets);
+
+      // the hash table is kept at most half full
+      int[] uriHash = new int[Integer.highestOneBit(Math.max(1,
+          graphURIs.size()) * 2 - 1) << 1];
+      int mask = uriHash.length - 1;
+      for (int id = 0; id < graphURIs.size(); id++) {
+        int slot = hash(graphURIs.get(id)) & mask;
+        while (uriHash[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        uriHash[slot] = id + 1;
+      }
+
+      return new ConceptGraph(conceptCount, StringTable.build(graphURIs),
+          IntBuffer.wrap(uriHash), StringTable.build(labels), offsets,
+          targets, languages, labelDictionary.build());
+    }
+
+    /**
+     * Groups entries by concept with a counting sort, which keeps the order
+     * in which the values of a concept were added, and drops the repeated
+     * values of each concept.
+     *
+     * @param ids
+     *          the concept id of each URI id
+     * @param valueCount
+     *          the values are below it
+     * @param offsets
+     *          receives the offsets of the concepts' values
+     * @return the values, grouped by concept
+     */
+    private int[] group(Entries entries, int[] ids, int valueCount,
+        int[] offsets) {
+      for (int i = 0; i < entries.size; i++) {
+        offsets[ids[entries.concepts[i]] + 1]++;
+      }
+      for (int id = 0; id < conceptCount; id++) {
+        offsets[id + 1] += offsets[id];
+      }
+      int[] next = Arrays.copyOf(offsets, conceptCount);
+      int[] values = new int[entries.size];
+      for (int i = 0; i < entries.size; i++) {
+        values[next[ids[entries.concepts[i]]]++] = entries.values[i];
+      }
+
+      // seen holds the id + 1 of the concept a value was last kept for
+      int[] seen = new int[valueCount];
+      int count = 0;
+      int start = 0;
+      for (int id = 0; id < conceptCount; id++) {
+        int end = offsets[id + 1];
+        for (int i = start; i < end; i++) {
+          if (seen[values[i]] != id + 1) {
+            seen[values[i]] = id + 1;
+            values[count++] = values[i];
+          }
+        }
+        offsets[id + 1] = count;
+        start = end;
+      }
+      return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Computes the transitive relation as the closure of the direct relation
+     * and the asserted transitive relation. Dangling concepts have no
+     * relations, so the closure is cut down to the concepts afterwards.
+     */
+    private void closure(SKOSType transitive, SKOSType direct, int size,
+        int[][] typeOffsets, int[][] typeTargets, IntBuffer[] offsets,
+        IntBuffer[] targets) {
+      int[] directOffsets = typeOffsets[direct.ordinal()];
+      int[] directTargets = typeTargets[direct.ordinal()];
+      int[] assertedOffsets = typeOffsets[transitive.ordinal()];
+      int[] assertedTargets = typeTargets[transitive.ordinal()];
+
+      int[] edgeOffsets = new int[size + 1];
+      int[] edges = new int[directTargets.length + assertedTargets.length];
+      int count = 0;
+      for (int id = 0; id < conceptCount; id++) {
+        edgeOffsets[id] = count;
+        for (int i = directOffsets[id]; i < directOffsets[id + 1]; i++) {
+          edges[count++] = directTargets[i];
+        }
+        for (int i = assertedOffsets[id]; i < assertedOffsets[id + 1]; i++) {
+          edges[count++] = assertedTargets[i];
+        }
+      }
+      Arrays.fill(edgeOffsets, conceptCount, size + 1, count);
+
+      TransitiveClosure closure = TransitiveClosure.compute(size, edgeOffsets,
+          edges);
+
+      TransitiveClosure concepts = closure.copy(Storage.HEAP, conceptCount);
+      offsets[transitive.ordinal()] = concepts.offsets();
+      targets[transitive.ordinal()] = concepts.targets();
+    }
+  }
+
+  /** The (concept, value) pairs added for one SKOSType */
+  private static final class Entries {
+
+    /** The URI ids of the concepts */
+    int[] concepts = new int[8];
+
+    int[] values = new int[8];
+
+    int size;
+
+    void add(int concept, int value) {
+      if (size == concepts.length) {
+        concepts = ArrayUtil.grow(concepts, size + 1);
+        values = Arrays.copyOf(values, concepts.length);
+      }
+      concepts[size] = concept;
+      values[size++] = value;
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+
+/**
+ * Builds the concept index of {@link SKOSEngineImpl} with several threads.
+ *
+ * The calling thread streams the loaded concepts in batches into a bounded
+ * queue. A pool of workers takes the batches, turns each concept into a
+ * Lucene document and adds the documents of a batch with one call to
+ * {@link IndexWriter#addDocuments}, so that the workers index concurrently,
+ * each into a segment of its own. The writer's RAM buffer is shared by the
+ * workers and flushed whenever it is full.
+ *
+ * With a single thread (or a vocabulary of a single batch) the document ids
+ * follow the order of the source; with several threads they only do within a
+ * batch. The engine derives all its data from the index when it is opened and
+ * does not depend on that order.
+ */
+public class ConceptIndexBuilder {
+
+  /** Default size of the writer's RAM buffer */
+  public static final double DEFAULT_RAM_BUFFER_SIZE_MB = 48;
+
+  /* the number of concepts handed to a worker at once */
+  static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /** Turns a concept into the Lucene document indexing it */
+  interface ConceptConverter {
+    Document toDocument(SKOSLoader.Concept concept);
+  }
+
+  /** The throughput of a build */
+  public static final class Report {
+
+    private final int concepts;
+
+    private final long millis;
+
+    private final int threads;
+
+    Report(int concepts, long millis, int threads) {
+      this.concepts = concepts;
+      this.millis = millis;
+      this.threads = threads;
+    }
+
+    /** Returns the number of concepts indexed */
+    public int getConceptCount() {
+      return concepts;
+    }
+
+    /** Returns the time taken to index the concepts */
+    public long getElapsedMillis() {
+      return millis;
+    }
+
+    /** Returns the number of indexing threads */
+    public int getThreadCount() {
+      return threads;
+    }
+
+    /** Returns the number of concepts indexed per second */
+    public double getConceptsPerSecond() {
+      return concepts * 1000.0 / Math.max(1, millis);
+    }
+
+    @Override
+    public String toString() {
+      return "Indexed " + concepts + " concepts in " + millis + " ms ("
+          + Math.round(getConceptsPerSecond()) + " concepts/s, " + threads
+          + " threads)";
+    }
+  }
+
+  /* marks the end of the batches */
+  private static final List<SKOSLoader.Concept> END = Collections.emptyList();
+
+  private final int threads;
+
+  private final double ramBufferSizeMB;
+
+  private final int batchSize;
+
+  /**
+   * Creates a builder with one thread per processor and the default RAM
+   * buffer size
+   */
+  public ConceptIndexBuilder() {
+    this(Runtime.getRuntime().availableProcessors(),
+        DEFAULT_RAM_BUFFER_SIZE_MB);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param threads
+   *          the number of indexing threads, 1 to index in the calling thread
+   * @param ramBufferSizeMB
+   *          the size of the RAM buffer shared by the indexing threads
+   */
+  public ConceptIndexBuilder(int threads, double ramBufferSizeMB) {
+    this(threads, ramBufferSizeMB, DEFAULT_BATCH_SIZE);
+  }
+
+  ConceptIndexBuilder(int threads, double ramBufferSizeMB, int batchSize) {
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "The number of threads must be positive");
+    }
+    this.threads = threads;
+    this.ramBufferSizeMB = ramBufferSizeMB;
+    this.batchSize = batchSize;
+  }
+
+  /** Returns the number of indexing threads */
+  public int getThreadCount() {
+    return threads;
+  }
+
+  /** Returns the size of the RAM buffer shared by the indexing threads */
+  public double getRAMBufferSizeMB() {
+    return ramBufferSizeMB;
+  }
+
+  /** Applies the RAM buffer size and thread count to a writer configuration */
+  IndexWriterConfig configure(IndexWriterConfig cfg) {
+    cfg.setRAMBufferSizeMB(ramBufferSizeMB);
+    cfg.setMaxThreadStates(Math.max(threads,
+        IndexWriterConfig.DEFAULT_MAX_THREAD_STATES));
+    return cfg;
+  }
+
+  /**
+   * Adds the documents of the given concepts to a writer configured by
+   * {@link #configure}
+   *
+   * @throws IOException
+   *           if a document cannot be added; the remaining concepts are
+   *           skipped
+   */
+  Report build(final IndexWriter writer, List<SKOSLoader.Concept> concepts,
+      final ConceptConverter converter) throws IOException {
+    long start = System.currentTimeMillis();
+
+    int workers = Math.min(threads, (concepts.size() + batchSize - 1)
+        / batchSize);
+    if (workers <= 1) {
+      for (SKOSLoader.Concept concept : concepts) {
+        writer.addDocument(converter.toDocument(concept));
+      }
+      return new Report(concepts.size(), System.currentTimeMillis() - start, 1);
+    }
+
+    final BlockingQueue<List<SKOSLoader.Concept>> batches = new ArrayBlockingQueue<List<SKOSLoader.Concept>>(
+        2 * workers);
+    ExecutorService executor = Executors.newFixedThreadPool(workers,
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "skos-index-"
+                + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (int i = 0; i < workers; i++) {
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          List<Document> docs = new ArrayList<Document>(batchSize);
+          Exception failure = null;
+          List<SKOSLoader.Concept> batch;
+          while ((batch = batches.take()) != END) {
+            // after a failure the batches are drained, so the producer
+            // never blocks
+            if (failure != null) {
+              continue;
+            }
+            try {
+              for (SKOSLoader.Concept concept : batch) {
+                docs.add(converter.toDocument(concept));
+              }
+              writer.addDocuments(docs);
+            } catch (Exception e) {
+              failure = e;
+            } finally {
+              docs.clear();
+            }
+          }
+          if (failure != null) {
+            throw failure;
+          }
+          return null;
+        }
+      }));
+    }
+
+    try {
+      for (int from = 0; from < concepts.size(); from += batchSize) {
+        batches.put(concepts.subList(from,
+            Math.min(from + batchSize, concepts.size())));
+      }
+      for (int i = 0; i < workers; i++) {
+        batches.put(END);
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while indexing concepts", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return new Report(concepts.size(), System.currentTimeMillis() - start,
+        workers);
+  }
+}
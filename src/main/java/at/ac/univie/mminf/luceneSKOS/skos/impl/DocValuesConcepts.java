@@ -0,0 +1,213 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Reads the labels and relations of concepts indexed with the doc values
+ * layout of {@link SKOSEngineImpl}.
+ *
+ * The labels of each type are stored in one binary doc value per concept
+ * (a vInt count followed by the length-prefixed UTF-8 labels). The target
+ * URIs of each relation type are stored as a sorted set doc value, whose
+ * ordinals are mapped to concept ids when the index is opened. Reading a
+ * relation therefore only iterates the ordinals of one field of one concept;
+ * neither stored fields nor the URIs of the targets are decoded.
+ *
+ * Labels and URIs are returned as the shared instances of the engine's
+ * {@link StringPool}, found by their UTF-8 bytes.
+ */
+final class DocValuesConcepts {
+
+  private static final String[] NO_VALUES = new String[0];
+
+  private static final int[] NO_IDS = new int[0];
+
+  private final List<AtomicReaderContext> leaves;
+
+  private final StringPool strings;
+
+  /* the concept id of each ordinal, by relation field and segment */
+  private final Map<String,IntBuffer[]> ids = new HashMap<String,IntBuffer[]>();
+
+  /**
+   * Maps the ordinals of the given relation fields to concept ids
+   *
+   * @param strings
+   *          the labels and URIs of the index
+   * @param conceptIds
+   *          the concept id of each pooled string, -1 if there is none;
+   *          relation targets that are not indexed as concepts may be
+   *          included
+   * @param storage
+   *          where the concept ids of the ordinals are held
+   */
+  DocValuesConcepts(IndexReader reader, StringPool strings,
+      IntBuffer conceptIds, Storage storage, String... relationFields)
+      throws IOException {
+    leaves = reader.leaves();
+    this.strings = strings;
+
+    BytesRef scratch = new BytesRef();
+    for (String field : relationFields) {
+      IntBuffer[] fieldIds = new IntBuffer[leaves.size()];
+      for (int leaf = 0; leaf < fieldIds.length; leaf++) {
+        SortedSetDocValues values = leaves.get(leaf).reader()
+            .getSortedSetDocValues(field);
+        if (values == null) {
+          continue;
+        }
+        fieldIds[leaf] = storage.allocateInts((int) values.getValueCount());
+        for (int ord = 0; ord < fieldIds[leaf].limit(); ord++) {
+          values.lookupOrd(ord, scratch);
+          int id = strings.find(scratch.bytes, scratch.offset, scratch.length);
+          fieldIds[leaf].put(ord, id < 0 ? -1 : conceptIds.get(id));
+        }
+      }
+      this.ids.put(field, fieldIds);
+    }
+  }
+
+  /** Returns the heap memory used by the concept ids of the ordinals */
+  long ramBytesUsed() {
+    long size = RamUsageEstimator.shallowSizeOf(this);
+    for (IntBuffer[] fieldIds : ids.values()) {
+      size += Storage.ramBytesUsed(fieldIds);
+    }
+    return size;
+  }
+
+  /** Returns the labels of a given field for a given concept */
+  String[] labels(int doc, String field) throws IOException {
+    AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+    BinaryDocValues values = leaf.reader().getBinaryDocValues(field);
+    if (values == null) {
+      return NO_VALUES;
+    }
+
+    BytesRef bytes = new BytesRef();
+    values.get(doc - leaf.docBase, bytes);
+    if (bytes.length == 0) {
+      return NO_VALUES;
+    }
+
+    ByteArrayDataInput in = new ByteArrayDataInput(bytes.bytes, bytes.offset,
+        bytes.length);
+    String[] labels = new String[in.readVInt()];
+    for (int i = 0; i < labels.length; i++) {
+      int length = in.readVInt();
+      labels[i] = strings.get(bytes.bytes, in.getPosition(), length);
+      in.skipBytes(length);
+    }
+    return labels;
+  }
+
+  /** Returns the target URIs of a given relation field for a given concept */
+  String[] uris(int doc, String field) throws IOException {
+    AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+    SortedSetDocValues values = leaf.reader().getSortedSetDocValues(field);
+    if (values == null) {
+      return NO_VALUES;
+    }
+
+    String[] uris = new String[4];
+    int count = 0;
+    BytesRef scratch = new BytesRef();
+    values.setDocument(doc - leaf.docBase);
+    long ord;
+    while ((ord = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+      values.lookupOrd(ord, scratch);
+      if (count == uris.length) {
+        uris = Arrays.copyOf(uris, count * 2);
+      }
+      uris[count++] = strings.get(scratch.bytes, scratch.offset,
+          scratch.length);
+    }
+    return Arrays.copyOf(uris, count);
+  }
+
+  /**
+   * Returns the target ids of a given relation field for a given concept, -1
+   * for targets that are unknown
+   */
+  int[] ids(int doc, String field) throws IOException {
+    int leafIndex = ReaderUtil.subIndex(doc, leaves);
+    AtomicReaderContext leaf = leaves.get(leafIndex);
+    SortedSetDocValues values = leaf.reader().getSortedSetDocValues(field);
+    if (values == null) {
+      return NO_IDS;
+    }
+    IntBuffer fieldIds = ids.get(field)[leafIndex];
+
+    int[] targets = new int[4];
+    int count = 0;
+    values.setDocument(doc - leaf.docBase);
+    long ord;
+    while ((ord = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+      targets = ArrayUtil.grow(targets, count + 1);
+      targets[count++] = fieldIds.get((int) ord);
+    }
+    return Arrays.copyOf(targets, count);
+  }
+
+  /** Creates the doc value holding the labels of one type of a concept */
+  static Field labelsField(String field, List<String> labels) {
+    // a char takes at most three bytes in UTF-8, a vInt at most five
+    int size = 5;
+    for (String label : labels) {
+      size += 5 + label.length() * 3;
+    }
+    byte[] bytes = new byte[size];
+    ByteArrayDataOutput out = new ByteArrayDataOutput(bytes);
+    try {
+      out.writeVInt(labels.size());
+      for (String label : labels) {
+        out.writeString(label);
+      }
+    } catch (IOException e) {
+      // cannot happen, the buffer is large enough
+      throw new RuntimeException(e);
+    }
+    return new BinaryDocValuesField(field, new BytesRef(bytes, 0,
+        out.getPosition()));
+  }
+
+  /** Creates the doc value holding one relation target of a concept */
+  static Field relationField(String field, String targetURI) {
+    return new SortedSetDocValuesField(field, new BytesRef(targetURI));
+  }
+}
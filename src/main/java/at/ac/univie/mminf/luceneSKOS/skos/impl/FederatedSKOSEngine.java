@@ -0,0 +1,439 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+
+/**
+ * An in-memory SKOSEngine over several vocabularies at once.
+ *
+ * All vocabularies are compiled into one {@link ConceptGraph}, so a label is
+ * resolved against every vocabulary with a single dictionary lookup and one
+ * filter expands a field against all of them in one pass over the token
+ * stream, instead of stacking a filter per vocabulary.
+ *
+ * Every concept is tagged with the vocabulary it comes from and with the
+ * concept schemes it is in (skos:inScheme). Vocabularies are compiled in the
+ * order of their priority, highest first: the concepts of a label are
+ * returned, and expanded, in that order, and a concept defined in several
+ * vocabularies belongs to the one with the highest priority, with the labels
+ * and relations of all of them. A vocabulary can restrict the expansion
+ * types its concepts contribute.
+ *
+ * The merged graph is compiled on every start; it is not saved as a
+ * snapshot.
+ *
+ * All labels are converted to lowercase
+ */
+public class FederatedSKOSEngine extends SKOSGraphEngineImpl {
+
+  /**
+   * A vocabulary of a federated engine
+   */
+  public static final class Vocabulary {
+
+    private final String name;
+
+    private final InputStream inputStream;
+
+    private final String lang;
+
+    private final int priority;
+
+    private final Set<SKOSType> types;
+
+    /**
+     * A vocabulary loaded from a local file, a classpath resource or a remote
+     * URI, named after its source
+     *
+     * @param filenameOrURI
+     *          the name of the skos file to be loaded
+     * @param priority
+     *          the priority of the vocabulary, higher comes first
+     * @param types
+     *          the expansion types its concepts contribute, all if none are
+     *          given
+     */
+    public Vocabulary(String filenameOrURI, int priority, SKOSType... types) {
+      this(filenameOrURI, null, null, priority, types);
+    }
+
+    /**
+     * A vocabulary loaded from a given InputStream using the given
+     * serialization language parameter, which must be either N3, RDF/XML, or
+     * TURTLE
+     *
+     * @param name
+     *          the name of the vocabulary
+     * @param inputStream
+     *          the input stream
+     * @param lang
+     *          the serialization language
+     * @param priority
+     *          the priority of the vocabulary, higher comes first
+     * @param types
+     *          the expansion types its concepts contribute, all if none are
+     *          given
+     */
+    public Vocabulary(String name, InputStream inputStream, String lang,
+        int priority, SKOSType... types) {
+      if (name == null) {
+        throw new IllegalArgumentException("A vocabulary needs a name");
+      }
+      this.name = name;
+      this.inputStream = inputStream;
+      this.lang = lang;
+      this.priority = priority;
+      this.types = types == null || types.length == 0 ? EnumSet
+          .allOf(SKOSType.class) : EnumSet.copyOf(Arrays.asList(types));
+    }
+
+    /** Returns the name of the vocabulary */
+    public String getName() {
+      return name;
+    }
+
+    /** Returns the priority of the vocabulary */
+    public int getPriority() {
+      return priority;
+    }
+
+    /** Returns the expansion types the concepts of the vocabulary contribute */
+    public Set<SKOSType> getTypes() {
+      return Collections.unmodifiableSet(types);
+    }
+
+    private SKOSLoader load(Set<String> languages) throws IOException {
+      if (inputStream == null) {
+        return SKOSLoader.load(name, languages);
+      }
+      return SKOSLoader.load(inputStream, lang, languages);
+    }
+
+    @Override
+    public String toString() {
+      return name + "(" + priority + ")";
+    }
+  }
+
+  /* highest priority first; the sort is stable for equal priorities */
+  private static final Comparator<Vocabulary> BY_PRIORITY = new Comparator<Vocabulary>() {
+    @Override
+    public int compare(Vocabulary a, Vocabulary b) {
+      return a.priority > b.priority ? -1 : a.priority < b.priority ? 1 : 0;
+    }
+  };
+
+  private static final String[] NO_SCHEMES = new String[0];
+
+  private static final SKOSType[] TYPES = SKOSType.values();
+
+  /* the bits of a set of types, one per ordinal */
+  private static final int TYPE_BITS = TYPES.length;
+
+  /**
+   * The vocabularies, highest priority first
+   */
+  private final Vocabulary[] vocabularies;
+
+  /**
+   * The vocabulary of each concept, by concept id
+   */
+  private final int[] sources;
+
+  /**
+   * The distinct scheme URIs, and the schemes of each concept in CSR form:
+   * the schemes of concept id are schemeIds[schemeOffsets[id] ..
+   * schemeOffsets[id + 1]]
+   */
+  private final String[] schemes;
+
+  private final int[] schemeOffsets;
+
+  private final int[] schemeIds;
+
+  /**
+   * The types each vocabulary contributes to a requested set of types, at
+   * the index of the vocabulary shifted by TYPE_BITS plus the bit mask of the
+   * requested set. The sets are computed on first use; they are unmodifiable,
+   * so threads share them without locking and a lookup does not allocate.
+   */
+  private final AtomicReferenceArray<Set<SKOSType>> restrictions;
+
+  /**
+   * Loads and merges the given vocabularies, considering labels in all
+   * languages
+   *
+   * @param vocabularies
+   *          the vocabularies
+   * @throws IOException
+   *           if a vocabulary cannot be loaded
+   */
+  public FederatedSKOSEngine(List<Vocabulary> vocabularies) throws IOException {
+    this(vocabularies, (String[]) null);
+  }
+
+  /**
+   * Loads and merges the given vocabularies, considering only labels in the
+   * given languages
+   *
+   * @param vocabularies
+   *          the vocabularies
+   * @param languages
+   *          the languages to be considered
+   * @throws IOException
+   *           if a vocabulary cannot be loaded
+   */
+  public FederatedSKOSEngine(List<Vocabulary> vocabularies,
+      String... languages) throws IOException {
+    this(sort(vocabularies), languageSet(languages));
+  }
+
+  private FederatedSKOSEngine(Vocabulary[] vocabularies, Set<String> languages)
+      throws IOException {
+    this(vocabularies, load(vocabularies, languages), languages);
+  }
+
+  private FederatedSKOSEngine(Vocabulary[] vocabularies,
+      SKOSLoader[] loaders, Set<String> languages) throws IOException {
+    super(compile(loaders), languages);
+    this.vocabularies = vocabularies;
+    restrictions = new AtomicReferenceArray<Set<SKOSType>>(
+        vocabularies.length << TYPE_BITS);
+
+    int size = 0;
+    for (SKOSLoader loader : loaders) {
+      for (SKOSLoader.Concept concept : loader.getConcepts()) {
+        size = Math.max(size, getId(concept.getURI()) + 1);
+      }
+    }
+
+    sources = new int[size];
+    Arrays.fill(sources, -1);
+
+    // the schemes of each concept, merged over all vocabularies
+    List<List<Integer>> conceptSchemes = new ArrayList<List<Integer>>(size);
+    for (int id = 0; id < size; id++) {
+      conceptSchemes.add(new ArrayList<Integer>(1));
+    }
+    Map<String,Integer> schemeTable = new HashMap<String,Integer>();
+    List<String> schemeURIs = new ArrayList<String>();
+
+    for (int v = 0; v < loaders.length; v++) {
+      for (SKOSLoader.Concept concept : loaders[v].getConcepts()) {
+        int id = getId(concept.getURI());
+        if (sources[id] < 0) {
+          sources[id] = v;
+        }
+
+        for (String schemeURI : concept.getSchemes()) {
+          Integer scheme = schemeTable.get(schemeURI);
+          if (scheme == null) {
+            scheme = schemeURIs.size();
+            schemeTable.put(schemeURI, scheme);
+            schemeURIs.add(schemeURI);
+          }
+          if (!conceptSchemes.get(id).contains(scheme)) {
+            conceptSchemes.get(id).add(scheme);
+          }
+        }
+      }
+    }
+
+    schemes = schemeURIs.toArray(new String[schemeURIs.size()]);
+    schemeOffsets = new int[size + 1];
+    for (int id = 0; id < size; id++) {
+      schemeOffsets[id + 1] = schemeOffsets[id] + conceptSchemes.get(id).size();
+    }
+    schemeIds = new int[schemeOffsets[size]];
+    for (int id = 0; id < size; id++) {
+      List<Integer> ids = conceptSchemes.get(id);
+      for (int i = 0; i < ids.size(); i++) {
+        schemeIds[schemeOffsets[id] + i] = ids.get(i);
+      }
+    }
+  }
+
+  /**
+   * Creates a view of an engine that only considers the labels of the given
+   * languages
+   */
+  private FederatedSKOSEngine(FederatedSKOSEngine engine,
+      Set<String> languages) {
+    super(engine, languages);
+    vocabularies = engine.vocabularies;
+    sources = engine.sources;
+    schemes = engine.schemes;
+    schemeOffsets = engine.schemeOffsets;
+    schemeIds = engine.schemeIds;
+    restrictions = engine.restrictions;
+  }
+
+  private static Vocabulary[] sort(List<Vocabulary> vocabularies) {
+    if (vocabularies == null || vocabularies.isEmpty()) {
+      throw new IllegalArgumentException("No vocabularies given");
+    }
+    Vocabulary[] sorted = vocabularies.toArray(new Vocabulary[vocabularies
+        .size()]);
+    Arrays.sort(sorted, BY_PRIORITY);
+    return sorted;
+  }
+
+  private static Set<String> languageSet(String... languages) {
+    if (languages == null || languages.length == 0) {
+      return null;
+    }
+    return new TreeSet<String>(Arrays.asList(languages));
+  }
+
+  private static SKOSLoader[] load(Vocabulary[] vocabularies,
+      Set<String> languages) throws IOException {
+    SKOSLoader[] loaders = new SKOSLoader[vocabularies.length];
+    for (int v = 0; v < vocabularies.length; v++) {
+      loaders[v] = vocabularies[v].load(languages);
+    }
+    return loaders;
+  }
+
+  /**
+   * Compiles the vocabularies into one graph, highest priority first, so
+   * that the concept ids follow the priorities
+   */
+  private static ConceptGraph compile(SKOSLoader[] loaders) throws IOException {
+    ConceptGraph.Builder builder = new ConceptGraph.Builder();
+    for (SKOSLoader loader : loaders) {
+      addConcepts(builder, loader);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the vocabularies of the engine, highest priority first
+   */
+  public List<Vocabulary> getVocabularies() {
+    return Collections.unmodifiableList(Arrays.asList(vocabularies));
+  }
+
+  /**
+   * Returns the vocabulary a given concept belongs to, or NULL if the
+   * concept is unknown
+   */
+  public Vocabulary getVocabulary(String conceptURI) {
+    int id = getId(conceptURI);
+    return id < 0 ? null : vocabularies[sources[id]];
+  }
+
+  /**
+   * Returns the URIs of the concept schemes a given concept is in, or NULL
+   * if the concept is unknown
+   */
+  public String[] getSchemes(String conceptURI) {
+    int id = getId(conceptURI);
+    if (id < 0) {
+      return null;
+    }
+
+    int start = schemeOffsets[id];
+    int end = schemeOffsets[id + 1];
+    if (start == end) {
+      return NO_SCHEMES;
+    }
+
+    String[] result = new String[end - start];
+    for (int i = start; i < end; i++) {
+      result[i - start] = schemes[schemeIds[i]];
+    }
+    return result;
+  }
+
+  /**
+   * Expands a concept with the given types its vocabulary contributes
+   */
+  @Override
+  void expand(int id, Set<SKOSType> types, SKOSExpansion expansion) {
+    int source = sources[id];
+    Set<SKOSType> allowed = vocabularies[source].types;
+    if (!allowed.containsAll(types)) {
+      types = restrict(source, types);
+    }
+    super.expand(id, types, expansion);
+  }
+
+  /**
+   * Returns the types of a requested set a vocabulary contributes. Equal
+   * sets share one entry, whichever instance the caller passes.
+   */
+  private Set<SKOSType> restrict(int source, Set<SKOSType> requested) {
+    int mask = 0;
+    for (SKOSType type : TYPES) {
+      if (requested.contains(type)) {
+        mask |= 1 << type.ordinal();
+      }
+    }
+    int index = source << TYPE_BITS | mask;
+    Set<SKOSType> types = restrictions.get(index);
+    if (types == null) {
+      Set<SKOSType> allowed = EnumSet.noneOf(SKOSType.class);
+      for (SKOSType type : TYPES) {
+        if ((mask & 1 << type.ordinal()) != 0
+            && vocabularies[source].types.contains(type)) {
+          allowed.add(type);
+        }
+      }
+      // threads racing on a miss compute equal sets; the first one is kept
+      restrictions.compareAndSet(index, null, Collections
+          .unmodifiableSet(allowed));
+      types = restrictions.get(index);
+    }
+    return types;
+  }
+
+  @Override
+  SKOSGraphEngineImpl newView(Set<String> languages) {
+    return new FederatedSKOSEngine(this, languages);
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return super.ramBytesUsed() + RamUsageEstimator.sizeOf(sources)
+        + RamUsageEstimator.sizeOf(schemeOffsets)
+        + RamUsageEstimator.sizeOf(schemeIds)
+        + RamUsageEstimator.shallowSizeOf(schemes);
+  }
+
+  @Override
+  public String toString() {
+    return "FederatedSKOSEngine" + Arrays.toString(vocabularies);
+  }
+}
@@ -0,0 +1,235 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A probabilistic membership filter over the normalized labels of a
+ * vocabulary, consulted before the label dictionary.
+ *
+ * There is one Bloom filter per label length in tokens (space-separated
+ * words). A lookup first counts the tokens of the label, so that labels of a
+ * length no label in the vocabulary has are rejected without hashing; all
+ * others are rejected unless all bits of their hashes are set. The filter
+ * never rejects a label of the vocabulary and lets about one percent of the
+ * other labels through.
+ *
+ * Hashes are computed over the UTF-16 chars of the label, so a rejected
+ * label is neither converted to UTF-8 nor looked up in the FST.
+ */
+final class LabelBloomFilter {
+
+  /* about 1% false positives with 10 bits per label */
+  private static final int BITS_PER_LABEL = 10;
+
+  private static final int HASHES = 7;
+
+  /** The bits of the filter for each token count, null if there is none */
+  private final LongBuffer[] filters;
+
+  private LabelBloomFilter(LongBuffer[] filters) {
+    this.filters = filters;
+  }
+
+  /**
+   * Returns false if the vocabulary has no such label, true if it might have
+   */
+  boolean mightContain(String label) {
+    LongBuffer bits = filter(label);
+    if (bits == null) {
+      return false;
+    }
+    long hash = hash(label);
+    int h1 = (int) (hash >>> 32);
+    int h2 = (int) hash;
+    int mask = (bits.limit() << 6) - 1;
+    for (int i = 0; i < HASHES; i++) {
+      int bit = (h1 + i * h2) & mask;
+      if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns a copy of the filter whose bits are held in the given storage */
+  LabelBloomFilter copy(Storage storage) {
+    LongBuffer[] copies = new LongBuffer[filters.length];
+    for (int i = 0; i < filters.length; i++) {
+      if (filters[i] != null) {
+        copies[i] = storage.copy(filters[i]);
+      }
+    }
+    return new LabelBloomFilter(copies);
+  }
+
+  /** Returns the heap memory used by the filter */
+  long ramBytesUsed() {
+    return RamUsageEstimator.shallowSizeOf(this)
+        + Storage.ramBytesUsed(filters);
+  }
+
+  private LongBuffer filter(String label) {
+    int tokens = tokens(label);
+    return tokens < filters.length ? filters[tokens] : null;
+  }
+
+  /** Returns the number of space-separated tokens of a label */
+  static int tokens(String label) {
+    int tokens = 1;
+    for (int i = 0; i < label.length(); i++) {
+      if (label.charAt(i) == ' ') {
+        tokens++;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Returns two independent 32 bit hashes of a label, the second one odd so
+   * that the probes of double hashing cover the whole filter
+   */
+  private static long hash(String label) {
+    int h1 = 0;
+    int h2 = 0x811C9DC5;
+    for (int i = 0; i < label.length(); i++) {
+      char c = label.charAt(i);
+      h1 = 31 * h1 + c;
+      h2 = (h2 ^ c) * 0x01000193;
+    }
+    return ((long) mix(h1) << 32) | ((mix(h2) | 1) & 0xFFFFFFFFL);
+  }
+
+  /** The finalization step of MurmurHash3 */
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  /**
+   * Writes the filter: the number of token counts, then for each the number
+   * of 64 bit words (0 if there are no labels of that length) and the words
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(filters.length);
+    for (LongBuffer bits : filters) {
+      if (bits == null) {
+        out.writeInt(0);
+        continue;
+      }
+      out.writeInt(bits.limit());
+      for (int i = 0; i < bits.limit(); i++) {
+        out.writeLong(bits.get(i));
+      }
+    }
+  }
+
+  /**
+   * Reads a filter written by {@link #write} from the current position of the
+   * given buffer. The bits are views of the buffer.
+   */
+  static LabelBloomFilter read(ByteBuffer in) {
+    LongBuffer[] filters = new LongBuffer[in.getInt()];
+    for (int i = 0; i < filters.length; i++) {
+      int words = in.getInt();
+      if (words > 0) {
+        filters[i] = ConceptGraph.slice(in, 8 * words).asLongBuffer();
+      }
+    }
+    return new LabelBloomFilter(filters);
+  }
+
+  /**
+   * Collects the labels of a vocabulary and builds a {@link LabelBloomFilter}
+   */
+  static final class Builder {
+
+    /* the hashes of the labels, by token count */
+    private final List<LongList> hashes = new ArrayList<LongList>();
+
+    /** Adds a (normalized) label */
+    Builder add(String label) {
+      int tokens = tokens(label);
+      while (hashes.size() <= tokens) {
+        hashes.add(null);
+      }
+      LongList list = hashes.get(tokens);
+      if (list == null) {
+        list = new LongList();
+        hashes.set(tokens, list);
+      }
+      list.add(hash(label));
+      return this;
+    }
+
+    /** Builds the filter over the collected labels */
+    LabelBloomFilter build() {
+      LongBuffer[] filters = new LongBuffer[hashes.size()];
+      for (int tokens = 0; tokens < filters.length; tokens++) {
+        LongList list = hashes.get(tokens);
+        if (list == null) {
+          continue;
+        }
+        // a power of two number of bits, at least one word
+        int bitCount = 64;
+        while (bitCount < list.size * BITS_PER_LABEL) {
+          bitCount <<= 1;
+        }
+        long[] bits = new long[bitCount >>> 6];
+        int mask = bitCount - 1;
+        for (int l = 0; l < list.size; l++) {
+          int h1 = (int) (list.values[l] >>> 32);
+          int h2 = (int) list.values[l];
+          for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+          }
+        }
+        filters[tokens] = LongBuffer.wrap(bits);
+      }
+      return new LabelBloomFilter(filters);
+    }
+  }
+
+  /** A growable list of longs */
+  private static final class LongList {
+
+    private long[] values = new long[16];
+
+    private int size;
+
+    void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+  }
+}
@@ -0,0 +1,666 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CloseableThreadLocal;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.LongsRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.UnicodeUtil;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.NoOutputs;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.LabelMatcher;
+
+/**
+ * Maps normalized labels to the concepts carrying them.
+ *
+ * The dictionary is an FST acceptor (without outputs) over keys made of the
+ * UTF-8 bytes of a label, a zero byte, the id of the language of the label
+ * and one entry as four big-endian bytes. An entry holds a concept id in the
+ * upper bits and the label type (pref, alt or hidden) in the lower two bits.
+ * The entries of a label are the paths below its separator arc; a lookup
+ * restricted to some languages only follows the arcs of their ids.
+ *
+ * Resolving a label is a single FST traversal followed by the enumeration of
+ * its entries. Since the FST has no outputs, nothing is decoded into new
+ * objects along the way: the UTF-8 bytes, the arcs, the reader and the
+ * entries are buffers that each thread reuses across lookups, so lookups do
+ * not allocate in steady state. Most words of a text are not labels, so a
+ * {@link LabelBloomFilter} over all labels is consulted first and rejects
+ * most of them before the FST.
+ */
+final class LabelDictionary implements Closeable {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int KIND_BITS = 2;
+
+  private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+  /* separates the label from the entry bytes of a key */
+  private static final int SEPARATOR = 0;
+
+  /* language ids are stored in one byte */
+  private static final int MAX_LANGUAGES = 256;
+
+  private static final int ENTRY_BYTES = 4;
+
+  private static final int[] NO_CONCEPTS = new int[0];
+
+  private static final IntsRef EMPTY = new IntsRef();
+
+  /** The label FST, null if the dictionary is empty */
+  private final FST<Object> fst;
+
+  /** Rejects most labels that are not in the FST */
+  private final LabelBloomFilter filter;
+
+  /** The language tags of the labels, by id ("" for labels without a tag) */
+  private final String[] languages;
+
+  /** The number of words of the longest label of each language, by id */
+  private final int[] maxLabelWords;
+
+  /** The buffers of a lookup, reused by one thread */
+  private static final class Scratch {
+    final BytesRef utf8 = new BytesRef(16);
+    final FST.BytesReader in;
+    /* the arc followed for the language and each entry byte */
+    final List<FST.Arc<Object>> arcs = new ArrayList<FST.Arc<Object>>();
+    final IntsRef entries = new IntsRef(4);
+    final IntsRef concepts = new IntsRef(4);
+
+    Scratch(FST<Object> fst) {
+      in = fst.getBytesReader();
+      for (int i = 0; i <= ENTRY_BYTES + 1; i++) {
+        arcs.add(new FST.Arc<Object>());
+      }
+    }
+  }
+
+  private final CloseableThreadLocal<Scratch> scratch = new CloseableThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch(fst);
+    }
+  };
+
+  private LabelDictionary(FST<Object> fst, LabelBloomFilter filter,
+      String[] languages, int[] maxLabelWords) {
+    this.fst = fst;
+    this.filter = filter;
+    this.languages = languages;
+    this.maxLabelWords = maxLabelWords;
+  }
+
+  /**
+   * Returns a copy of the dictionary whose label filter is held in the given
+   * storage. The FST is shared; it always lives on the heap.
+   */
+  LabelDictionary copy(Storage storage) {
+    return new LabelDictionary(fst, filter.copy(storage), languages,
+        maxLabelWords);
+  }
+
+  /** Returns the heap memory used by the dictionary */
+  long ramBytesUsed() {
+    long size = RamUsageEstimator.shallowSizeOf(this)
+        + RamUsageEstimator.shallowSizeOf(languages)
+        + RamUsageEstimator.sizeOf(maxLabelWords) + filter.ramBytesUsed();
+    if (fst != null) {
+      size += fst.sizeInBytes();
+    }
+    for (String language : languages) {
+      size += StringPool.sizeOf(language);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of (space separated) words of the longest label in one
+   * of the given languages (all if null), the most tokens such a label can
+   * span
+   */
+  int getMaxLabelWords(BitSet languageIds) {
+    int max = 0;
+    for (int id = 0; id < maxLabelWords.length; id++) {
+      if (languageIds == null || languageIds.get(id)) {
+        max = Math.max(max, maxLabelWords[id]);
+      }
+    }
+    return max;
+  }
+
+  /** Returns the language tags of the labels */
+  String[] getLanguages() {
+    return languages.clone();
+  }
+
+  /**
+   * Returns the ids of the given languages for restricting lookups, null for
+   * all languages
+   */
+  BitSet getLanguageIds(Set<String> tags) {
+    if (tags == null) {
+      return null;
+    }
+    BitSet ids = new BitSet(languages.length);
+    for (int id = 0; id < languages.length; id++) {
+      if (tags.contains(languages[id])) {
+        ids.set(id);
+      }
+    }
+    return ids;
+  }
+
+  /** Returns the concept id of an encoded entry */
+  static int conceptId(int entry) {
+    return entry >>> KIND_BITS;
+  }
+
+  /** Returns the label type of an encoded entry */
+  static SKOSType kind(int entry) {
+    return SKOSType.fromInteger(entry & KIND_MASK);
+  }
+
+  /**
+   * Looks up the entries of a given label and stores them in
+   * <code>entries</code>.
+   *
+   * @return the number of entries found
+   */
+  int lookup(String label, IntsRef entries) throws IOException {
+    return lookup(label, null, entries);
+  }
+
+  /**
+   * Looks up the entries of a given label in the given languages (all if
+   * null) and stores them in <code>entries</code>.
+   *
+   * @return the number of entries found
+   */
+  int lookup(String label, BitSet languageIds, IntsRef entries)
+      throws IOException {
+    entries.length = 0;
+    if (fst == null || !filter.mightContain(label)) {
+      return 0;
+    }
+    return lookup(label, languageIds, entries, scratch.get());
+  }
+
+  private int lookup(String label, BitSet languageIds, IntsRef entries,
+      Scratch scratch) throws IOException {
+    BytesRef utf8 = scratch.utf8;
+    UnicodeUtil.UTF16toUTF8(label, 0, label.length(), utf8);
+
+    FST.BytesReader in = scratch.in;
+    FST.Arc<Object> arc = fst.getFirstArc(scratch.arcs.get(0));
+    for (int i = 0; i < utf8.length; i++) {
+      if (fst.findTargetArc(utf8.bytes[i] & 0xff, arc, arc, in) == null) {
+        return 0;
+      }
+    }
+    if (fst.findTargetArc(SEPARATOR, arc, arc, in) == null) {
+      return 0;
+    }
+
+    FST.Arc<Object> language = fst.readFirstTargetArc(arc, scratch.arcs
+        .get(1), in);
+    while (true) {
+      if (languageIds == null || languageIds.get(language.label)) {
+        collect(language, 2, 0, entries, scratch);
+      }
+      if (language.isLast()) {
+        break;
+      }
+      fst.readNextArc(language, in);
+    }
+    return entries.length;
+  }
+
+  /**
+   * Appends the entries below a given arc, which is followed by the entry
+   * byte <code>depth - 1</code> (starting from 1)
+   */
+  private void collect(FST.Arc<Object> follow, int depth, int prefix,
+      IntsRef entries, Scratch scratch) throws IOException {
+    FST.Arc<Object> arc = fst.readFirstTargetArc(follow,
+        scratch.arcs.get(depth), scratch.in);
+    while (true) {
+      int value = prefix << 8 | arc.label;
+      if (depth == ENTRY_BYTES + 1) {
+        entries.grow(entries.length + 1);
+        entries.ints[entries.length++] = value;
+      } else {
+        collect(arc, depth + 1, value, entries, scratch);
+      }
+      if (arc.isLast()) {
+        return;
+      }
+      fst.readNextArc(arc, scratch.in);
+    }
+  }
+
+  /**
+   * Returns the distinct ids of all concepts carrying the given label in a
+   * buffer of the calling thread, which is overwritten by its next lookup
+   */
+  IntsRef concepts(String label) throws IOException {
+    return concepts(label, null);
+  }
+
+  /**
+   * Returns the distinct ids of all concepts carrying the given label in one
+   * of the given languages (all if null), in a buffer of the calling thread
+   * which is overwritten by its next lookup
+   */
+  IntsRef concepts(String label, BitSet languageIds) throws IOException {
+    if (fst == null || !filter.mightContain(label)) {
+      return EMPTY;
+    }
+
+    Scratch scratch = this.scratch.get();
+    IntsRef entries = scratch.entries;
+    IntsRef concepts = scratch.concepts;
+    entries.length = 0;
+    concepts.length = 0;
+    if (lookup(label, languageIds, entries, scratch) == 0) {
+      return concepts;
+    }
+    if (languages.length > 1) {
+      // the entries of each language are sorted
+      Arrays.sort(entries.ints, 0, entries.length);
+    }
+
+    concepts.grow(entries.length);
+    int count = 0;
+    for (int i = 0; i < entries.length; i++) {
+      int id = conceptId(entries.ints[i]);
+      // entries are sorted by concept id
+      if (count == 0 || concepts.ints[count - 1] != id) {
+        concepts.ints[count++] = id;
+      }
+    }
+    concepts.length = count;
+    return concepts;
+  }
+
+  /**
+   * Returns the distinct ids of all concepts carrying the given label
+   */
+  int[] getConcepts(String label) throws IOException {
+    IntsRef concepts = concepts(label);
+    return concepts.length == 0 ? NO_CONCEPTS : Arrays.copyOf(concepts.ints,
+        concepts.length);
+  }
+
+  /**
+   * Returns a new matcher of the labels in the given languages (all if
+   * null), which walks the FST word by word
+   */
+  LabelMatcher newMatcher(BitSet languageIds) {
+    return fst == null ? NO_LABELS : new Matcher(languageIds);
+  }
+
+  /* the matcher of an empty dictionary */
+  private static final LabelMatcher NO_LABELS = new LabelMatcher() {
+    @Override
+    public void reset() {}
+
+    @Override
+    public boolean append(char[] word, int offset, int length) {
+      return false;
+    }
+
+    @Override
+    public boolean isLabel() {
+      return false;
+    }
+  };
+
+  /**
+   * Follows the arcs of the lowercased UTF-8 bytes of the words appended so
+   * far, separated by spaces. A match only costs the arcs of its own bytes,
+   * however long the labels of the dictionary are; most words of a text are
+   * rejected at their first byte.
+   */
+  private final class Matcher extends LabelMatcher {
+
+    private final BitSet languageIds;
+
+    private final FST.BytesReader in = fst.getBytesReader();
+
+    /* the arc reached by the words appended so far */
+    private final FST.Arc<Object> arc = new FST.Arc<Object>();
+
+    private final FST.Arc<Object> separator = new FST.Arc<Object>();
+
+    private final FST.Arc<Object> language = new FST.Arc<Object>();
+
+    /* false once no label starts with the words appended so far */
+    private boolean alive;
+
+    private int words;
+
+    Matcher(BitSet languageIds) {
+      this.languageIds = languageIds;
+      reset();
+    }
+
+    @Override
+    public void reset() {
+      fst.getFirstArc(arc);
+      alive = true;
+      words = 0;
+    }
+
+    @Override
+    public boolean append(char[] word, int offset, int length) {
+      if (!alive) {
+        return false;
+      }
+      try {
+        if (words++ > 0 && !follow(' ')) {
+          return alive = false;
+        }
+        int end = offset + length;
+        for (int i = offset; i < end;) {
+          int codePoint = Character.codePointAt(word, i, end);
+          i += Character.charCount(codePoint);
+          if (!follow(Character.toLowerCase(codePoint))) {
+            return alive = false;
+          }
+        }
+        return true;
+      } catch (IOException e) {
+        // the FST is read from memory
+        throw new RuntimeException(e);
+      }
+    }
+
+    /** Follows the UTF-8 bytes of a code point */
+    private boolean follow(int codePoint) throws IOException {
+      if (codePoint < 0x80) {
+        return step(codePoint);
+      }
+      if (codePoint < 0x800) {
+        return step(0xC0 | codePoint >> 6) && step(0x80 | codePoint & 0x3F);
+      }
+      if (codePoint < 0x10000) {
+        return step(0xE0 | codePoint >> 12)
+            && step(0x80 | codePoint >> 6 & 0x3F)
+            && step(0x80 | codePoint & 0x3F);
+      }
+      return step(0xF0 | codePoint >> 18) && step(0x80 | codePoint >> 12 & 0x3F)
+          && step(0x80 | codePoint >> 6 & 0x3F) && step(0x80 | codePoint & 0x3F);
+    }
+
+    private boolean step(int b) throws IOException {
+      return fst.findTargetArc(b, arc, arc, in) != null;
+    }
+
+    @Override
+    public boolean isLabel() {
+      if (!alive || words == 0) {
+        return false;
+      }
+      try {
+        if (fst.findTargetArc(SEPARATOR, arc, separator, in) == null) {
+          return false;
+        }
+        if (languageIds == null) {
+          return true;
+        }
+        fst.readFirstTargetArc(separator, language, in);
+        while (true) {
+          if (languageIds.get(language.label)) {
+            return true;
+          }
+          if (language.isLast()) {
+            return false;
+          }
+          fst.readNextArc(language, in);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /** Releases the lookup buffers of all threads */
+  @Override
+  public void close() {
+    scratch.close();
+  }
+
+  /**
+   * Writes the dictionary: the language tags, each followed by the number of
+   * words of its longest label, the length of the serialized FST (0 if empty)
+   * followed by the FST, padded to a multiple of four bytes, and the label
+   * filter.
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(languages.length);
+    for (int id = 0; id < languages.length; id++) {
+      byte[] bytes = languages[id].getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      ConceptGraph.pad(out);
+      out.writeInt(maxLabelWords[id]);
+    }
+
+    if (fst == null) {
+      out.writeInt(0);
+    } else {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      fst.save(new OutputStreamDataOutput(bytes));
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+      ConceptGraph.pad(out);
+    }
+    filter.write(out);
+  }
+
+  /**
+   * Reads a dictionary written by {@link #write} from the current position
+   * of the given buffer. The FST itself is copied to the heap, the label
+   * filter is read from the buffer.
+   */
+  static LabelDictionary read(ByteBuffer in) throws IOException {
+    String[] languages = new String[in.getInt()];
+    int[] maxLabelWords = new int[languages.length];
+    for (int i = 0; i < languages.length; i++) {
+      byte[] bytes = new byte[in.getInt()];
+      in.get(bytes);
+      languages[i] = new String(bytes, UTF_8);
+      ConceptGraph.skipPadding(in);
+      maxLabelWords[i] = in.getInt();
+    }
+
+    int length = in.getInt();
+    if (length == 0) {
+      return new LabelDictionary(null, LabelBloomFilter.read(in), languages,
+          maxLabelWords);
+    }
+    final ByteBuffer bytes = ConceptGraph.slice(in, length);
+    ConceptGraph.skipPadding(in);
+
+    DataInput fstInput = new DataInput() {
+      @Override
+      public byte readByte() {
+        return bytes.get();
+      }
+
+      @Override
+      public void readBytes(byte[] b, int offset, int len) {
+        bytes.get(b, offset, len);
+      }
+    };
+    FST<Object> fst = new FST<Object>(fstInput, NoOutputs.getSingleton());
+    return new LabelDictionary(fst, LabelBloomFilter.read(in), languages,
+        maxLabelWords);
+  }
+
+  /**
+   * Collects label entries and compiles them into a {@link LabelDictionary}
+   */
+  static final class Builder {
+
+    /*
+     * sorted in unicode (UTF-8 byte) order as required by the FST builder,
+     * each entry is preceded by the id of its language in the upper bits
+     */
+    private final Map<BytesRef,LongsRef> labels = new TreeMap<BytesRef,LongsRef>();
+
+    private final Map<String,Integer> languageIds = new HashMap<String,Integer>();
+
+    private final List<String> languages = new ArrayList<String>();
+
+    /** Adds a (normalized) label of a given type for a given concept */
+    Builder add(String label, int conceptId, SKOSType kind) {
+      return add(label, conceptId, kind, "");
+    }
+
+    /**
+     * Adds a (normalized) label of a given type and language ("" for none)
+     * for a given concept
+     */
+    Builder add(String label, int conceptId, SKOSType kind, String language) {
+      return add(label, conceptId, kind, languageId(language));
+    }
+
+    /**
+     * Adds a (normalized) label of a given type and language, identified by
+     * an id returned by {@link #languageId(String)}, for a given concept
+     */
+    Builder add(String label, int conceptId, SKOSType kind, int languageId) {
+      if (label.indexOf(SEPARATOR) >= 0) {
+        // cannot be told apart from the entries
+        return this;
+      }
+      BytesRef key = new BytesRef(label);
+      LongsRef entries = labels.get(key);
+      if (entries == null) {
+        entries = new LongsRef(1);
+        labels.put(key, entries);
+      }
+      entries.grow(entries.length + 1);
+      entries.longs[entries.length++] = (long) languageId << 32
+          | ((conceptId << KIND_BITS | kind.ordinal()) & 0xFFFFFFFFL);
+      return this;
+    }
+
+    /**
+     * Returns the id of a language tag ("" for none), which the dictionary
+     * built will report at the same position of its languages
+     */
+    int languageId(String language) {
+      Integer languageId = languageIds.get(language);
+      if (languageId == null) {
+        if (languages.size() == MAX_LANGUAGES) {
+          throw new IllegalArgumentException("More than " + MAX_LANGUAGES
+              + " languages");
+        }
+        languageId = languages.size();
+        languageIds.put(language, languageId);
+        languages.add(language);
+      }
+      return languageId;
+    }
+
+    private static int countWords(String label) {
+      int words = 1;
+      for (int i = 0; i < label.length(); i++) {
+        if (label.charAt(i) == ' ') {
+          words++;
+        }
+      }
+      return words;
+    }
+
+    /** Compiles the collected labels */
+    LabelDictionary build() throws IOException {
+      NoOutputs outputs = NoOutputs.getSingleton();
+      org.apache.lucene.util.fst.Builder<Object> builder = new org.apache.lucene.util.fst.Builder<Object>(
+          FST.INPUT_TYPE.BYTE1, outputs);
+
+      LabelBloomFilter.Builder filter = new LabelBloomFilter.Builder();
+
+      int[] maxLabelWords = new int[languages.size()];
+
+      // a label is a prefix of longer labels, but its key sorts before
+      // theirs since the separator is the smallest byte
+      IntsRef key = new IntsRef();
+      for (Map.Entry<BytesRef,LongsRef> e : labels.entrySet()) {
+        String text = e.getKey().utf8ToString();
+        filter.add(text);
+        int words = countWords(text);
+
+        BytesRef label = e.getKey();
+        key.grow(label.length + 2 + ENTRY_BYTES);
+        for (int i = 0; i < label.length; i++) {
+          key.ints[i] = label.bytes[label.offset + i] & 0xff;
+        }
+        key.ints[label.length] = SEPARATOR;
+        key.length = label.length + 2 + ENTRY_BYTES;
+
+        LongsRef entries = e.getValue();
+        Arrays.sort(entries.longs, 0, entries.length);
+        long previous = -1;
+        for (int i = 0; i < entries.length; i++) {
+          long entry = entries.longs[i];
+          if (entry == previous) {
+            continue;
+          }
+          previous = entry;
+          int languageId = (int) (entry >>> 32);
+          maxLabelWords[languageId] = Math.max(maxLabelWords[languageId],
+              words);
+          key.ints[label.length + 1] = languageId;
+          for (int b = 0; b < ENTRY_BYTES; b++) {
+            key.ints[label.length + 2 + b] = (int) (entry >>> (8 * (ENTRY_BYTES
+                - 1 - b))) & 0xff;
+          }
+          builder.add(key, outputs.getNoOutput());
+        }
+      }
+
+      return new LabelDictionary(builder.finish(), filter.build(),
+          languages.toArray(new String[languages.size()]), maxLabelWords);
+    }
+  }
+}
@@ -0,0 +1,516 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.LabelMatcher;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+
+/**
+ * A SKOSEngine whose vocabulary can be replaced at runtime.
+ *
+ * A reload builds a new engine (in the calling thread or in the background)
+ * and publishes it with an atomic reference swap; lookups are never blocked
+ * by a reload. Each call to one of the SKOSEngine methods is answered by the
+ * engine current at that time, which is kept open until the call returns.
+ *
+ * Token streams that need consistent answers for a whole document pin an
+ * engine with {@link #acquire()} and hand it back with {@link #release}.
+ * A replaced engine is closed (if it is {@link Closeable}) once the last
+ * stream using it has released it.
+ *
+ * Language views share the engines of the wrapper they were obtained from;
+ * they follow its reloads and are closed along with the engines.
+ */
+public class ReloadableSKOSEngine implements SKOSEngine, Closeable {
+
+  /** An engine along with the number of its users */
+  private static final class Snapshot {
+
+    private final SKOSEngine engine;
+
+    /* one reference is held while the snapshot is current */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    /* the language views of the engine, by languages */
+    private final ConcurrentMap<String,SKOSEngine> views = new ConcurrentHashMap<String,SKOSEngine>();
+
+    Snapshot(SKOSEngine engine) {
+      this.engine = engine;
+    }
+
+    boolean tryIncRef() {
+      int count;
+      do {
+        count = refCount.get();
+        if (count <= 0) {
+          return false;
+        }
+      } while (!refCount.compareAndSet(count, count + 1));
+      return true;
+    }
+  }
+
+  /** Creates the engines */
+  private final Callable<? extends SKOSEngine> loader;
+
+  private final AtomicReference<Snapshot> current;
+
+  /** The snapshots in use, by engine (and language view) */
+  private final Map<SKOSEngine,Snapshot> snapshots;
+
+  /** The wrapper of a language view, this wrapper otherwise */
+  private final ReloadableSKOSEngine root;
+
+  /** The languages of a language view, null otherwise */
+  private final String[] languages;
+
+  /** Identifies the views of the languages in the snapshots */
+  private final String viewKey;
+
+  /** Runs background reloads, created on first use */
+  private ExecutorService executor;
+
+  /**
+   * Creates the wrapper and loads the first engine
+   *
+   * @param loader
+   *          creates a new engine on every call
+   * @throws IOException
+   *           if the first engine cannot be loaded
+   */
+  public ReloadableSKOSEngine(Callable<? extends SKOSEngine> loader)
+      throws IOException {
+    this.loader = loader;
+    current = new AtomicReference<Snapshot>();
+    snapshots = new ConcurrentHashMap<SKOSEngine,Snapshot>();
+    root = this;
+    languages = null;
+    viewKey = null;
+    reload();
+  }
+
+  /** Creates a language view sharing the engines of the given wrapper */
+  private ReloadableSKOSEngine(ReloadableSKOSEngine root, String[] languages) {
+    loader = root.loader;
+    current = root.current;
+    snapshots = root.snapshots;
+    this.root = root;
+    this.languages = languages;
+    viewKey = Arrays.toString(languages);
+  }
+
+  /**
+   * Loads a new engine in the calling thread and makes it the current one
+   *
+   * @throws IOException
+   *           if the engine cannot be loaded; the current engine is kept
+   */
+  public void reload() throws IOException {
+    if (root != this) {
+      root.reload();
+      return;
+    }
+    synchronized (this) {
+      load();
+    }
+  }
+
+  private void load() throws IOException {
+    SKOSEngine engine;
+    try {
+      engine = loader.call();
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+
+    Snapshot snapshot = new Snapshot(engine);
+    snapshots.put(engine, snapshot);
+    Snapshot previous = current.getAndSet(snapshot);
+    if (previous != null) {
+      decRef(previous);
+    }
+  }
+
+  /**
+   * Loads a new engine in a background thread and makes it the current one
+   * once it is complete. Reloads are run one after the other.
+   *
+   * @return the pending reload; it fails with the IOException of the loader
+   */
+  public synchronized Future<?> reloadInBackground() {
+    if (root != this) {
+      return root.reloadInBackground();
+    }
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "skos-reload");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        reload();
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Returns the current engine and keeps it open until it is handed back with
+   * {@link #release}, even if it is replaced in the meantime
+   */
+  public SKOSEngine acquire() {
+    while (true) {
+      Snapshot snapshot = current.get();
+      if (snapshot.tryIncRef()) {
+        return engine(snapshot);
+      }
+      if (current.get() == snapshot) {
+        // only the current snapshot of a closed wrapper has no references
+        throw new IllegalStateException("The SKOS engine is closed");
+      }
+    }
+  }
+
+  /**
+   * Hands back an engine obtained from {@link #acquire()}
+   */
+  public void release(SKOSEngine engine) throws IOException {
+    Snapshot snapshot = snapshots.get(engine);
+    if (snapshot != null) {
+      decRef(snapshot);
+    }
+  }
+
+  /**
+   * Hands back an engine in methods that cannot throw an IOException, which
+   * closing a replaced engine may cause
+   */
+  private void releaseUnchecked(SKOSEngine engine) {
+    try {
+      release(engine);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void decRef(Snapshot snapshot) throws IOException {
+    if (snapshot.refCount.decrementAndGet() == 0) {
+      snapshots.remove(snapshot.engine);
+      for (SKOSEngine view : snapshot.views.values()) {
+        snapshots.remove(view);
+        if (view instanceof Closeable) {
+          ((Closeable) view).close();
+        }
+      }
+      if (snapshot.engine instanceof Closeable) {
+        ((Closeable) snapshot.engine).close();
+      }
+    }
+  }
+
+  /**
+   * Stops background reloads and releases the current engine. Closing a
+   * language view has no effect.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (root != this) {
+      return;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    Snapshot snapshot = current.get();
+    if (snapshot != null) {
+      decRef(snapshot);
+    }
+  }
+
+  /**
+   * Returns a view that only considers labels of the given languages, which
+   * follows the reloads of this wrapper. The engines loaded must support
+   * {@link SKOSEngine#getLanguageView}.
+   */
+  @Override
+  public SKOSEngine getLanguageView(String... languages) {
+    if (languages == null) {
+      return this;
+    }
+    Set<String> viewLanguages = new TreeSet<String>(Arrays.asList(languages));
+    if (this.languages != null) {
+      viewLanguages.retainAll(Arrays.asList(this.languages));
+    }
+    return new ReloadableSKOSEngine(root, viewLanguages
+        .toArray(new String[viewLanguages.size()]));
+  }
+
+  /**
+   * Returns a matcher of the labels of the current engine, which later
+   * reloads do not affect
+   */
+  @Override
+  public LabelMatcher newLabelMatcher() {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.newLabelMatcher();
+    } finally {
+      releaseUnchecked(engine);
+    }
+  }
+
+  /** Returns the number of words of the longest label of the current engine */
+  @Override
+  public int getMaxLabelWords() {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getMaxLabelWords();
+    } finally {
+      releaseUnchecked(engine);
+    }
+  }
+
+  /** Returns the heap memory used by the current engine */
+  @Override
+  public long ramBytesUsed() {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.ramBytesUsed();
+    } finally {
+      releaseUnchecked(engine);
+    }
+  }
+
+  /** Returns the engine of a snapshot, or its view for a language view */
+  private SKOSEngine engine(Snapshot snapshot) {
+    if (languages == null) {
+      return snapshot.engine;
+    }
+    SKOSEngine view = snapshot.views.get(viewKey);
+    if (view == null) {
+      view = snapshot.engine.getLanguageView(languages);
+      SKOSEngine previous = snapshot.views.putIfAbsent(viewKey, view);
+      if (previous != null) {
+        view = previous;
+      } else {
+        snapshots.put(view, snapshot);
+      }
+    }
+    return view;
+  }
+
+  @Override
+  public String[] getPrefLabels(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getPrefLabels(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getAltLabels(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getAltLabels(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getHiddenLabels(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getHiddenLabels(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getRelatedLabels(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getRelatedLabels(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getRelatedConcepts(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getRelatedConcepts(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getBroaderConcepts(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getBroaderConcepts(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getNarrowerConcepts(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getNarrowerConcepts(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getBroaderLabels(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getBroaderLabels(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getNarrowerLabels(String conceptURI) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getNarrowerLabels(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getBroaderTransitiveConcepts(String conceptURI)
+      throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getBroaderTransitiveConcepts(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getNarrowerTransitiveConcepts(String conceptURI)
+      throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getNarrowerTransitiveConcepts(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getBroaderTransitiveLabels(String conceptURI)
+      throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getBroaderTransitiveLabels(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getNarrowerTransitiveLabels(String conceptURI)
+      throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getNarrowerTransitiveLabels(conceptURI);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getConcepts(String label) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getConcepts(label);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public String[] getAltTerms(String label) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      return engine.getAltTerms(label);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public void expandLabel(String label, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      engine.expandLabel(label, types, expansion);
+    } finally {
+      release(engine);
+    }
+  }
+
+  @Override
+  public void expandConcept(String conceptURI, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    SKOSEngine engine = acquire();
+    try {
+      engine.expandConcept(conceptURI, types, expansion);
+    } finally {
+      release(engine);
+    }
+  }
+}
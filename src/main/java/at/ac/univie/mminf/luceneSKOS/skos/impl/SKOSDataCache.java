@@ -0,0 +1,211 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * A directory below skosdata holding compiled versions (generations) of a
+ * vocabulary source. The system property luceneSKOS.dataDir names another directory
+ * to be used instead of skosdata.
+ *
+ * Each generation is a subdirectory carrying the fingerprint of the source it
+ * was compiled from. A pointer file names the current generation. A rebuild
+ * writes a fresh generation and then replaces the pointer with a rename, so
+ * readers either see the old or the new generation, never a partially
+ * written one.
+ *
+ * Engines may still read the generation that was current before a rebuild,
+ * so it is kept. Only generations older than that one are removed, when the
+ * next rebuild starts; an engine that stays open across two rebuilds relies
+ * on the file system keeping open files readable.
+ */
+final class SKOSDataCache {
+
+  /** The system property naming the directory holding all caches */
+  static final String DATA_DIR_PROPERTY = "luceneSKOS.dataDir";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String CURRENT = "current";
+
+  private static final String GENERATION_PREFIX = "generation-";
+
+  private static final String FINGERPRINT = "fingerprint.properties";
+
+  private final File root;
+
+  SKOSDataCache(File root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns the cache of a vocabulary source. The directory is named after the
+   * file name and a hash of the canonical path (or the URI), so same-named
+   * vocabularies from different places do not share a directory.
+   *
+   * @param filenameOrURI
+   *          the source file or URI
+   * @param suffix
+   *          distinguishes the compiled forms of a source
+   */
+  static SKOSDataCache forSource(String filenameOrURI, String suffix)
+      throws IOException {
+    File file = new File(filenameOrURI);
+    String location = file.isFile() ? file.getCanonicalPath() : filenameOrURI;
+    return new SKOSDataCache(new File(System.getProperty(DATA_DIR_PROPERTY,
+        "skosdata"), FilenameUtils.getName(filenameOrURI) + "-"
+        + locationHash(location) + suffix));
+  }
+
+  /** Returns the first 12 hex digits of the SHA-1 hash of a location */
+  private static String locationHash(String location) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] hash = digest.digest(location.getBytes(UTF_8));
+    StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < 6; i++) {
+      hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+      hex.append(Character.forDigit(hash[i] & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  /** Returns the directory holding the generations */
+  File getRoot() {
+    return root;
+  }
+
+  /**
+   * Returns the current generation if it was compiled from the source with
+   * the given fingerprint, otherwise null
+   */
+  File getCurrent(SourceFingerprint source) throws IOException {
+    File generation = current();
+    if (generation == null || !generation.isDirectory()
+        || !source.matches(SourceFingerprint.read(new File(generation,
+            FINGERPRINT)))) {
+      return null;
+    }
+    return generation;
+  }
+
+  /** Returns the generation the pointer names, null if there is none */
+  private File current() throws IOException {
+    File pointer = new File(root, CURRENT);
+    if (!pointer.isFile()) {
+      return null;
+    }
+    return new File(root, FileUtils.readFileToString(pointer, "UTF-8")
+        .trim());
+  }
+
+  /**
+   * Creates an empty directory for a new generation, after removing the
+   * generations older than the one before the current generation
+   */
+  File newGeneration() throws IOException {
+    removeOldGenerations();
+    root.mkdirs();
+    for (long id = System.currentTimeMillis();; id++) {
+      File generation = new File(root, GENERATION_PREFIX + id);
+      if (generation.mkdir()) {
+        return generation;
+      }
+      if (!root.isDirectory()) {
+        throw new IOException("Cannot create " + root);
+      }
+    }
+  }
+
+  /**
+   * Records the fingerprint of a completely written generation and makes it
+   * the current one. If the source changed while the generation was
+   * compiled, the generation is not published; the caller may still use it,
+   * and it is removed by a later rebuild.
+   *
+   * @return true if the generation is the current one now
+   */
+  boolean publish(File generation, SourceFingerprint source)
+      throws IOException {
+    source.write(new File(generation, FINGERPRINT));
+    if (!source.isUnchanged()) {
+      return false;
+    }
+
+    File pointer = new File(root, CURRENT);
+    File tmp = new File(root, generation.getName() + "." + CURRENT);
+    OutputStream out = new FileOutputStream(tmp);
+    try {
+      out.write(generation.getName().getBytes(UTF_8));
+    } finally {
+      out.close();
+    }
+    rename(tmp, pointer);
+    return true;
+  }
+
+  /**
+   * Removes the generations older than the newest one before the current
+   * generation. Generations started later may still be under construction.
+   */
+  private void removeOldGenerations() throws IOException {
+    File current = current();
+    File[] files = root.listFiles();
+    if (current == null || files == null) {
+      return;
+    }
+    Arrays.sort(files);
+    File previous = null;
+    for (File file : files) {
+      if (file.isDirectory() && file.getName().startsWith(GENERATION_PREFIX)
+          && file.getName().compareTo(current.getName()) < 0) {
+        if (previous != null) {
+          FileUtils.deleteQuietly(previous);
+        }
+        previous = file;
+      }
+    }
+  }
+
+  /**
+   * Renames a file, replacing the target. The rename is atomic on POSIX file
+   * systems; elsewhere the target is deleted first.
+   */
+  private static void rename(File source, File target) throws IOException {
+    if (!source.renameTo(target)) {
+      target.delete();
+      if (!source.renameTo(target)) {
+        throw new IOException("Cannot rename " + source + " to " + target);
+      }
+    }
+  }
+}
@@ -16,72 +16,95 @@ package at.ac.univie.mminf.luceneSKOS.skos.impl;
  * limitations under the License.
  */
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.SimpleAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.index.Term;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.Collector;
-import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Scorer;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRef;
 import org.apache.lucene.util.Version;
 
-import at.ac.univie.mminf.luceneSKOS.skos.SKOS;
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.LabelMatcher;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
-
-import com.hp.hpl.jena.ontology.AnnotationProperty;
-import com.hp.hpl.jena.ontology.ObjectProperty;
-import com.hp.hpl.jena.rdf.model.Literal;
-import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.ModelFactory;
-import com.hp.hpl.jena.rdf.model.RDFNode;
-import com.hp.hpl.jena.rdf.model.ResIterator;
-import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.rdf.model.StmtIterator;
-import com.hp.hpl.jena.update.GraphStore;
-import com.hp.hpl.jena.update.GraphStoreFactory;
-import com.hp.hpl.jena.update.UpdateAction;
-import com.hp.hpl.jena.update.UpdateFactory;
-import com.hp.hpl.jena.update.UpdateRequest;
-import com.hp.hpl.jena.util.FileManager;
-import com.hp.hpl.jena.vocabulary.RDF;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
 
 /**
  * A Lucene-backed SKOSEngine Implementation.
  * 
  * Each SKOS concept is stored/indexed as a Lucene document.
  * 
+ * The transitive closures of the broader and narrower relations are computed
+ * once the index is built and kept in memory, so the index only stores the
+ * asserted relations. Indexes kept below skosdata save the closures next to
+ * the index, so opening them again does not recompute them.
+ * 
+ * Labels and relations are read from stored fields by default. With the
+ * {@link IndexLayout#DOC_VALUES} layout they are kept in doc values instead,
+ * so reading one relation or label type does not decompress the other fields
+ * of the concept.
+ * 
+ * The index holds the labels of all languages, each label type and language
+ * in a field of its own (such as pref@en). An engine restricted to some
+ * languages and the views returned by {@link #getLanguageView} only read the
+ * fields of their languages, so all language selections share one index.
+ * 
+ * The labels, URIs and closures derived from the index are held on the heap
+ * by default. With {@link Storage#OFF_HEAP} they are moved to direct buffers
+ * once the index is opened, leaving only the label FST on the heap;
+ * {@link #ramBytesUsed()} reports what remains.
+ * 
  * All labels are converted to lowercase
  */
-public class SKOSEngineImpl implements SKOSEngine {
+public class SKOSEngineImpl implements SKOSEngine, Closeable {
   
-  /** Records the total number of matches */
+  /**
+   * Records all matches in a primitive buffer that is reused after a
+   * {@link #reset()}
+   */
   public static class AllDocCollector extends Collector {
-    private final List<Integer> docs = new ArrayList<Integer>();
+    private final IntsRef docs = new IntsRef(16);
     private int base;
     
     @Override
@@ -91,13 +114,20 @@ public class SKOSEngineImpl implements SKOSEngine {
     
     @Override
     public void collect(int doc) throws IOException {
-      docs.add(doc + base);
+      docs.grow(docs.length + 1);
+      docs.ints[docs.length++] = doc + base;
     }
     
-    public List<Integer> getDocs() {
+    /** Returns the matches, valid until the next {@link #reset()} */
+    public IntsRef getDocs() {
       return docs;
     }
     
+    /** Forgets the matches, keeping the buffer */
+    public void reset() {
+      docs.length = 0;
+    }
+    
     @Override
     public void setNextReader(AtomicReaderContext context) throws IOException {
       base = context.docBase;
@@ -109,6 +139,29 @@ public class SKOSEngineImpl implements SKOSEngine {
     }
   }
   
+  /** The supported index layouts */
+  public enum IndexLayout {
+    /** Labels and relations are stored fields */
+    STORED_FIELDS,
+    /** Labels are binary, relations sorted set doc values */
+    DOC_VALUES
+  }
+  
+  /**
+   * The version of the index layout, to be increased whenever the layout or
+   * the way concepts are derived from the source changes
+   */
+  static final int INDEX_FORMAT_VERSION = 4;
+  
+  /** The file next to the index holding the transitive closures */
+  private static final String CLOSURES_FILE = "closures.bin";
+  
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  
+  /* the commit data recording the format of an index */
+  private static final String COMMIT_FORMAT_VERSION = "formatVersion";
+  private static final String COMMIT_LAYOUT = "layout";
+  
   protected final Version matchVersion;
   
   /*
@@ -124,10 +177,12 @@ public class SKOSEngineImpl implements SKOSEngine {
   private static final String FIELD_NARROWER_TRANSITIVE = "narrowerTransitive";
   private static final String FIELD_RELATED = "related";
   
-  /**
-   * The input SKOS model
-   */
-  private Model skosModel;
+  /** The field storing each label or relation type, indexed by its ordinal */
+  private static final String[] FIELDS = new String[] {FIELD_PREF_LABEL,
+      FIELD_ALT_LABEL, FIELD_HIDDEN_LABEL, FIELD_BROADER, FIELD_NARROWER,
+      FIELD_BROADER_TRANSITIVE, FIELD_NARROWER_TRANSITIVE, FIELD_RELATED};
+  
+  private static final String[] NO_CONCEPTS = new String[0];
   
   /**
    * The location of the concept index
@@ -139,6 +194,43 @@ public class SKOSEngineImpl implements SKOSEngine {
    */
   private IndexSearcher searcher;
   
+  /**
+   * Maps the labels of the index to the documents (concepts) carrying them
+   */
+  private LabelDictionary labelDictionary;
+  
+  /**
+   * The labels and URIs of the index
+   */
+  private StringPool strings;
+  
+  /**
+   * The pooled URI of each document, followed by the URIs of relation targets
+   * that are not indexed as concepts
+   */
+  private IntBuffer uris;
+  
+  /**
+   * The document (or relation target) of each pooled URI, -1 for labels
+   */
+  private IntBuffer ids;
+  
+  /**
+   * The transitive closure of the broader relation, by document
+   */
+  private TransitiveClosure broaderClosure;
+  
+  /**
+   * The transitive closure of the narrower relation, by document
+   */
+  private TransitiveClosure narrowerClosure;
+  
+  /**
+   * Reads labels and relations in the doc values layout, null in the stored
+   * fields layout
+   */
+  private DocValuesConcepts docValues;
+  
   /**
    * The languages to be considered when returning labels.
    * 
@@ -146,6 +238,36 @@ public class SKOSEngineImpl implements SKOSEngine {
    */
   private Set<String> languages;
   
+  /**
+   * The fields holding the labels of the considered languages, by label type
+   */
+  private String[][] labelFields;
+  
+  /**
+   * The fields holding the pref and alt labels of the considered languages
+   */
+  private String[] prefAndAltFields;
+  
+  /**
+   * The label dictionary ids of the considered languages, null for all
+   */
+  private BitSet languageIds;
+  
+  /**
+   * True for language views, which share the index of another engine
+   */
+  private boolean view;
+  
+  /**
+   * Where the string pool, the URI tables and the closures are held
+   */
+  private Storage storage;
+  
+  /**
+   * The throughput of building the index, null if it was opened from disk
+   */
+  private ConceptIndexBuilder.Report buildReport;
+  
   /**
    * The analyzer used during indexing of / querying for concepts
    * 
@@ -167,26 +289,85 @@ public class SKOSEngineImpl implements SKOSEngine {
    */
   public SKOSEngineImpl(final Version version, InputStream inputStream,
       String lang) throws IOException {
+    this(version, inputStream, lang, IndexLayout.STORED_FIELDS);
+  }
+  
+  /**
+   * This constructor loads the SKOS model from a given InputStream using the
+   * given serialization language parameter, which must be either N3, RDF/XML,
+   * or TURTLE, and indexes it with the given layout.
+   * 
+   * @param inputStream
+   *          the input stream
+   * @param lang
+   *          the serialization language
+   * @param layout
+   *          the index layout
+   * @throws IOException
+   *           if the model cannot be loaded
+   */
+  public SKOSEngineImpl(final Version version, InputStream inputStream,
+      String lang, IndexLayout layout) throws IOException {
+    this(version, inputStream, lang, layout, new ConceptIndexBuilder());
+  }
+  
+  /**
+   * This constructor loads the SKOS model from a given InputStream using the
+   * given serialization language parameter, which must be either N3, RDF/XML,
+   * or TURTLE, and indexes it with the given layout and builder.
+   * 
+   * @param inputStream
+   *          the input stream
+   * @param lang
+   *          the serialization language
+   * @param layout
+   *          the index layout
+   * @param builder
+   *          the number of threads and the RAM buffer used for indexing
+   * @throws IOException
+   *           if the model cannot be loaded
+   */
+  public SKOSEngineImpl(final Version version, InputStream inputStream,
+      String lang, IndexLayout layout, ConceptIndexBuilder builder)
+      throws IOException {
+    this(version, inputStream, lang, layout, builder, Storage.HEAP);
+  }
+  
+  /**
+   * This constructor loads the SKOS model from a given InputStream using the
+   * given serialization language parameter, which must be either N3, RDF/XML,
+   * or TURTLE, indexes it with the given layout and builder and keeps the
+   * tables derived from the index in the given storage.
+   * 
+   * @param inputStream
+   *          the input stream
+   * @param lang
+   *          the serialization language
+   * @param layout
+   *          the index layout
+   * @param builder
+   *          the number of threads and the RAM buffer used for indexing
+   * @param storage
+   *          where the labels, URIs and closures are held
+   * @throws IOException
+   *           if the model cannot be loaded
+   */
+  public SKOSEngineImpl(final Version version, InputStream inputStream,
+      String lang, IndexLayout layout, ConceptIndexBuilder builder,
+      Storage storage) throws IOException {
     
-    if (!("N3".equals(lang) || "RDF/XML".equals(lang) || "TURTLE".equals(lang))) {
-      throw new IOException("Invalid RDF serialization format");
-    }
+    SKOSLoader loader = SKOSLoader.load(inputStream, lang, null);
     
     matchVersion = version;
     
     analyzer = new SimpleAnalyzer(matchVersion);
     
-    skosModel = ModelFactory.createDefaultModel();
-    
-    skosModel.read(inputStream, null, lang);
-    
     indexDir = new RAMDirectory();
     
-    entailSKOSModel();
+    indexSKOSModel(loader, layout, builder);
     
-    indexSKOSModel();
-    
-    searcher = new IndexSearcher(DirectoryReader.open(indexDir));
+    open(DirectoryReader.open(indexDir), layout, storage, null);
+    setLanguages(null);
   }
   
   /**
@@ -205,6 +386,10 @@ public class SKOSEngineImpl implements SKOSEngine {
    * This constructor loads the SKOS model from a given filename or URI, starts
    * the indexing process and sets up the index searcher.
    * 
+   * The index is kept below skosdata and rebuilt when the source file or the
+   * index format change. It holds all languages, so engines for other
+   * languages share it.
+   * 
    * @param languages
    *          the languages to be considered
    * @param filenameOrURI
@@ -212,102 +397,384 @@ public class SKOSEngineImpl implements SKOSEngine {
    */
   public SKOSEngineImpl(final Version version, String filenameOrURI,
       String... languages) throws IOException {
+    this(version, filenameOrURI, IndexLayout.STORED_FIELDS, languages);
+  }
+  
+  /**
+   * This constructor loads the SKOS model from a given filename or URI, starts
+   * the indexing process with the given layout and sets up the index
+   * searcher.
+   * 
+   * The index is kept below skosdata and rebuilt when the source file or the
+   * index format change. It holds all languages, so engines for other
+   * languages share it.
+   * 
+   * @param layout
+   *          the index layout
+   * @param languages
+   *          the languages to be considered
+   * @param filenameOrURI
+   * @throws IOException
+   */
+  public SKOSEngineImpl(final Version version, String filenameOrURI,
+      IndexLayout layout, String... languages) throws IOException {
+    this(version, filenameOrURI, layout, new ConceptIndexBuilder(), languages);
+  }
+  
+  /**
+   * This constructor loads the SKOS model from a given filename or URI, starts
+   * the indexing process with the given layout and builder (if the index is
+   * not up to date yet) and sets up the index searcher.
+   * 
+   * @param layout
+   *          the index layout
+   * @param builder
+   *          the number of threads and the RAM buffer used for indexing
+   * @param languages
+   *          the languages to be considered
+   * @param filenameOrURI
+   * @throws IOException
+   */
+  public SKOSEngineImpl(final Version version, String filenameOrURI,
+      IndexLayout layout, ConceptIndexBuilder builder, String... languages)
+      throws IOException {
+    this(version, filenameOrURI, layout, builder, Storage.HEAP, languages);
+  }
+  
+  /**
+   * This constructor loads the SKOS model from a given filename or URI, starts
+   * the indexing process with the given layout and builder (if the index is
+   * not up to date yet), sets up the index searcher and keeps the tables
+   * derived from the index in the given storage.
+   * 
+   * @param layout
+   *          the index layout
+   * @param builder
+   *          the number of threads and the RAM buffer used for indexing
+   * @param storage
+   *          where the labels, URIs and closures are held
+   * @param languages
+   *          the languages to be considered
+   * @param filenameOrURI
+   * @throws IOException
+   */
+  public SKOSEngineImpl(final Version version, String filenameOrURI,
+      IndexLayout layout, ConceptIndexBuilder builder, Storage storage,
+      String... languages) throws IOException {
     matchVersion = version;
     analyzer = new SimpleAnalyzer(matchVersion);
     
-    String langSig = "";
-    if (languages != null && languages.length > 0) {
-      this.languages = new TreeSet<String>(Arrays.asList(languages));
-      langSig = "-" + StringUtils.join(this.languages, ".");
+    // the layouts are cached separately, so they do not replace each other
+    SKOSDataCache cache = SKOSDataCache.forSource(filenameOrURI,
+        layout == IndexLayout.DOC_VALUES ? "-docvalues" : "");
+    SourceFingerprint source = SourceFingerprint.of(filenameOrURI, null,
+        INDEX_FORMAT_VERSION);
+    
+    DirectoryReader reader = null;
+    File dir = cache.getCurrent(source);
+    if (dir != null) {
+      indexDir = FSDirectory.open(dir);
+      reader = DirectoryReader.open(indexDir);
+      if (!hasFormat(reader, layout)) {
+        // written by another version
+        reader.close();
+        indexDir.close();
+        reader = null;
+      }
+    }
+    if (reader == null) {
+      // (re)build the index in a new generation from the given file
+      dir = cache.newGeneration();
+      indexDir = FSDirectory.open(dir);
+      indexSKOSModel(SKOSLoader.load(filenameOrURI, null), layout, builder);
+      reader = DirectoryReader.open(indexDir);
+      // the closures are saved before the generation is published
+      open(reader, layout, storage, new File(dir, CLOSURES_FILE));
+      cache.publish(dir, source);
+    } else {
+      open(reader, layout, storage, new File(dir, CLOSURES_FILE));
+    }
+    
+    setLanguages(languages != null && languages.length > 0 ? new TreeSet<String>(
+        Arrays.asList(languages)) : null);
+  }
+  
+  /**
+   * Creates a view of an engine that only considers the labels of the given
+   * languages
+   */
+  private SKOSEngineImpl(SKOSEngineImpl engine, Set<String> languages) {
+    matchVersion = engine.matchVersion;
+    analyzer = engine.analyzer;
+    indexDir = engine.indexDir;
+    searcher = engine.searcher;
+    labelDictionary = engine.labelDictionary;
+    strings = engine.strings;
+    uris = engine.uris;
+    ids = engine.ids;
+    broaderClosure = engine.broaderClosure;
+    narrowerClosure = engine.narrowerClosure;
+    docValues = engine.docValues;
+    storage = engine.storage;
+    view = true;
+    setLanguages(languages);
+  }
+  
+  /**
+   * Restricts the labels considered to the given languages (all if null)
+   */
+  private void setLanguages(Set<String> languages) {
+    this.languages = languages;
+    languageIds = labelDictionary.getLanguageIds(languages);
+    
+    String[] indexed = labelDictionary.getLanguages();
+    labelFields = new String[SKOSType.HIDDEN.ordinal() + 1][];
+    for (int kind = 0; kind < labelFields.length; kind++) {
+      List<String> fields = new ArrayList<String>();
+      for (String language : indexed) {
+        if (languages == null || languages.contains(language)) {
+          fields.add(labelField(FIELDS[kind], language));
+        }
+      }
+      labelFields[kind] = fields.toArray(new String[fields.size()]);
     }
     
-    String name = FilenameUtils.getName(filenameOrURI);
-    File dir = new File("skosdata/" + name + langSig);
-    indexDir = FSDirectory.open(dir);
+    prefAndAltFields = Arrays.copyOf(labelFields[SKOSType.PREF.ordinal()],
+        labelFields[SKOSType.PREF.ordinal()].length
+            + labelFields[SKOSType.ALT.ordinal()].length);
+    System.arraycopy(labelFields[SKOSType.ALT.ordinal()], 0,
+        prefAndAltFields, labelFields[SKOSType.PREF.ordinal()].length,
+        labelFields[SKOSType.ALT.ordinal()].length);
+  }
+  
+  /**
+   * Returns a view of this engine that only considers labels of the given
+   * languages (and of the languages this engine is restricted to, if any).
+   * The view shares the index of this engine and must not be used once this
+   * engine is closed.
+   */
+  @Override
+  public SKOSEngine getLanguageView(String... languages) {
+    Set<String> viewLanguages = null;
+    if (languages != null) {
+      viewLanguages = new TreeSet<String>(Arrays.asList(languages));
+    }
+    if (this.languages != null) {
+      if (viewLanguages == null) {
+        viewLanguages = this.languages;
+      } else {
+        viewLanguages.retainAll(this.languages);
+      }
+    }
+    return new SKOSEngineImpl(this, viewLanguages);
+  }
+  
+  /** Returns the field holding labels of a given type and language */
+  private static String labelField(String typeField, String language) {
+    return typeField + "@" + language;
+  }
+  
+  /**
+   * Returns the labels of a given type in the given languages (all if null)
+   * from a concept document of the stored fields layout
+   */
+  public static String[] getLabels(Document conceptDoc, SKOSType type,
+      Set<String> languages) {
+    String prefix = labelField(FIELDS[type.ordinal()], "");
+    List<String> labels = new ArrayList<String>();
+    for (IndexableField field : conceptDoc) {
+      if (field.name().startsWith(prefix)
+          && (languages == null || languages.contains(field.name().substring(
+              prefix.length())))) {
+        labels.add(field.stringValue());
+      }
+    }
+    return labels.toArray(new String[labels.size()]);
+  }
+  
+  /**
+   * Returns true if the index was written with the current format version and
+   * the given layout
+   */
+  private static boolean hasFormat(DirectoryReader reader, IndexLayout layout)
+      throws IOException {
+    Map<String,String> format = reader.getIndexCommit().getUserData();
+    return String.valueOf(INDEX_FORMAT_VERSION).equals(
+        format.get(COMMIT_FORMAT_VERSION))
+        && layout.name().equals(format.get(COMMIT_LAYOUT));
+  }
+  
+  /**
+   * Sets up the searcher and the in-memory structures of an index. The
+   * transitive closures are read from the given file if it holds the closures
+   * of the index; otherwise they are computed and, if the file does not exist
+   * yet, saved to it.
+   * 
+   * @param closures
+   *          the file holding the closures, null to always compute them
+   */
+  private void open(DirectoryReader reader, IndexLayout layout,
+      Storage storage, File closures) throws IOException {
+    searcher = new IndexSearcher(reader);
+    this.storage = storage;
     
-    // TODO: Generate also if source file is modified
-    if (!dir.isDirectory()) {
-      // load the skos model from the given file
-      FileManager fileManager = new FileManager();
-      fileManager.addLocatorFile();
-      fileManager.addLocatorURL();
-      fileManager.addLocatorClassLoader(SKOSEngineImpl.class.getClassLoader());
-      
-      if (FilenameUtils.getExtension(filenameOrURI).equals("zip")) {
-        fileManager.addLocatorZip(filenameOrURI);
-        filenameOrURI = FilenameUtils.getBaseName(filenameOrURI);
+    int[] docURIs = loadLabelDictionary();
+    int maxDoc = docURIs.length;
+    int pooled = strings.size();
+    
+    int[] uris = null;
+    if (closures != null && closures.exists()) {
+      uris = readTransitiveClosures(closures, docURIs);
+    }
+    if (uris == null) {
+      uris = loadTransitiveClosures(docURIs);
+      if (closures != null && !closures.exists()) {
+        writeTransitiveClosures(closures, uris, maxDoc, pooled);
       }
-      
-      skosModel = fileManager.loadModel(filenameOrURI);
-      
-      entailSKOSModel();
-      
-      indexSKOSModel();
     }
     
-    searcher = new IndexSearcher(DirectoryReader.open(indexDir));
+    // the targets of the other relations are pooled as well
+    pool(reader, FIELD_RELATED);
+    strings.trim(storage);
+    
+    int[] ids = new int[strings.size()];
+    Arrays.fill(ids, -1);
+    for (int id = 0; id < uris.length; id++) {
+      if (uris[id] >= 0) {
+        ids[uris[id]] = id;
+      }
+    }
+    this.uris = storage.copy(uris, uris.length);
+    this.ids = storage.copy(ids, ids.length);
+    
+    if (layout == IndexLayout.DOC_VALUES) {
+      docValues = new DocValuesConcepts(reader, strings, this.ids, storage,
+          FIELD_BROADER, FIELD_NARROWER, FIELD_BROADER_TRANSITIVE,
+          FIELD_NARROWER_TRANSITIVE, FIELD_RELATED);
+    }
   }
   
-  private void entailSKOSModel() {
-    GraphStore graphStore = GraphStoreFactory.create(skosModel) ;
-    String sparqlQuery = StringUtils.join(new String[]{
-        "PREFIX skos: <http://www.w3.org/2004/02/skos/core#>",
-        "PREFIX rdf:<http://www.w3.org/1999/02/22-rdf-syntax-ns#>",
-        "INSERT { ?subject rdf:type skos:Concept }",
-        "WHERE {",
-          "{ ?subject skos:prefLabel ?text } UNION",
-          "{ ?subject skos:altLabel ?text } UNION",
-          "{ ?subject skos:hiddenLabel ?text }",
-         "}",
-        }, "\n");
-    UpdateRequest request = UpdateFactory.create(sparqlQuery);
-    UpdateAction.execute(request, graphStore) ;
+  /**
+   * Closes the index
+   */
+  @Override
+  public void close() throws IOException {
+    if (view) {
+      // the index belongs to the viewed engine
+      return;
+    }
+    labelDictionary.close();
+    searcher.getIndexReader().close();
+    indexDir.close();
   }
-
+  
+  /**
+   * Returns the directory holding the concept index
+   */
+  public Directory getIndexDirectory() {
+    return indexDir;
+  }
+  
+  /**
+   * Returns the throughput of building the concept index, null if an index
+   * built before was opened
+   */
+  public ConceptIndexBuilder.Report getBuildReport() {
+    return buildReport;
+  }
+  
+  /**
+   * Returns the heap memory used by the label dictionary, the string pool,
+   * the URI tables, the closures and, for vocabularies loaded from a stream,
+   * the in-memory index. Views report the memory of the engine they share.
+   * The memory Lucene uses for an index on disk is not included.
+   */
+  @Override
+  public long ramBytesUsed() {
+    long size = labelDictionary.ramBytesUsed() + strings.ramBytesUsed()
+        + Storage.ramBytesUsed(uris) + Storage.ramBytesUsed(ids)
+        + broaderClosure.ramBytesUsed() + narrowerClosure.ramBytesUsed();
+    if (docValues != null) {
+      size += docValues.ramBytesUsed();
+    }
+    if (indexDir instanceof RAMDirectory) {
+      size += ((RAMDirectory) indexDir).sizeInBytes();
+    }
+    return size;
+  }
+  
   /**
    * Creates lucene documents from SKOS concept. In order to allow language
    * restrictions, one document per language is created.
    */
-  private Document createDocumentsFromConcept(Resource skos_concept) {
+  private Document createDocumentsFromConcept(SKOSLoader.Concept skos_concept) {
     Document conceptDoc = new Document();
     
     String conceptURI = skos_concept.getURI();
     Field uriField = new Field(FIELD_URI, conceptURI, StringField.TYPE_STORED);
     conceptDoc.add(uriField);
     
-    // store the preferred lexical labels
-    indexAnnotation(skos_concept, conceptDoc, SKOS.prefLabel, FIELD_PREF_LABEL);
-    
-    // store the alternative lexical labels
-    indexAnnotation(skos_concept, conceptDoc, SKOS.altLabel, FIELD_ALT_LABEL);
-    
-    // store the hidden lexical labels
-    indexAnnotation(skos_concept, conceptDoc, SKOS.hiddenLabel,
-        FIELD_HIDDEN_LABEL);
+    // store the lexical labels and the URIs of the related concepts
+    for (int i = 0; i < skos_concept.size(); i++) {
+      String name = FIELDS[skos_concept.getType(i).ordinal()];
+      if (skos_concept.getLanguage(i) != null) {
+        name = labelField(name, skos_concept.getLanguage(i));
+      }
+      Field field = new Field(name, skos_concept.getValue(i),
+          StringField.TYPE_STORED);
+      
+      conceptDoc.add(field);
+    }
     
-    // store the URIs of the broader concepts
-    indexObject(skos_concept, conceptDoc, SKOS.broader, FIELD_BROADER);
+    return conceptDoc;
+  }
+  
+  /**
+   * Creates a lucene document from a SKOS concept in the doc values layout.
+   * All values are indexed (for the label dictionary and the transitive
+   * closures) but not stored.
+   */
+  private Document createDocValuesFromConcept(SKOSLoader.Concept skos_concept) {
+    Document conceptDoc = new Document();
     
-    // store the URIs of the broader transitive concepts
-    indexObject(skos_concept, conceptDoc, SKOS.broaderTransitive,
-        FIELD_BROADER_TRANSITIVE);
+    conceptDoc.add(new Field(FIELD_URI, skos_concept.getURI(),
+        StringField.TYPE_NOT_STORED));
     
-    // store the URIs of the narrower concepts
-    indexObject(skos_concept, conceptDoc, SKOS.narrower, FIELD_NARROWER);
+    // the labels by field (type and language)
+    Map<String,List<String>> labels = new LinkedHashMap<String,List<String>>();
     
-    // store the URIs of the narrower transitive concepts
-    indexObject(skos_concept, conceptDoc, SKOS.narrowerTransitive,
-        FIELD_NARROWER_TRANSITIVE);
+    for (int i = 0; i < skos_concept.size(); i++) {
+      SKOSType type = skos_concept.getType(i);
+      String field = FIELDS[type.ordinal()];
+      String value = skos_concept.getValue(i);
+      
+      if (type.ordinal() <= SKOSType.HIDDEN.ordinal()) {
+        field = labelField(field, skos_concept.getLanguage(i));
+        List<String> fieldLabels = labels.get(field);
+        if (fieldLabels == null) {
+          fieldLabels = new ArrayList<String>();
+          labels.put(field, fieldLabels);
+        }
+        fieldLabels.add(value);
+      } else {
+        conceptDoc.add(DocValuesConcepts.relationField(field, value));
+      }
+      
+      conceptDoc.add(new Field(field, value, StringField.TYPE_NOT_STORED));
+    }
     
-    // store the URIs of the related concepts
-    indexObject(skos_concept, conceptDoc, SKOS.related, FIELD_RELATED);
+    // all labels of a type and language share one binary value
+    for (Map.Entry<String,List<String>> fieldLabels : labels.entrySet()) {
+      conceptDoc.add(DocValuesConcepts.labelsField(fieldLabels.getKey(),
+          fieldLabels.getValue()));
+    }
     
     return conceptDoc;
   }
   
   @Override
   public String[] getAltLabels(String conceptURI) throws IOException {
-    return readConceptFieldValues(conceptURI, FIELD_ALT_LABEL);
+    return readLabels(conceptURI, SKOSType.ALT);
   }
   
   @Override
@@ -338,7 +805,7 @@ public class SKOSEngineImpl implements SKOSEngine {
   
   @Override
   public String[] getHiddenLabels(String conceptURI) throws IOException {
-    return readConceptFieldValues(conceptURI, FIELD_HIDDEN_LABEL);
+    return readLabels(conceptURI, SKOSType.HIDDEN);
   }
   
   @Override
@@ -348,56 +815,68 @@ public class SKOSEngineImpl implements SKOSEngine {
   
   @Override
   public String[] getBroaderLabels(String conceptURI) throws IOException {
-    return getLabels(conceptURI, FIELD_BROADER);
+    return getLabels(getBroaderConcepts(conceptURI));
   }
   
   @Override
   public String[] getBroaderTransitiveConcepts(String conceptURI)
       throws IOException {
-    return readConceptFieldValues(conceptURI, FIELD_BROADER_TRANSITIVE);
+    return readClosure(conceptURI, broaderClosure);
   }
   
   @Override
   public String[] getBroaderTransitiveLabels(String conceptURI)
       throws IOException {
-    return getLabels(conceptURI, FIELD_BROADER_TRANSITIVE);
+    return getLabels(getBroaderTransitiveConcepts(conceptURI));
+  }
+  
+  @Override
+  public LabelMatcher newLabelMatcher() {
+    return labelDictionary.newMatcher(languageIds);
+  }
+  
+  /**
+   * Returns the number of words of the longest label in the languages of this
+   * engine
+   */
+  @Override
+  public int getMaxLabelWords() {
+    return labelDictionary.getMaxLabelWords(languageIds);
   }
   
   @Override
   public String[] getConcepts(String label) throws IOException {
-    List<String> concepts = new ArrayList<String>();
-    
     // convert the query to lower-case
-    String queryString = label.toLowerCase();
-    
-    AllDocCollector collector = new AllDocCollector();
-    
-    DisjunctionMaxQuery query = new DisjunctionMaxQuery(0.0f);
-    query.add(new TermQuery(new Term(FIELD_PREF_LABEL, queryString)));
-    query.add(new TermQuery(new Term(FIELD_ALT_LABEL, queryString)));
-    query.add(new TermQuery(new Term(FIELD_HIDDEN_LABEL, queryString)));
-    searcher.search(query, collector);
+    IntsRef docs = labelDictionary.concepts(label.toLowerCase(), languageIds);
+    if (docs.length == 0) {
+      return NO_CONCEPTS;
+    }
     
-    for (Integer hit : collector.getDocs()) {
-      Document doc = searcher.doc(hit);
-      String conceptURI = doc.getValues(FIELD_URI)[0];
-      concepts.add(conceptURI);
+    // the URIs are shared, only the array is allocated
+    String[] concepts = new String[docs.length];
+    for (int i = 0; i < docs.length; i++) {
+      concepts[i] = strings.get(uris.get(docs.ints[i]));
     }
     
-    return concepts.toArray(new String[concepts.size()]);
+    return concepts;
   }
   
-  private String[] getLabels(String conceptURI, String field)
-      throws IOException {
+  /** Returns the labels (prefLabel + altLabel) of the given concepts */
+  private String[] getLabels(String[] concepts) throws IOException {
+    if (concepts == null) {
+      return null;
+    }
+    
     List<String> labels = new ArrayList<String>();
-    String[] concepts = readConceptFieldValues(conceptURI, field);
     
-    for (String aConceptURI : concepts) {
-      String[] prefLabels = getPrefLabels(aConceptURI);
-      labels.addAll(Arrays.asList(prefLabels));
+    for (String concept : concepts) {
+      int doc = getDoc(concept);
+      if (doc < 0) {
+        // dangling reference, no labels
+        continue;
+      }
       
-      String[] altLabels = getAltLabels(aConceptURI);
-      labels.addAll(Arrays.asList(altLabels));
+      labels.addAll(Arrays.asList(readLabels(doc)));
     }
     
     return labels.toArray(new String[labels.size()]);
@@ -410,24 +889,24 @@ public class SKOSEngineImpl implements SKOSEngine {
   
   @Override
   public String[] getNarrowerLabels(String conceptURI) throws IOException {
-    return getLabels(conceptURI, FIELD_NARROWER);
+    return getLabels(getNarrowerConcepts(conceptURI));
   }
   
   @Override
   public String[] getNarrowerTransitiveConcepts(String conceptURI)
       throws IOException {
-    return readConceptFieldValues(conceptURI, FIELD_NARROWER_TRANSITIVE);
+    return readClosure(conceptURI, narrowerClosure);
   }
   
   @Override
   public String[] getNarrowerTransitiveLabels(String conceptURI)
       throws IOException {
-    return getLabels(conceptURI, FIELD_NARROWER_TRANSITIVE);
+    return getLabels(getNarrowerTransitiveConcepts(conceptURI));
   }
   
   @Override
   public String[] getPrefLabels(String conceptURI) throws IOException {
-    return readConceptFieldValues(conceptURI, FIELD_PREF_LABEL);
+    return readLabels(conceptURI, SKOSType.PREF);
   }
   
   @Override
@@ -437,50 +916,286 @@ public class SKOSEngineImpl implements SKOSEngine {
   
   @Override
   public String[] getRelatedLabels(String conceptURI) throws IOException {
-    return getLabels(conceptURI, FIELD_RELATED);
+    return getLabels(getRelatedConcepts(conceptURI));
   }
   
-  private void indexAnnotation(Resource skos_concept, Document conceptDoc,
-      AnnotationProperty property, String field) {
-    StmtIterator stmt_iter = skos_concept.listProperties(property);
-    while (stmt_iter.hasNext()) {
-      Literal labelLiteral = stmt_iter.nextStatement().getObject()
-          .as(Literal.class);
-      String label = labelLiteral.getLexicalForm();
-      String labelLang = labelLiteral.getLanguage();
+  /**
+   * Compiles the label fields of the index into the label dictionary and
+   * pools the labels and the URIs of all concepts from the term dictionary, so
+   * that label and URI lookups neither run queries nor load stored fields.
+   * 
+   * @return the pooled URI of each document
+   */
+  private int[] loadLabelDictionary() throws IOException {
+    IndexReader reader = searcher.getIndexReader();
+    
+    strings = new StringPool();
+    int[] uris = new int[reader.maxDoc()];
+    Arrays.fill(uris, -1);
+    
+    LabelDictionary.Builder builder = new LabelDictionary.Builder();
+    
+    for (AtomicReaderContext context : reader.leaves()) {
+      AtomicReader atomicReader = context.reader();
+      Bits liveDocs = atomicReader.getLiveDocs();
       
-      if (this.languages != null && !this.languages.contains(labelLang)) {
-        continue;
+      for (String field : atomicReader.fields()) {
+        // the type and language of label fields
+        SKOSType kind = null;
+        String language = null;
+        for (int k = 0; k <= SKOSType.HIDDEN.ordinal(); k++) {
+          String prefix = labelField(FIELDS[k], "");
+          if (field.startsWith(prefix)) {
+            kind = SKOSType.fromInteger(k);
+            language = field.substring(prefix.length());
+          }
+        }
+        if (kind == null && !field.equals(FIELD_URI)) {
+          continue;
+        }
+        
+        TermsEnum termsEnum = atomicReader.terms(field).iterator(null);
+        DocsEnum docsEnum = null;
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+          int id = strings.add(term, kind == null);
+          String value = kind == null ? null : term.utf8ToString();
+          docsEnum = termsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_NONE);
+          int doc;
+          while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            if (kind == null) {
+              uris[context.docBase + doc] = id;
+            } else {
+              builder.add(value, context.docBase + doc, kind, language);
+            }
+          }
+        }
       }
-      
-      // converting label to lower-case
-      label = label.toLowerCase();
-      
-      Field labelField = new Field(field, label, StringField.TYPE_STORED);
-      
-      conceptDoc.add(labelField);
     }
+    
+    labelDictionary = builder.build();
+    if (storage != Storage.HEAP) {
+      labelDictionary = labelDictionary.copy(storage);
+    }
+    return uris;
   }
   
-  private void indexObject(Resource skos_concept, Document conceptDoc,
-      ObjectProperty property, String field) {
-    StmtIterator stmt_iter = skos_concept.listProperties(property);
-    while (stmt_iter.hasNext()) {
-      RDFNode concept = stmt_iter.nextStatement().getObject();
-      
-      if (!concept.canAs(Resource.class)) {
-        System.err.println("Error when indexing relationship of concept "
-            + skos_concept.getURI() + " .");
-        continue;
+  /**
+   * Computes the transitive closures of the broader and narrower relations
+   * (including the asserted transitive relations) from the term dictionary.
+   * Relation targets that are not indexed as concepts get the ids after the
+   * last document. Afterwards the closures are moved to the engine's storage.
+   * 
+   * @param uris
+   *          the pooled URI of each document
+   * @return the pooled URI of each document and relation target
+   */
+  private int[] loadTransitiveClosures(int[] uris) throws IOException {
+    IndexReader reader = searcher.getIndexReader();
+    
+    IntsRef dangling = new IntsRef();
+    
+    IntsRef broaderEdges = readEdges(reader, uris, dangling, FIELD_BROADER,
+        FIELD_BROADER_TRANSITIVE);
+    IntsRef narrowerEdges = readEdges(reader, uris, dangling,
+        FIELD_NARROWER, FIELD_NARROWER_TRANSITIVE);
+    
+    int maxDoc = uris.length;
+    int size = maxDoc + dangling.length;
+    broaderClosure = computeClosure(size, broaderEdges);
+    narrowerClosure = computeClosure(size, narrowerEdges);
+    if (storage != Storage.HEAP) {
+      broaderClosure = broaderClosure.copy(storage, size);
+      narrowerClosure = narrowerClosure.copy(storage, size);
+    }
+    
+    uris = Arrays.copyOf(uris, size);
+    System.arraycopy(dangling.ints, 0, uris, maxDoc, dangling.length);
+    return uris;
+  }
+  
+  /**
+   * Saves the transitive closures along with the relation targets that are
+   * not indexed as concepts. The file is written under a temporary name and
+   * then renamed, so readers never see a partial file.
+   * 
+   * @param uris
+   *          the pooled URI of each document and relation target
+   * @param maxDoc
+   *          the number of documents
+   * @param pooled
+   *          the number of strings pooled before the relation targets
+   */
+  private void writeTransitiveClosures(File file, int[] uris, int maxDoc,
+      int pooled) throws IOException {
+    File tmp = File.createTempFile(file.getName(), ".tmp",
+        file.getParentFile());
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp), 1 << 16));
+    try {
+      out.writeInt(INDEX_FORMAT_VERSION);
+      out.writeInt(maxDoc);
+      // the targets in the order they were pooled, so that they get the same
+      // ids when they are pooled again
+      out.writeInt(strings.size() - pooled);
+      for (int id = pooled; id < strings.size(); id++) {
+        byte[] bytes = strings.get(id).getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
       }
+      ConceptGraph.pad(out);
+      ConceptGraph.writeInts(out, IntBuffer.wrap(uris, maxDoc, uris.length
+          - maxDoc).slice());
+      broaderClosure.write(out);
+      narrowerClosure.write(out);
+    } finally {
+      out.close();
+    }
+    
+    if (!tmp.renameTo(file)) {
+      // renameTo does not replace existing files on every platform
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        tmp.delete();
+        throw new IOException("Could not write closures " + file);
+      }
+    }
+  }
+  
+  /**
+   * Reads the closures saved by {@link #writeTransitiveClosures} and pools
+   * the relation targets that are not indexed as concepts. The closures are
+   * copied to the engine's storage.
+   * 
+   * @param uris
+   *          the pooled URI of each document
+   * @return the pooled URI of each document and relation target, null if
+   *         the file was written for another index
+   */
+  private int[] readTransitiveClosures(File file, int[] uris)
+      throws IOException {
+    ByteBuffer in = ConceptGraph.map(file);
+    if (in.remaining() < 12 || in.getInt() != INDEX_FORMAT_VERSION
+        || in.getInt() != uris.length) {
+      return null;
+    }
+    
+    BytesRef target = new BytesRef();
+    for (int i = in.getInt(); i > 0; i--) {
+      target.length = in.getInt();
+      target.grow(target.length);
+      in.get(target.bytes, 0, target.length);
+      strings.add(target, true);
+    }
+    ConceptGraph.skipPadding(in);
+    IntBuffer dangling = ConceptGraph.readInts(in);
+    
+    int maxDoc = uris.length;
+    int size = maxDoc + dangling.limit();
+    broaderClosure = TransitiveClosure.read(in).copy(storage, size);
+    narrowerClosure = TransitiveClosure.read(in).copy(storage, size);
+    
+    uris = Arrays.copyOf(uris, size);
+    dangling.get(uris, maxDoc, dangling.limit());
+    return uris;
+  }
+  
+  /** Adds the terms of the given URI fields to the pool */
+  private void pool(IndexReader reader, String... fields) throws IOException {
+    for (AtomicReaderContext context : reader.leaves()) {
+      for (String field : fields) {
+        Terms terms = context.reader().terms(field);
+        if (terms == null) {
+          continue;
+        }
+        TermsEnum termsEnum = terms.iterator(null);
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+          strings.add(term, true);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Reads the relations stored in the given fields as pairs of source and
+   * target ids. Targets that are not indexed as concepts are pooled and
+   * appended to the dangling targets.
+   */
+  private IntsRef readEdges(IndexReader reader, int[] uris, IntsRef dangling,
+      String... fields) throws IOException {
+    // the concept ids of the URIs pooled so far
+    int[] targetIds = new int[strings.size()];
+    Arrays.fill(targetIds, -1);
+    for (int doc = 0; doc < uris.length; doc++) {
+      if (uris[doc] >= 0) {
+        targetIds[uris[doc]] = doc;
+      }
+    }
+    for (int i = 0; i < dangling.length; i++) {
+      targetIds[dangling.ints[i]] = uris.length + i;
+    }
+    
+    IntsRef edges = new IntsRef();
+    
+    for (AtomicReaderContext context : reader.leaves()) {
+      AtomicReader atomicReader = context.reader();
+      Bits liveDocs = atomicReader.getLiveDocs();
       
-      Resource resource = concept.as(Resource.class);
-      
-      Field conceptField = new Field(field, resource.getURI(),
-          StringField.TYPE_STORED);
-      
-      conceptDoc.add(conceptField);
+      for (String field : fields) {
+        Terms terms = atomicReader.terms(field);
+        if (terms == null) {
+          continue;
+        }
+        
+        TermsEnum termsEnum = terms.iterator(null);
+        DocsEnum docsEnum = null;
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+          int id = strings.add(term, true);
+          if (id >= targetIds.length) {
+            int length = targetIds.length;
+            targetIds = ArrayUtil.grow(targetIds, id + 1);
+            Arrays.fill(targetIds, length, targetIds.length, -1);
+          }
+          int target = targetIds[id];
+          if (target < 0) {
+            target = uris.length + dangling.length;
+            targetIds[id] = target;
+            dangling.grow(dangling.length + 1);
+            dangling.ints[dangling.length++] = id;
+          }
+          
+          docsEnum = termsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_NONE);
+          int doc;
+          while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            edges.grow(edges.length + 2);
+            edges.ints[edges.length++] = context.docBase + doc;
+            edges.ints[edges.length++] = target;
+          }
+        }
+      }
     }
+    
+    return edges;
+  }
+  
+  private static TransitiveClosure computeClosure(int size, IntsRef edges) {
+    int[] offsets = new int[size + 1];
+    for (int i = 0; i < edges.length; i += 2) {
+      offsets[edges.ints[i] + 1]++;
+    }
+    for (int id = 0; id < size; id++) {
+      offsets[id + 1] += offsets[id];
+    }
+    
+    int[] targets = new int[edges.length / 2];
+    int[] fill = Arrays.copyOf(offsets, size);
+    for (int i = 0; i < edges.length; i += 2) {
+      targets[fill[edges.ints[i]]++] = edges.ints[i + 1];
+    }
+    
+    return TransitiveClosure.compute(size, offsets, targets);
   }
   
   /**
@@ -488,44 +1203,221 @@ public class SKOSEngineImpl implements SKOSEngine {
    * 
    * @throws IOException
    */
-  private void indexSKOSModel() throws IOException {
-    IndexWriterConfig cfg = new IndexWriterConfig(matchVersion, analyzer);
+  private void indexSKOSModel(SKOSLoader loader, final IndexLayout layout,
+      ConceptIndexBuilder builder) throws IOException {
+    IndexWriterConfig cfg = builder.configure(new IndexWriterConfig(
+        matchVersion, analyzer));
     IndexWriter writer = new IndexWriter(indexDir, cfg);
-    writer.getConfig().setRAMBufferSizeMB(48);
     
-    /* iterate SKOS concepts, create Lucene docs and add them to the index */
-    ResIterator concept_iter = skosModel.listResourcesWithProperty(RDF.type,
-        SKOS.Concept);
-    while (concept_iter.hasNext()) {
-      Resource skos_concept = concept_iter.next();
+    /* create Lucene docs of the SKOS concepts and add them to the index */
+    try {
+      buildReport = builder.build(writer, loader.getConcepts(),
+          new ConceptIndexBuilder.ConceptConverter() {
+            @Override
+            public Document toDocument(SKOSLoader.Concept skos_concept) {
+              return layout == IndexLayout.DOC_VALUES
+                  ? createDocValuesFromConcept(skos_concept)
+                  : createDocumentsFromConcept(skos_concept);
+            }
+          });
+    } catch (IOException e) {
+      writer.rollback();
+      throw e;
+    } catch (RuntimeException e) {
+      writer.rollback();
+      throw e;
+    }
+    
+    // records the format, so that indexes of other versions are rebuilt
+    Map<String,String> format = new HashMap<String,String>();
+    format.put(COMMIT_FORMAT_VERSION, String.valueOf(INDEX_FORMAT_VERSION));
+    format.put(COMMIT_LAYOUT, layout.name());
+    writer.setCommitData(format);
+    
+    writer.close();
+  }
+  
+  @Override
+  public void expandLabel(String label, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    // convert the query to lower-case
+    IntsRef docs = labelDictionary.concepts(label.toLowerCase(), languageIds);
+    for (int i = 0; i < docs.length; i++) {
+      expand(docs.ints[i], types, expansion);
+    }
+  }
+  
+  @Override
+  public void expandConcept(String conceptURI, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    int doc = getDoc(conceptURI);
+    if (doc >= 0) {
+      expand(doc, types, expansion);
+    }
+  }
+  
+  /**
+   * Expands a concept document. The document is loaded once; the related
+   * concepts of each type are resolved in one pass over the term dictionary
+   * and only their labels are loaded.
+   */
+  private void expand(int doc, Set<SKOSType> types, SKOSExpansion expansion)
+      throws IOException {
+    // in the doc values layout each type is read on its own
+    Document conceptDoc = docValues == null ? searcher.doc(doc) : null;
+    
+    for (SKOSType type : SKOSExpansion.EXPANSION_ORDER) {
+      if (!types.contains(type)) {
+        continue;
+      }
       
-      Document concept_doc = createDocumentsFromConcept(skos_concept);
+      String field = FIELDS[type.ordinal()];
       
-      // System.out.println("Adding document to index " + concept_doc);
+      int[] targets;
+      if (type.ordinal() <= SKOSType.HIDDEN.ordinal()) {
+        String[] fields = labelFields[type.ordinal()];
+        expansion.addAll(conceptDoc != null ? strings.intern(getValues(
+            conceptDoc, fields)) : readLabels(doc, fields), type);
+        continue;
+      } else if (type == SKOSType.BROADERTRANSITIVE) {
+        targets = readClosure(doc, broaderClosure);
+      } else if (type == SKOSType.NARROWERTRANSITIVE) {
+        targets = readClosure(doc, narrowerClosure);
+      } else if (conceptDoc != null) {
+        String[] targetURIs = conceptDoc.getValues(field);
+        targets = new int[targetURIs.length];
+        for (int i = 0; i < targets.length; i++) {
+          targets[i] = getDoc(targetURIs[i]);
+        }
+      } else {
+        targets = docValues.ids(doc, field);
+      }
       
-      writer.addDocument(concept_doc);
+      for (int target : targets) {
+        if (target < 0 || target >= searcher.getIndexReader().maxDoc()) {
+          // dangling reference, no labels
+          continue;
+        }
+        expansion.addAll(readLabels(target), type);
+      }
     }
+  }
+  
+  /** Returns the pref and alt labels of a document, in this order */
+  private String[] readLabels(int doc) throws IOException {
+    return readLabels(doc, prefAndAltFields);
+  }
+  
+  /** Returns the labels of a given type of a given concept */
+  private String[] readLabels(String conceptURI, SKOSType type)
+      throws IOException {
+    int doc = getDoc(conceptURI);
     
-    writer.close();
+    if (doc < 0) {
+      System.out.println("Unknown concept " + conceptURI);
+      return null;
+    }
+    
+    return readLabels(doc, labelFields[type.ordinal()]);
+  }
+  
+  /**
+   * Returns the labels of the given fields of a document, in the order of the
+   * fields
+   */
+  private String[] readLabels(int doc, String[] fields) throws IOException {
+    if (docValues == null) {
+      DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(
+          fields);
+      searcher.doc(doc, visitor);
+      return strings.intern(getValues(visitor.getDocument(), fields));
+    }
+    
+    if (fields.length == 1) {
+      return docValues.labels(doc, fields[0]);
+    }
+    List<String> labels = new ArrayList<String>();
+    for (String field : fields) {
+      labels.addAll(Arrays.asList(docValues.labels(doc, field)));
+    }
+    return labels.toArray(new String[labels.size()]);
+  }
+  
+  /**
+   * Returns the values of the given fields of a document, in the order of the
+   * fields
+   */
+  private static String[] getValues(Document doc, String[] fields) {
+    if (fields.length == 1) {
+      return doc.getValues(fields[0]);
+    }
+    List<String> values = new ArrayList<String>();
+    for (String field : fields) {
+      values.addAll(Arrays.asList(doc.getValues(field)));
+    }
+    return values.toArray(new String[values.size()]);
+  }
+  
+  /**
+   * Returns the document of a given concept, or -1 if it is unknown. The URI
+   * is looked up in the string pool, without touching the index.
+   */
+  private int getDoc(String conceptURI) {
+    int id = strings.find(conceptURI);
+    if (id < 0) {
+      return -1;
+    }
+    int doc = ids.get(id);
+    return doc < searcher.getIndexReader().maxDoc() ? doc : -1;
   }
   
   /** Returns the values of a given field for a given concept */
   private String[] readConceptFieldValues(String conceptURI, String field)
       throws IOException {
     
-    Query query = new TermQuery(new Term(FIELD_URI, conceptURI));
+    int doc = getDoc(conceptURI);
     
-    TopDocs docs = searcher.search(query, 1);
+    if (doc < 0) {
+      System.out.println("Unknown concept " + conceptURI);
+      return null;
+    }
+    
+    if (docValues != null) {
+      return docValues.uris(doc, field);
+    }
+    
+    DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(field);
+    searcher.doc(doc, visitor);
+    return strings.intern(visitor.getDocument().getValues(field));
+  }
+  
+  /** Returns the URIs of the concepts in the closure of a given concept */
+  private String[] readClosure(String conceptURI, TransitiveClosure closure)
+      throws IOException {
     
-    ScoreDoc[] results = docs.scoreDocs;
+    int doc = getDoc(conceptURI);
     
-    if (results.length != 1) {
+    if (doc < 0) {
       System.out.println("Unknown concept " + conceptURI);
       return null;
     }
     
-    Document conceptDoc = searcher.doc(results[0].doc);
+    int[] targets = readClosure(doc, closure);
+    String[] concepts = new String[targets.length];
+    for (int i = 0; i < concepts.length; i++) {
+      concepts[i] = strings.get(uris.get(targets[i]));
+    }
     
-    return conceptDoc.getValues(field);
+    return concepts;
+  }
+  
+  /** Returns the ids of the concepts in the closure of a given document */
+  private static int[] readClosure(int doc, TransitiveClosure closure) {
+    int start = closure.start(doc);
+    int[] targets = new int[closure.end(doc) - start];
+    for (int i = 0; i < targets.length; i++) {
+      targets[i] = closure.target(start + i);
+    }
+    return targets;
   }
 }
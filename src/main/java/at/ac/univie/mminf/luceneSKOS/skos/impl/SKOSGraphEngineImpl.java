@@ -0,0 +1,555 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.lucene.util.IntsRef;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.LabelMatcher;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+
+/**
+ * An in-memory SKOSEngine Implementation.
+ *
+ * The vocabulary is compiled into a {@link ConceptGraph}: concepts get dense
+ * int ids, relations are stored as int adjacency arrays and labels in flat
+ * tables, so every lookup is an array access instead of an index search.
+ *
+ * When loaded from a file, the compiled graph is saved as a snapshot next to
+ * the Lucene indexes (below skosdata/NAME-HASH-graph, HASH identifying the
+ * source path) and reused until the source changes. Snapshots are opened
+ * through a memory mapping, so startup does not depend on the vocabulary size
+ * and only the label FST is kept on the heap.
+ * Graphs compiled from a stream can be moved to direct buffers with
+ * {@link Storage#OFF_HEAP}.
+ *
+ * The graph keeps the language tag of every label and is compiled once for
+ * all languages: engines restricted to some languages and the views returned
+ * by {@link #getLanguageView} share it and only read the labels of their
+ * languages.
+ *
+ * All labels are converted to lowercase
+ */
+public class SKOSGraphEngineImpl implements SKOSEngine {
+
+  private static final String[] NO_CONCEPTS = new String[0];
+
+  /**
+   * The compiled vocabulary
+   */
+  private final ConceptGraph graph;
+
+  /**
+   * The languages to be considered when returning labels.
+   *
+   * If NULL, all languages are supported
+   */
+  private Set<String> languages;
+
+  /**
+   * The ids of the languages considered, NULL if all labels of the graph are
+   */
+  private BitSet languageIds;
+
+  /**
+   * This constructor loads the SKOS model from a given InputStream using the
+   * given serialization language parameter, which must be either N3, RDF/XML,
+   * or TURTLE.
+   *
+   * @param inputStream
+   *          the input stream
+   * @param lang
+   *          the serialization language
+   * @throws IOException
+   *           if the model cannot be loaded
+   */
+  public SKOSGraphEngineImpl(InputStream inputStream, String lang)
+      throws IOException {
+    this(inputStream, lang, Storage.HEAP);
+  }
+
+  /**
+   * This constructor loads the SKOS model from a given InputStream using the
+   * given serialization language parameter, which must be either N3, RDF/XML,
+   * or TURTLE, and keeps the compiled graph in the given storage.
+   *
+   * @param inputStream
+   *          the input stream
+   * @param lang
+   *          the serialization language
+   * @param storage
+   *          where the tables of the graph are held
+   * @throws IOException
+   *           if the model cannot be loaded
+   */
+  public SKOSGraphEngineImpl(InputStream inputStream, String lang,
+      Storage storage) throws IOException {
+    ConceptGraph compiled = compileSKOSModel(SKOSLoader.load(inputStream,
+        lang, null));
+    graph = storage == Storage.HEAP ? compiled : compiled.copy(storage);
+  }
+
+  /**
+   * Constructor for all label-languages
+   *
+   * @param filenameOrURI
+   *          the name of the skos file to be loaded
+   * @throws IOException
+   */
+  public SKOSGraphEngineImpl(String filenameOrURI) throws IOException {
+    this(filenameOrURI, (String[]) null);
+  }
+
+  /**
+   * This constructor loads the SKOS model from a given filename or URI,
+   * compiles it with the labels of all languages, and saves the result as a
+   * snapshot. If a snapshot compiled from the same source exists already, it
+   * is opened instead. The engine only considers the labels of the given
+   * languages, so engines of different languages share the snapshot.
+   *
+   * @param filenameOrURI
+   *          the skos file, or a snapshot file (*.skosgraph)
+   * @param languages
+   *          the languages to be considered
+   * @throws IOException
+   */
+  public SKOSGraphEngineImpl(String filenameOrURI, String... languages)
+      throws IOException {
+    if (isSnapshot(filenameOrURI)) {
+      graph = ConceptGraph.open(new File(filenameOrURI));
+    } else {
+      SKOSDataCache cache = SKOSDataCache.forSource(filenameOrURI, "-graph");
+      SourceFingerprint source = SourceFingerprint.of(filenameOrURI, null,
+          ConceptGraph.SNAPSHOT_VERSION);
+
+      File dir = cache.getCurrent(source);
+      if (dir == null) {
+        SKOSLoader loader = SKOSLoader.load(filenameOrURI, null);
+
+        dir = cache.newGeneration();
+        compileSKOSModel(loader).save(snapshotFile(dir));
+        cache.publish(dir, source);
+      }
+
+      graph = ConceptGraph.open(snapshotFile(dir));
+    }
+
+    if (languages != null && languages.length > 0) {
+      this.languages = new TreeSet<String>(Arrays.asList(languages));
+      languageIds = graph.getLanguageIds(this.languages);
+    }
+  }
+
+  /**
+   * Creates an engine over an already compiled graph
+   *
+   * @param graph
+   *          the compiled vocabulary
+   * @param languages
+   *          the languages the graph was compiled for, NULL for all
+   */
+  SKOSGraphEngineImpl(ConceptGraph graph, Set<String> languages) {
+    this.graph = graph;
+    this.languages = languages;
+  }
+
+  /**
+   * Creates a view of an engine that only considers the labels of the given
+   * languages
+   *
+   * @param engine
+   *          the engine whose graph is shared
+   * @param languages
+   *          the languages of the view
+   */
+  SKOSGraphEngineImpl(SKOSGraphEngineImpl engine, Set<String> languages) {
+    graph = engine.graph;
+    this.languages = languages;
+    languageIds = graph.getLanguageIds(languages);
+  }
+
+  /**
+   * Opens a snapshot written by {@link #save(File)}
+   *
+   * @param snapshot
+   *          the snapshot file
+   * @throws IOException
+   *           if the snapshot cannot be read or has an unsupported version
+   */
+  public SKOSGraphEngineImpl(File snapshot) throws IOException {
+    graph = ConceptGraph.open(snapshot);
+  }
+
+  private static File snapshotFile(File dir) {
+    return new File(dir, "concepts." + ConceptGraph.SNAPSHOT_EXTENSION);
+  }
+
+  /**
+   * Returns true if the given file name denotes a snapshot
+   */
+  public static boolean isSnapshot(String filenameOrURI) {
+    return ConceptGraph.SNAPSHOT_EXTENSION.equals(FilenameUtils
+        .getExtension(filenameOrURI));
+  }
+
+  /**
+   * Saves the compiled vocabulary as a snapshot, which can be opened with
+   * {@link #SKOSGraphEngineImpl(File)}
+   *
+   * @param snapshot
+   *          the snapshot file
+   * @throws IOException
+   */
+  public void save(File snapshot) throws IOException {
+    graph.save(snapshot);
+  }
+
+  /**
+   * Returns the heap memory used by the graph: the label FST, plus all tables
+   * if the graph was compiled on the heap
+   */
+  @Override
+  public long ramBytesUsed() {
+    return graph.ramBytesUsed();
+  }
+
+  /**
+   * Compiles all SKOS concepts collected by the loader into the concept graph
+   */
+  private ConceptGraph compileSKOSModel(SKOSLoader loader) throws IOException {
+    ConceptGraph.Builder builder = new ConceptGraph.Builder();
+    addConcepts(builder, loader);
+    return builder.build();
+  }
+
+  /**
+   * Adds all SKOS concepts collected by the loader to a graph builder
+   */
+  static void addConcepts(ConceptGraph.Builder builder, SKOSLoader loader) {
+    for (SKOSLoader.Concept skos_concept : loader.getConcepts()) {
+      String conceptURI = skos_concept.getURI();
+      builder.addConcept(conceptURI);
+
+      for (int i = 0; i < skos_concept.size(); i++) {
+        SKOSType type = skos_concept.getType(i);
+        if (type.ordinal() <= SKOSType.HIDDEN.ordinal()) {
+          builder.addLabel(conceptURI, type, skos_concept.getValue(i),
+              skos_concept.getLanguage(i));
+        } else {
+          builder.addRelation(conceptURI, type, skos_concept.getValue(i));
+        }
+      }
+    }
+  }
+
+  /** Returns the id of a concept, or -1 if the concept is unknown */
+  int getId(String conceptURI) {
+    return graph.getId(conceptURI);
+  }
+
+  @Override
+  public String[] getAltLabels(String conceptURI) throws IOException {
+    return readLabels(conceptURI, SKOSType.ALT);
+  }
+
+  @Override
+  public String[] getAltTerms(String label) throws IOException {
+    List<String> result = new ArrayList<String>();
+
+    // convert the query to lower-case
+    IntsRef ids = graph.concepts(label.toLowerCase(), languageIds);
+
+    for (int j = 0; j < ids.length; j++) {
+      addLabels(ids.ints[j], SKOSType.ALT, result);
+    }
+
+    return result.toArray(new String[result.size()]);
+  }
+
+  @Override
+  public String[] getHiddenLabels(String conceptURI) throws IOException {
+    return readLabels(conceptURI, SKOSType.HIDDEN);
+  }
+
+  @Override
+  public String[] getBroaderConcepts(String conceptURI) throws IOException {
+    return readRelations(conceptURI, SKOSType.BROADER);
+  }
+
+  @Override
+  public String[] getBroaderLabels(String conceptURI) throws IOException {
+    return getLabels(conceptURI, SKOSType.BROADER);
+  }
+
+  @Override
+  public String[] getBroaderTransitiveConcepts(String conceptURI)
+      throws IOException {
+    return readRelations(conceptURI, SKOSType.BROADERTRANSITIVE);
+  }
+
+  @Override
+  public String[] getBroaderTransitiveLabels(String conceptURI)
+      throws IOException {
+    return getLabels(conceptURI, SKOSType.BROADERTRANSITIVE);
+  }
+
+  @Override
+  public String[] getConcepts(String label) throws IOException {
+    // convert the query to lower-case
+    IntsRef ids = graph.concepts(label.toLowerCase(), languageIds);
+    if (ids.length == 0) {
+      return NO_CONCEPTS;
+    }
+
+    String[] concepts = new String[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      concepts[i] = graph.getURI(ids.ints[i]);
+    }
+
+    return concepts;
+  }
+
+  /**
+   * Returns the labels (prefLabel + altLabel) of all concepts related to a
+   * given concept by the given relation
+   */
+  private String[] getLabels(String conceptURI, SKOSType relation) {
+    int id = graph.getId(conceptURI);
+    if (id < 0) {
+      return null;
+    }
+
+    List<String> labels = new ArrayList<String>();
+
+    for (int i = graph.start(relation, id); i < graph.end(relation, id); i++) {
+      int target = graph.target(relation, i);
+      if (target >= graph.size()) {
+        // dangling reference, no labels
+        continue;
+      }
+      addLabels(target, SKOSType.PREF, labels);
+      addLabels(target, SKOSType.ALT, labels);
+    }
+
+    return labels.toArray(new String[labels.size()]);
+  }
+
+  private void addLabels(int id, SKOSType type, List<String> labels) {
+    for (int i = graph.start(type, id); i < graph.end(type, id); i++) {
+      if (accepts(type, i)) {
+        labels.add(graph.getLabel(graph.target(type, i)));
+      }
+    }
+  }
+
+  /**
+   * Returns true if the label entry at a given CSR position is in one of the
+   * languages considered
+   */
+  private boolean accepts(SKOSType type, int position) {
+    return languageIds == null
+        || languageIds.get(graph.language(type, position));
+  }
+
+  @Override
+  public void expandLabel(String label, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    // convert the query to lower-case
+    IntsRef ids = graph.concepts(label.toLowerCase(), languageIds);
+    for (int i = 0; i < ids.length; i++) {
+      expand(ids.ints[i], types, expansion);
+    }
+  }
+
+  @Override
+  public void expandConcept(String conceptURI, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    int id = graph.getId(conceptURI);
+    if (id >= 0) {
+      expand(id, types, expansion);
+    }
+  }
+
+  /**
+   * Appends the expansions of the given types of a concept
+   */
+  void expand(int id, Set<SKOSType> types, SKOSExpansion expansion) {
+    for (SKOSType type : SKOSExpansion.EXPANSION_ORDER) {
+      if (!types.contains(type)) {
+        continue;
+      }
+
+      if (type.ordinal() <= SKOSType.HIDDEN.ordinal()) {
+        addLabels(id, type, type, expansion);
+        continue;
+      }
+
+      for (int i = graph.start(type, id); i < graph.end(type, id); i++) {
+        int target = graph.target(type, i);
+        if (target >= graph.size()) {
+          // dangling reference, no labels
+          continue;
+        }
+        addLabels(target, SKOSType.PREF, type, expansion);
+        addLabels(target, SKOSType.ALT, type, expansion);
+      }
+    }
+  }
+
+  /**
+   * Appends the labels of the given label type of a concept, as expansions of
+   * the given type
+   */
+  private void addLabels(int id, SKOSType labelType, SKOSType type,
+      SKOSExpansion expansion) {
+    for (int i = graph.start(labelType, id); i < graph.end(labelType, id); i++) {
+      if (accepts(labelType, i)) {
+        expansion.add(graph.getLabel(graph.target(labelType, i)), type);
+      }
+    }
+  }
+
+  @Override
+  public String[] getNarrowerConcepts(String conceptURI) throws IOException {
+    return readRelations(conceptURI, SKOSType.NARROWER);
+  }
+
+  @Override
+  public String[] getNarrowerLabels(String conceptURI) throws IOException {
+    return getLabels(conceptURI, SKOSType.NARROWER);
+  }
+
+  @Override
+  public String[] getNarrowerTransitiveConcepts(String conceptURI)
+      throws IOException {
+    return readRelations(conceptURI, SKOSType.NARROWERTRANSITIVE);
+  }
+
+  @Override
+  public String[] getNarrowerTransitiveLabels(String conceptURI)
+      throws IOException {
+    return getLabels(conceptURI, SKOSType.NARROWERTRANSITIVE);
+  }
+
+  @Override
+  public String[] getPrefLabels(String conceptURI) throws IOException {
+    return readLabels(conceptURI, SKOSType.PREF);
+  }
+
+  @Override
+  public String[] getRelatedConcepts(String conceptURI) throws IOException {
+    return readRelations(conceptURI, SKOSType.RELATED);
+  }
+
+  @Override
+  public String[] getRelatedLabels(String conceptURI) throws IOException {
+    return getLabels(conceptURI, SKOSType.RELATED);
+  }
+
+  @Override
+  public LabelMatcher newLabelMatcher() {
+    return graph.newLabelMatcher(languageIds);
+  }
+
+  /**
+   * Returns the number of words of the longest label in the languages of this
+   * engine
+   */
+  @Override
+  public int getMaxLabelWords() {
+    return graph.getMaxLabelWords(languageIds);
+  }
+
+  /**
+   * Returns a view of this engine that only considers labels of the given
+   * languages (and of the languages this engine is restricted to, if any).
+   * The view shares the graph of this engine.
+   */
+  @Override
+  public SKOSEngine getLanguageView(String... languages) {
+    Set<String> viewLanguages = null;
+    if (languages != null) {
+      viewLanguages = new TreeSet<String>(Arrays.asList(languages));
+    }
+    if (this.languages != null) {
+      if (viewLanguages == null) {
+        viewLanguages = this.languages;
+      } else {
+        viewLanguages.retainAll(this.languages);
+      }
+    }
+    return newView(viewLanguages);
+  }
+
+  /**
+   * Returns a view of this engine over the given languages, to be overridden
+   * by subclasses keeping state of their own
+   */
+  SKOSGraphEngineImpl newView(Set<String> languages) {
+    return new SKOSGraphEngineImpl(this, languages);
+  }
+
+  /** Returns the labels of a given type for a given concept */
+  private String[] readLabels(String conceptURI, SKOSType type) {
+    int id = graph.getId(conceptURI);
+    if (id < 0) {
+      return null;
+    }
+
+    if (languageIds != null) {
+      List<String> labels = new ArrayList<String>();
+      addLabels(id, type, labels);
+      return labels.toArray(new String[labels.size()]);
+    }
+
+    int start = graph.start(type, id);
+    String[] labels = new String[graph.end(type, id) - start];
+    for (int i = 0; i < labels.length; i++) {
+      labels[i] = graph.getLabel(graph.target(type, start + i));
+    }
+
+    return labels;
+  }
+
+  /** Returns the URIs of the concepts related by a given type */
+  private String[] readRelations(String conceptURI, SKOSType type) {
+    int id = graph.getId(conceptURI);
+    if (id < 0) {
+      return null;
+    }
+
+    int start = graph.start(type, id);
+    String[] concepts = new String[graph.end(type, id) - start];
+    for (int i = 0; i < concepts.length; i++) {
+      concepts[i] = graph.getURI(graph.target(type, start + i));
+    }
+
+    return concepts;
+  }
+}
@@ -0,0 +1,383 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.jena.atlas.web.TypedInputStream;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.stream.LocatorZip;
+import org.apache.jena.riot.stream.StreamManager;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOS;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+/**
+ * Streams a SKOS vocabulary from its serialization and collects the labels
+ * and relations of its concepts, without building a Jena Model.
+ *
+ * Only triples with a SKOS label or semantic relation predicate (and the
+ * rdf:type skos:Concept statements) are kept, in one compact record per
+ * subject. Labels outside the requested languages are dropped while parsing
+ * and the remaining ones are lowercased, so the memory needed scales with the
+ * indexed SKOS payload rather than with the size of the input. The language
+ * tag of each label is kept ("" for labels without a tag).
+ *
+ * The SKOS entailments needed by the engines are drawn while parsing, so no
+ * second pass over the data is necessary:
+ * <ul>
+ * <li>a resource is a concept if it is typed as skos:Concept or if it carries
+ * a label in any language</li>
+ * <li>skos:broader and skos:narrower (and their transitive variants) are
+ * inverse to each other, skos:related is symmetric; every relation is
+ * recorded in both directions and duplicates are dropped when the concepts
+ * are returned</li>
+ * </ul>
+ *
+ * The concept schemes a concept is declared to be in (skos:inScheme) are
+ * kept as well; they do not make a resource a concept.
+ */
+final class SKOSLoader extends StreamRDFBase {
+
+  /**
+   * The labels and relations of a single resource, stored as parallel arrays
+   * of types and values in the order they were read
+   */
+  static final class Concept {
+
+    private final String uri;
+
+    private boolean member;
+
+    private byte[] types = new byte[4];
+
+    private String[] values = new String[4];
+
+    /* the language tag of each label, null for relations */
+    private String[] languages = new String[4];
+
+    private int size;
+
+    /* false if relations were added since duplicates were last dropped */
+    private boolean unique = true;
+
+    /* the URIs of the schemes of the concept, null if there are none */
+    private String[] schemes;
+
+    Concept(String uri) {
+      this.uri = uri;
+    }
+
+    /** Returns the URI of the concept */
+    String getURI() {
+      return uri;
+    }
+
+    /** Returns the number of labels and relations */
+    int size() {
+      return size;
+    }
+
+    /** Returns the type of the label or relation at the given position */
+    SKOSType getType(int index) {
+      return SKOSType.fromInteger(types[index]);
+    }
+
+    /** Returns the label or target URI at the given position */
+    String getValue(int index) {
+      return values[index];
+    }
+
+    /**
+     * Returns the language tag of the label at the given position, "" if it
+     * has none and null for relations
+     */
+    String getLanguage(int index) {
+      return languages[index];
+    }
+
+    /** Returns the URIs of the concept schemes the concept is in */
+    String[] getSchemes() {
+      return schemes == null ? new String[0] : schemes.clone();
+    }
+
+    private void addScheme(String schemeURI) {
+      if (schemes == null) {
+        schemes = new String[] {schemeURI};
+      } else if (!Arrays.asList(schemes).contains(schemeURI)) {
+        schemes = Arrays.copyOf(schemes, schemes.length + 1);
+        schemes[schemes.length - 1] = schemeURI;
+      }
+    }
+
+    /**
+     * Adds a relation. Relations are recorded as they are read; repeated ones
+     * are dropped by {@link #removeDuplicateRelations()} once parsing is done
+     * rather than looked up on every insert.
+     */
+    private void addRelation(SKOSType type, String targetURI) {
+      add(type, targetURI, null);
+      unique = false;
+    }
+
+    /**
+     * Drops the repeated relations in one pass, keeping the first of each
+     * type and target URI, and leaves the labels as they are
+     */
+    private void removeDuplicateRelations() {
+      if (unique) {
+        return;
+      }
+      // the relation types already seen for each target URI, as a bit mask
+      Map<String,Integer> seen = new HashMap<String,Integer>();
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        if (languages[i] == null) {
+          int bit = 1 << types[i];
+          Integer mask = seen.get(values[i]);
+          if (mask == null) {
+            seen.put(values[i], bit);
+          } else if ((mask & bit) == 0) {
+            seen.put(values[i], mask | bit);
+          } else {
+            continue;
+          }
+        }
+        types[kept] = types[i];
+        values[kept] = values[i];
+        languages[kept++] = languages[i];
+      }
+      Arrays.fill(values, kept, size, null);
+      Arrays.fill(languages, kept, size, null);
+      size = kept;
+      unique = true;
+    }
+
+    private void add(SKOSType type, String value, String language) {
+      if (size == values.length) {
+        types = Arrays.copyOf(types, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+        languages = Arrays.copyOf(languages, size * 2);
+      }
+      types[size] = (byte) type.ordinal();
+      languages[size] = language;
+      values[size++] = value;
+    }
+  }
+
+  private static final Map<Node,SKOSType> PREDICATES = new HashMap<Node,SKOSType>();
+
+  static {
+    PREDICATES.put(SKOS.prefLabel.asNode(), SKOSType.PREF);
+    PREDICATES.put(SKOS.altLabel.asNode(), SKOSType.ALT);
+    PREDICATES.put(SKOS.hiddenLabel.asNode(), SKOSType.HIDDEN);
+    PREDICATES.put(SKOS.broader.asNode(), SKOSType.BROADER);
+    PREDICATES.put(SKOS.narrower.asNode(), SKOSType.NARROWER);
+    PREDICATES.put(SKOS.broaderTransitive.asNode(), SKOSType.BROADERTRANSITIVE);
+    PREDICATES.put(SKOS.narrowerTransitive.asNode(),
+        SKOSType.NARROWERTRANSITIVE);
+    PREDICATES.put(SKOS.related.asNode(), SKOSType.RELATED);
+  }
+
+  /** The inverse of each relation type, indexed by its ordinal */
+  private static final SKOSType[] INVERSES = new SKOSType[SKOSType.values().length];
+
+  static {
+    INVERSES[SKOSType.BROADER.ordinal()] = SKOSType.NARROWER;
+    INVERSES[SKOSType.NARROWER.ordinal()] = SKOSType.BROADER;
+    INVERSES[SKOSType.BROADERTRANSITIVE.ordinal()] = SKOSType.NARROWERTRANSITIVE;
+    INVERSES[SKOSType.NARROWERTRANSITIVE.ordinal()] = SKOSType.BROADERTRANSITIVE;
+    INVERSES[SKOSType.RELATED.ordinal()] = SKOSType.RELATED;
+  }
+
+  private static final Node TYPE = RDF.type.asNode();
+
+  private static final Node CONCEPT = SKOS.Concept.asNode();
+
+  private static final Node IN_SCHEME = SKOS.inScheme.asNode();
+
+  /**
+   * The languages of the labels to be kept. If NULL, all languages are kept
+   */
+  private final Set<String> languages;
+
+  private final Map<String,Concept> concepts = new LinkedHashMap<String,Concept>();
+
+  /* one shared instance per language tag */
+  private final Map<String,String> tags = new HashMap<String,String>();
+
+  SKOSLoader(Set<String> languages) {
+    this.languages = languages;
+  }
+
+  /**
+   * Loads a SKOS vocabulary from a given InputStream using the given
+   * serialization language parameter, which must be either N3, RDF/XML, or
+   * TURTLE.
+   */
+  static SKOSLoader load(InputStream inputStream, String lang,
+      Set<String> languages) throws IOException {
+    if (!("N3".equals(lang) || "RDF/XML".equals(lang) || "TURTLE".equals(lang))) {
+      throw new IOException("Invalid RDF serialization format");
+    }
+
+    SKOSLoader loader = new SKOSLoader(languages);
+    RDFDataMgr.parse(loader, inputStream, RDFLanguages.nameToLang(lang));
+    return loader;
+  }
+
+  /**
+   * Loads a SKOS vocabulary from a local file (serialized in any rdf
+   * serialization format, optionally zipped), a classpath resource or a
+   * remote URI.
+   */
+  static SKOSLoader load(String filenameOrURI, Set<String> languages)
+      throws IOException {
+    SKOSLoader loader = new SKOSLoader(languages);
+
+    if (!FilenameUtils.getExtension(filenameOrURI).equals("zip")) {
+      RDFDataMgr.parse(loader, filenameOrURI);
+      return loader;
+    }
+
+    // the zip file contains the vocabulary as an entry named like the file
+    StreamManager streamManager = StreamManager.get().clone();
+    streamManager.addLocator(new LocatorZip(filenameOrURI));
+    String entry = FilenameUtils.getBaseName(filenameOrURI);
+
+    TypedInputStream in = streamManager.open(entry);
+    if (in == null) {
+      throw new IOException("Cannot find " + entry + " in " + filenameOrURI);
+    }
+    try {
+      Lang lang = RDFLanguages.filenameToLang(entry, RDFLanguages.RDFXML);
+      RDFDataMgr.parse(loader, in, lang);
+    } finally {
+      in.close();
+    }
+    return loader;
+  }
+
+  /**
+   * Returns the concepts of the vocabulary in the order they were first
+   * mentioned
+   */
+  List<Concept> getConcepts() {
+    List<Concept> result = new ArrayList<Concept>(concepts.size());
+    for (Concept concept : concepts.values()) {
+      if (concept.member) {
+        concept.removeDuplicateRelations();
+        result.add(concept);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void triple(Triple triple) {
+    Node subject = triple.getSubject();
+    Node predicate = triple.getPredicate();
+    Node object = triple.getObject();
+
+    if (predicate.equals(TYPE)) {
+      if (object.equals(CONCEPT) && subject.isURI()) {
+        concept(subject).member = true;
+      }
+      return;
+    }
+
+    if (predicate.equals(IN_SCHEME)) {
+      if (subject.isURI() && object.isURI()) {
+        concept(subject).addScheme(object.getURI());
+      }
+      return;
+    }
+
+    SKOSType type = PREDICATES.get(predicate);
+    if (type == null || !subject.isURI()) {
+      return;
+    }
+
+    if (type.ordinal() <= SKOSType.HIDDEN.ordinal()) {
+      if (!object.isLiteral()) {
+        System.err.println("Error when indexing label of concept "
+            + subject.getURI() + " .");
+        return;
+      }
+
+      Concept concept = concept(subject);
+      concept.member = true;
+
+      String labelLang = object.getLiteralLanguage();
+      if (languages != null && !languages.contains(labelLang)) {
+        return;
+      }
+
+      String tag = tags.get(labelLang);
+      if (tag == null) {
+        tag = labelLang;
+        tags.put(tag, tag);
+      }
+
+      // converting label to lower-case
+      concept.add(type, object.getLiteralLexicalForm().toLowerCase(), tag);
+    } else {
+      if (!object.isURI()) {
+        System.err.println("Error when indexing relationship of concept "
+            + subject.getURI() + " .");
+        return;
+      }
+
+      Concept source = concept(subject);
+      Concept target = concept(object);
+      source.addRelation(type, target.uri);
+      target.addRelation(INVERSES[type.ordinal()], source.uri);
+    }
+  }
+
+  @Override
+  public void quad(Quad quad) {
+    triple(quad.asTriple());
+  }
+
+  private Concept concept(Node subject) {
+    String uri = subject.getURI();
+    Concept concept = concepts.get(uri);
+    if (concept == null) {
+      concept = new Concept(uri);
+      concepts.put(uri, concept);
+    }
+    return concept;
+  }
+}
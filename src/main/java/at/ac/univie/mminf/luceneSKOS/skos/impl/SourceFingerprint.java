@@ -0,0 +1,194 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Identifies the source a vocabulary was compiled from: its name, size,
+ * modification time and SHA-1 content hash, the languages considered and the
+ * version of the compiled format.
+ *
+ * Comparing fingerprints is cheap as long as size and modification time are
+ * unchanged; the content hash is only computed when they differ, so that
+ * copying or touching a file does not cause a rebuild. Sources that are not
+ * local files (URLs, classpath resources) are identified by their name only.
+ */
+final class SourceFingerprint {
+
+  private static final String SOURCE = "source";
+
+  private static final String SIZE = "size";
+
+  private static final String LAST_MODIFIED = "lastModified";
+
+  private static final String HASH = "sha1";
+
+  private static final String LANGUAGES = "languages";
+
+  private static final String FORMAT_VERSION = "formatVersion";
+
+  private final Properties properties;
+
+  /** The source file, null if the source is not a local file */
+  private final File file;
+
+  private SourceFingerprint(Properties properties, File file) {
+    this.properties = properties;
+    this.file = file;
+  }
+
+  /**
+   * Creates the fingerprint of a given source
+   *
+   * @param filenameOrURI
+   *          the source file or URI
+   * @param languages
+   *          the languages considered, NULL for all
+   * @param formatVersion
+   *          the version of the compiled format
+   */
+  static SourceFingerprint of(String filenameOrURI, Set<String> languages,
+      int formatVersion) {
+    Properties properties = new Properties();
+    properties.setProperty(SOURCE, filenameOrURI);
+    properties.setProperty(LANGUAGES, languages == null ? "" : StringUtils
+        .join(languages, ","));
+    properties.setProperty(FORMAT_VERSION, String.valueOf(formatVersion));
+
+    File file = new File(filenameOrURI);
+    if (!file.isFile()) {
+      return new SourceFingerprint(properties, null);
+    }
+    properties.setProperty(SIZE, String.valueOf(file.length()));
+    properties.setProperty(LAST_MODIFIED, String.valueOf(file.lastModified()));
+    return new SourceFingerprint(properties, file);
+  }
+
+  /**
+   * Reads a fingerprint written by {@link #write(File)}
+   *
+   * @return the fingerprint, or null if the file does not exist
+   */
+  static SourceFingerprint read(File fingerprintFile) throws IOException {
+    if (!fingerprintFile.isFile()) {
+      return null;
+    }
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(fingerprintFile);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    return new SourceFingerprint(properties, null);
+  }
+
+  /** Writes the fingerprint, including the content hash */
+  void write(File fingerprintFile) throws IOException {
+    if (file != null) {
+      properties.setProperty(HASH, hash());
+    }
+    OutputStream out = new FileOutputStream(fingerprintFile);
+    try {
+      properties.store(out, "SKOS vocabulary source");
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Returns true if the source still has the size and modification time it
+   * had when this fingerprint was created. Checked after a vocabulary was
+   * compiled, it tells whether the source changed during compilation.
+   */
+  boolean isUnchanged() {
+    if (file == null) {
+      return true;
+    }
+    return properties.getProperty(SIZE).equals(String.valueOf(file.length()))
+        && properties.getProperty(LAST_MODIFIED).equals(
+            String.valueOf(file.lastModified()));
+  }
+
+  /**
+   * Returns true if this fingerprint identifies the source a vocabulary with
+   * the given fingerprint was compiled from
+   */
+  boolean matches(SourceFingerprint compiled) throws IOException {
+    if (compiled == null) {
+      return false;
+    }
+    for (String key : new String[] {SOURCE, LANGUAGES, FORMAT_VERSION}) {
+      if (!properties.getProperty(key).equals(
+          compiled.properties.getProperty(key))) {
+        return false;
+      }
+    }
+    if (file == null) {
+      return true;
+    }
+    if (properties.getProperty(SIZE).equals(compiled.properties.getProperty(SIZE))
+        && properties.getProperty(LAST_MODIFIED).equals(
+            compiled.properties.getProperty(LAST_MODIFIED))) {
+      return true;
+    }
+    return properties.getProperty(SIZE).equals(
+        compiled.properties.getProperty(SIZE))
+        && hash().equals(compiled.properties.getProperty(HASH));
+  }
+
+  private String hash() throws IOException {
+    String hash = properties.getProperty(HASH);
+    if (hash != null) {
+      return hash;
+    }
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+
+    hash = new BigInteger(1, digest.digest()).toString(16);
+    properties.setProperty(HASH, hash);
+    return hash;
+  }
+}
@@ -0,0 +1,141 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Where an engine keeps the tables it derives from a vocabulary: the label
+ * and URI arenas, the URI hash tables and the adjacency arrays.
+ *
+ * {@link #HEAP} tables are arrays on the Java heap. {@link #OFF_HEAP} tables
+ * are direct buffers, so a vocabulary of millions of concepts adds little to
+ * the heap the garbage collector has to scan; in return every access is a
+ * buffer read, and labels and URIs are decoded on each request instead of
+ * being kept as String instances. Snapshots of the graph engine are always
+ * opened through a memory mapping, which is off-heap as well.
+ */
+public enum Storage {
+  /** The tables are arrays on the heap */
+  HEAP,
+  /** The tables are direct buffers outside of the heap */
+  OFF_HEAP;
+
+  /** Returns a byte buffer of the given capacity */
+  ByteBuffer allocate(int length) {
+    if (this == HEAP) {
+      return ByteBuffer.allocate(length);
+    }
+    return ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+  }
+
+  /** Returns an int buffer of the given capacity */
+  IntBuffer allocateInts(int length) {
+    return this == HEAP ? IntBuffer.allocate(length) : allocate(4 * length)
+        .asIntBuffer();
+  }
+
+  private LongBuffer allocateLongs(int length) {
+    return this == HEAP ? LongBuffer.allocate(length) : allocate(8 * length)
+        .asLongBuffer();
+  }
+
+  /** Returns a buffer holding the first <code>length</code> given bytes */
+  ByteBuffer copy(byte[] bytes, int length) {
+    ByteBuffer buffer = allocate(length);
+    buffer.put(bytes, 0, length);
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Returns a buffer holding the first <code>length</code> given ints */
+  IntBuffer copy(int[] ints, int length) {
+    IntBuffer buffer = allocateInts(length);
+    buffer.put(ints, 0, length);
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Returns a buffer holding the first <code>length</code> ints of a buffer */
+  IntBuffer copy(IntBuffer ints, int length) {
+    IntBuffer source = ints.duplicate();
+    source.clear().limit(length);
+    IntBuffer buffer = allocateInts(length);
+    buffer.put(source);
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Returns a buffer holding the bytes of a buffer */
+  ByteBuffer copy(ByteBuffer bytes) {
+    ByteBuffer source = bytes.duplicate();
+    source.clear();
+    ByteBuffer buffer = allocate(source.remaining());
+    buffer.put(source);
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Returns a buffer holding the longs of a buffer */
+  LongBuffer copy(LongBuffer longs) {
+    LongBuffer source = longs.duplicate();
+    source.clear();
+    LongBuffer buffer = allocateLongs(source.remaining());
+    buffer.put(source);
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Returns the heap memory used by a buffer: its backing array for heap
+   * buffers, nothing but the buffer object for direct and mapped ones
+   */
+  static long ramBytesUsed(Buffer buffer) {
+    if (buffer == null) {
+      return 0;
+    }
+    long size = RamUsageEstimator.shallowSizeOf(buffer);
+    if (buffer.isDirect() || !buffer.hasArray()) {
+      return size;
+    }
+    if (buffer instanceof ByteBuffer) {
+      return size + RamUsageEstimator.sizeOf(((ByteBuffer) buffer).array());
+    }
+    if (buffer instanceof IntBuffer) {
+      return size + RamUsageEstimator.sizeOf(((IntBuffer) buffer).array());
+    }
+    if (buffer instanceof LongBuffer) {
+      return size + RamUsageEstimator.sizeOf(((LongBuffer) buffer).array());
+    }
+    return size;
+  }
+
+  /** Returns the heap memory used by the given buffers */
+  static long ramBytesUsed(Buffer[] buffers) {
+    long size = RamUsageEstimator.shallowSizeOf(buffers);
+    for (Buffer buffer : buffers) {
+      size += ramBytesUsed(buffer);
+    }
+    return size;
+  }
+}
@@ -0,0 +1,450 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * The distinct labels and URIs of an index, each stored once.
+ *
+ * The strings are kept as one UTF-8 byte arena plus an offset per entry. URIs
+ * are split after their last '/' or '#': the namespace is stored once and
+ * each URI only keeps a reference to it and its local name. Entries are found
+ * through an open-addressing hash table over their UTF-8 bytes, either by
+ * bytes (as read from doc values or the term dictionary) or by a String,
+ * which is encoded on the fly; neither lookup allocates.
+ *
+ * On the heap, {@link #get} returns one shared String instance per entry,
+ * created on first use, so labels and URIs that are returned again and again
+ * (such as the labels of a broader concept) are not decoded each time. Once
+ * {@link #trim trimmed} into {@link Storage#OFF_HEAP} buffers, only the
+ * namespaces stay on the heap and entries are decoded on every request.
+ *
+ * Entries are added while the engine opens the index; afterwards the pool is
+ * only read and may be used by many threads.
+ */
+final class StringPool {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int NO_PREFIX = -1;
+
+  private static final long STRING_SIZE = RamUsageEstimator
+      .shallowSizeOfInstance(String.class);
+
+  /* the local names (or whole strings) of the entries */
+  private ByteBuffer arena = ByteBuffer.allocate(1024);
+
+  private int arenaLength;
+
+  /* the start of each entry in the arena, plus the end of the last one */
+  private IntBuffer offsets = IntBuffer.allocate(17);
+
+  /* the namespace of each entry, NO_PREFIX for labels */
+  private IntBuffer prefixIds = IntBuffer.allocate(16);
+
+  /* the hash of the whole UTF-8 bytes of each entry */
+  private IntBuffer hashes = IntBuffer.allocate(16);
+
+  /* entry id + 1 by hash, 0 for free slots */
+  private IntBuffer slots = IntBuffer.allocate(32);
+
+  private int size;
+
+  /* the namespaces, as UTF-8 and as shared Strings */
+  private final List<byte[]> prefixes = new ArrayList<byte[]>();
+
+  private final List<String> prefixStrings = new ArrayList<String>();
+
+  /* used while adding only */
+  private final Map<String,Integer> prefixIndex = new HashMap<String,Integer>();
+
+  /* the shared instance of each entry, created on first use; null off-heap */
+  private String[] strings = new String[16];
+
+  /** Returns the number of entries */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Adds a string unless it is pooled already
+   *
+   * @param utf8
+   *          the UTF-8 bytes of the string
+   * @param uri
+   *          true to store the namespace of the string separately
+   * @return the id of the entry
+   */
+  int add(BytesRef utf8, boolean uri) {
+    int hash = hash(utf8.bytes, utf8.offset, utf8.length);
+    int id = find(utf8.bytes, utf8.offset, utf8.length, hash);
+    if (id >= 0) {
+      return id;
+    }
+
+    int prefixId = NO_PREFIX;
+    int start = utf8.offset;
+    if (uri) {
+      int end = utf8.offset + utf8.length - 1;
+      while (end > utf8.offset && utf8.bytes[end - 1] != '/'
+          && utf8.bytes[end - 1] != '#') {
+        end--;
+      }
+      if (end > utf8.offset) {
+        prefixId = prefixId(utf8.bytes, utf8.offset, end - utf8.offset);
+        start = end;
+      }
+    }
+
+    id = size++;
+    if (id == prefixIds.capacity()) {
+      prefixIds = grow(prefixIds, size);
+      hashes = grow(hashes, size);
+      String[] grown = new String[prefixIds.capacity()];
+      System.arraycopy(strings, 0, grown, 0, id);
+      strings = grown;
+    }
+    offsets = grow(offsets, size + 1);
+    int length = utf8.offset + utf8.length - start;
+    if (arenaLength + length > arena.capacity()) {
+      ByteBuffer grown = ByteBuffer.allocate(ArrayUtil.oversize(arenaLength
+          + length, 1));
+      grown.put(arena.array(), 0, arenaLength);
+      arena = grown;
+    }
+    System.arraycopy(utf8.bytes, start, arena.array(), arenaLength, length);
+    offsets.put(id, arenaLength);
+    arenaLength += length;
+    offsets.put(id + 1, arenaLength);
+    prefixIds.put(id, prefixId);
+    hashes.put(id, hash);
+
+    if (2 * size > slots.capacity()) {
+      rehash(2 * slots.capacity());
+    }
+    insert(id);
+    return id;
+  }
+
+  /** Returns a heap buffer holding the ints of a given one and room for more */
+  private static IntBuffer grow(IntBuffer ints, int minSize) {
+    if (ints.capacity() >= minSize) {
+      return ints;
+    }
+    return IntBuffer.wrap(ArrayUtil.grow(ints.array(), minSize));
+  }
+
+  /** Releases the spare capacity once all entries are added, on the heap */
+  void trim() {
+    trim(Storage.HEAP);
+  }
+
+  /**
+   * Releases the spare capacity once all entries are added and moves the
+   * tables to the given storage
+   */
+  void trim(Storage storage) {
+    arena = storage.copy(arena.array(), arenaLength);
+    offsets = storage.copy(offsets, size + 1);
+    prefixIds = storage.copy(prefixIds, size);
+    hashes = storage.copy(hashes, size);
+    slots = storage.copy(slots, slots.capacity());
+    if (storage == Storage.HEAP) {
+      String[] trimmed = new String[size];
+      System.arraycopy(strings, 0, trimmed, 0, size);
+      strings = trimmed;
+    } else {
+      strings = null;
+    }
+    prefixIndex.clear();
+  }
+
+  /** Returns the heap memory used by the pool */
+  long ramBytesUsed() {
+    long size = RamUsageEstimator.shallowSizeOf(this)
+        + Storage.ramBytesUsed(arena) + Storage.ramBytesUsed(offsets)
+        + Storage.ramBytesUsed(prefixIds) + Storage.ramBytesUsed(hashes)
+        + Storage.ramBytesUsed(slots);
+    for (byte[] prefix : prefixes) {
+      size += RamUsageEstimator.sizeOf(prefix);
+    }
+    for (String prefix : prefixStrings) {
+      size += sizeOf(prefix);
+    }
+    if (strings != null) {
+      size += RamUsageEstimator.shallowSizeOf(strings);
+      for (String s : strings) {
+        if (s != null) {
+          size += sizeOf(s);
+        }
+      }
+    }
+    return size;
+  }
+
+  /** Returns the heap memory used by a String and its chars */
+  static long sizeOf(String s) {
+    return STRING_SIZE
+        + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+            + 2L * s.length());
+  }
+
+  private int prefixId(byte[] bytes, int offset, int length) {
+    String prefix = new String(bytes, offset, length, UTF_8);
+    Integer prefixId = prefixIndex.get(prefix);
+    if (prefixId == null) {
+      prefixId = prefixes.size();
+      byte[] utf8 = new byte[length];
+      System.arraycopy(bytes, offset, utf8, 0, length);
+      prefixes.add(utf8);
+      prefixStrings.add(prefix);
+      prefixIndex.put(prefix, prefixId);
+    }
+    return prefixId;
+  }
+
+  private void rehash(int capacity) {
+    slots = IntBuffer.allocate(capacity);
+    for (int id = 0; id < size; id++) {
+      insert(id);
+    }
+  }
+
+  private void insert(int id) {
+    int mask = slots.capacity() - 1;
+    int slot = hashes.get(id) & mask;
+    while (slots.get(slot) != 0) {
+      slot = (slot + 1) & mask;
+    }
+    slots.put(slot, id + 1);
+  }
+
+  /** Returns the id of the given UTF-8 bytes, -1 if they are not pooled */
+  int find(byte[] bytes, int offset, int length) {
+    return find(bytes, offset, length, hash(bytes, offset, length));
+  }
+
+  private int find(byte[] bytes, int offset, int length, int hash) {
+    int mask = slots.capacity() - 1;
+    for (int slot = hash & mask; slots.get(slot) != 0; slot = (slot + 1)
+        & mask) {
+      int id = slots.get(slot) - 1;
+      if (hashes.get(id) == hash && equals(id, bytes, offset, length)) {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the id of the given string, -1 if it is not pooled */
+  int find(String s) {
+    int hash = hash(s);
+    int mask = slots.capacity() - 1;
+    for (int slot = hash & mask; slots.get(slot) != 0; slot = (slot + 1)
+        & mask) {
+      int id = slots.get(slot) - 1;
+      if (hashes.get(id) == hash && equals(id, s)) {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the shared instance of an entry, a new String off-heap */
+  String get(int id) {
+    String[] strings = this.strings;
+    String s = strings == null ? null : strings[id];
+    if (s == null) {
+      // racing threads create equal instances, one of them is kept
+      s = decode(id);
+      if (strings != null) {
+        strings[id] = s;
+      }
+    }
+    return s;
+  }
+
+  private String decode(int id) {
+    int start = offsets.get(id);
+    int length = offsets.get(id + 1) - start;
+    String s;
+    if (arena.hasArray()) {
+      s = new String(arena.array(), arena.arrayOffset() + start, length,
+          UTF_8);
+    } else {
+      byte[] utf8 = new byte[length];
+      ByteBuffer bytes = arena.duplicate();
+      bytes.position(start);
+      bytes.get(utf8);
+      s = new String(utf8, UTF_8);
+    }
+    if (prefixIds.get(id) != NO_PREFIX) {
+      s = prefixStrings.get(prefixIds.get(id)).concat(s);
+    }
+    return s;
+  }
+
+  /**
+   * Returns the shared instance of the given UTF-8 bytes, a new String if
+   * they are not pooled
+   */
+  String get(byte[] bytes, int offset, int length) {
+    int id = find(bytes, offset, length);
+    return id < 0 ? new String(bytes, offset, length, UTF_8)
+        : get(id);
+  }
+
+  /** Returns the shared instance of a string, the string if it is not pooled */
+  String intern(String s) {
+    if (strings == null) {
+      // there are no shared instances
+      return s;
+    }
+    int id = find(s);
+    return id < 0 ? s : get(id);
+  }
+
+  /** Returns the shared instances of the given strings, in place */
+  String[] intern(String[] values) {
+    if (strings == null) {
+      return values;
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] = intern(values[i]);
+    }
+    return values;
+  }
+
+  /** Returns the byte at the given position of the UTF-8 bytes of an entry */
+  private byte byteAt(int id, int prefixLength, int pos) {
+    if (pos < prefixLength) {
+      return prefixes.get(prefixIds.get(id))[pos];
+    }
+    return arena.get(offsets.get(id) + pos - prefixLength);
+  }
+
+  private int prefixLength(int id) {
+    int prefixId = prefixIds.get(id);
+    return prefixId == NO_PREFIX ? 0 : prefixes.get(prefixId).length;
+  }
+
+  private boolean equals(int id, byte[] bytes, int offset, int length) {
+    int prefixLength = prefixLength(id);
+    if (prefixLength + offsets.get(id + 1) - offsets.get(id) != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (byteAt(id, prefixLength, i) != bytes[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Compares an entry to a string, encoding the string on the fly */
+  private boolean equals(int id, String s) {
+    int prefixLength = prefixLength(id);
+    int length = prefixLength + offsets.get(id + 1) - offsets.get(id);
+    int pos = 0;
+    for (int i = 0; i < s.length(); i++) {
+      int code = s.charAt(i);
+      if (code < 0x80) {
+        if (pos >= length || byteAt(id, prefixLength, pos++) != (byte) code) {
+          return false;
+        }
+        continue;
+      }
+      if (Character.isHighSurrogate((char) code) && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        code = Character.toCodePoint((char) code, s.charAt(++i));
+      }
+      int bytes = utf8Length(code);
+      if (pos + bytes > length) {
+        return false;
+      }
+      for (int b = 0; b < bytes; b++) {
+        if (byteAt(id, prefixLength, pos++) != utf8Byte(code, bytes, b)) {
+          return false;
+        }
+      }
+    }
+    return pos == length;
+  }
+
+  private static int hash(byte[] bytes, int offset, int length) {
+    int h = 0;
+    for (int i = offset; i < offset + length; i++) {
+      h = 31 * h + bytes[i];
+    }
+    return mix(h);
+  }
+
+  /** Hashes the UTF-8 bytes of a string, encoding it on the fly */
+  private static int hash(String s) {
+    int h = 0;
+    for (int i = 0; i < s.length(); i++) {
+      int code = s.charAt(i);
+      if (code < 0x80) {
+        h = 31 * h + code;
+        continue;
+      }
+      if (Character.isHighSurrogate((char) code) && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        code = Character.toCodePoint((char) code, s.charAt(++i));
+      }
+      int bytes = utf8Length(code);
+      for (int b = 0; b < bytes; b++) {
+        h = 31 * h + utf8Byte(code, bytes, b);
+      }
+    }
+    return mix(h);
+  }
+
+  private static int utf8Length(int code) {
+    return code < 0x800 ? 2 : code < 0x10000 ? 3 : 4;
+  }
+
+  /** Returns a byte of the UTF-8 encoding of a code point of 2 to 4 bytes */
+  private static byte utf8Byte(int code, int length, int index) {
+    if (index == 0) {
+      int lead = length == 2 ? 0xC0 : length == 3 ? 0xE0 : 0xF0;
+      return (byte) (lead | (code >> (6 * (length - 1))));
+    }
+    return (byte) (0x80 | ((code >> (6 * (length - 1 - index))) & 0x3F));
+  }
+
+  /** The finalization step of MurmurHash3 */
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,164 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.UnicodeUtil;
+
+/**
+ * A table of strings stored as one UTF-8 byte arena plus an offset per entry.
+ *
+ * The table is backed by buffers, so it can live on the heap or be a view of a
+ * memory-mapped snapshot.
+ */
+final class StringTable {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The start of each entry in the arena, plus the end of the last one */
+  private final IntBuffer offsets;
+
+  /** The UTF-8 bytes of all entries */
+  private final ByteBuffer bytes;
+
+  StringTable(IntBuffer offsets, ByteBuffer bytes) {
+    this.offsets = offsets;
+    this.bytes = bytes;
+  }
+
+  /** Encodes the given strings into a heap-backed table */
+  static StringTable build(List<String> strings) {
+    int[] offsets = new int[strings.size() + 1];
+    BytesRef arena = new BytesRef(16 * strings.size());
+    BytesRef scratch = new BytesRef();
+    for (int i = 0; i < strings.size(); i++) {
+      offsets[i] = arena.length;
+      String s = strings.get(i);
+      UnicodeUtil.UTF16toUTF8(s, 0, s.length(), scratch);
+      arena.append(scratch);
+    }
+    offsets[strings.size()] = arena.length;
+
+    return new StringTable(IntBuffer.wrap(offsets), ByteBuffer.wrap(
+        arena.bytes, 0, arena.length).slice());
+  }
+
+  /** Returns a copy of the table held in the given storage */
+  StringTable copy(Storage storage) {
+    return new StringTable(storage.copy(offsets, offsets.limit()),
+        storage.copy(bytes));
+  }
+
+  /** Returns the heap memory used by the table */
+  long ramBytesUsed() {
+    return RamUsageEstimator.shallowSizeOf(this)
+        + Storage.ramBytesUsed(offsets) + Storage.ramBytesUsed(bytes);
+  }
+
+  /** Returns the number of entries */
+  int size() {
+    return offsets.limit() - 1;
+  }
+
+  /** Returns the entry with the given index */
+  String get(int index) {
+    int start = offsets.get(index);
+    int length = offsets.get(index + 1) - start;
+    if (bytes.hasArray()) {
+      return new String(bytes.array(), bytes.arrayOffset() + start, length,
+          UTF_8);
+    }
+    byte[] utf8 = new byte[length];
+    for (int i = 0; i < length; i++) {
+      utf8[i] = bytes.get(start + i);
+    }
+    return new String(utf8, UTF_8);
+  }
+
+  /**
+   * Returns true if the entry with the given index equals the given string.
+   * The string is UTF-8 encoded on the fly, so nothing is allocated.
+   */
+  boolean equals(int index, String s) {
+    int pos = offsets.get(index);
+    int end = offsets.get(index + 1);
+    for (int i = 0; i < s.length(); i++) {
+      int code = s.charAt(i);
+      if (code < 0x80) {
+        if (pos >= end || bytes.get(pos++) != (byte) code) {
+          return false;
+        }
+        continue;
+      }
+      if (Character.isHighSurrogate((char) code) && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        code = Character.toCodePoint((char) code, s.charAt(++i));
+      }
+      int length = code < 0x800 ? 2 : code < 0x10000 ? 3 : 4;
+      if (pos + length > end) {
+        return false;
+      }
+      int lead = length == 2 ? 0xC0 : length == 3 ? 0xE0 : 0xF0;
+      if (bytes.get(pos++) != (byte) (lead | (code >> (6 * (length - 1))))) {
+        return false;
+      }
+      for (int shift = 6 * (length - 2); shift >= 0; shift -= 6) {
+        if (bytes.get(pos++) != (byte) (0x80 | ((code >> shift) & 0x3F))) {
+          return false;
+        }
+      }
+    }
+    return pos == end;
+  }
+
+  /**
+   * Writes the table: the entry count, the offsets and the arena, padded to
+   * a multiple of four bytes.
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(size());
+    for (int i = 0; i <= size(); i++) {
+      out.writeInt(offsets.get(i));
+    }
+    int length = offsets.get(size());
+    for (int i = 0; i < length; i++) {
+      out.writeByte(bytes.get(i));
+    }
+    ConceptGraph.pad(out);
+  }
+
+  /**
+   * Reads a table written by {@link #write} from the current position of the
+   * given buffer, without copying it
+   */
+  static StringTable read(ByteBuffer in) {
+    int size = in.getInt();
+    IntBuffer offsets = ConceptGraph.sliceInts(in, size + 1);
+    int length = offsets.get(size);
+    ByteBuffer bytes = ConceptGraph.slice(in, length);
+    ConceptGraph.skipPadding(in);
+    return new StringTable(offsets, bytes);
+  }
+}
@@ -0,0 +1,265 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * The transitive closure of a directed graph over dense int ids.
+ *
+ * The graph and its closure are both given in compressed row form: the
+ * targets of node <code>n</code> are <code>targets[offsets[n]]</code> up to
+ * <code>targets[offsets[n + 1]]</code>, sorted by id. A node is never part of
+ * its own closure, even if it lies on a cycle.
+ *
+ * Cycles are condensed first (Tarjan's algorithm, run iteratively so deep
+ * hierarchies do not exhaust the stack). The strongly connected components
+ * are found in reverse topological order, so the reachable set of each
+ * component is the union of the sets of its successors, which are complete
+ * at that point.
+ */
+final class TransitiveClosure {
+
+  private final IntBuffer offsets;
+
+  private final IntBuffer targets;
+
+  private TransitiveClosure(IntBuffer offsets, IntBuffer targets) {
+    this.offsets = offsets;
+    this.targets = targets;
+  }
+
+  /** Returns the offsets of the closure, one per node plus the end */
+  IntBuffer offsets() {
+    return offsets;
+  }
+
+  /** Returns the targets of the closure */
+  IntBuffer targets() {
+    return targets;
+  }
+
+  /** Returns the position of the first node reachable from a given node */
+  int start(int node) {
+    return offsets.get(node);
+  }
+
+  /** Returns the position after the last node reachable from a given node */
+  int end(int node) {
+    return offsets.get(node + 1);
+  }
+
+  /** Returns the reachable node at a given position */
+  int target(int index) {
+    return targets.get(index);
+  }
+
+  /**
+   * Returns a copy of the closure of the first <code>size</code> nodes in the
+   * given storage
+   */
+  TransitiveClosure copy(Storage storage, int size) {
+    return new TransitiveClosure(storage.copy(offsets, size + 1),
+        storage.copy(targets, offsets.get(size)));
+  }
+
+  /** Writes the closure, to be read again by {@link #read} */
+  void write(DataOutputStream out) throws IOException {
+    ConceptGraph.writeInts(out, offsets);
+    ConceptGraph.writeInts(out, targets);
+  }
+
+  /**
+   * Reads a closure written by {@link #write}. The closure is a view of the
+   * given buffer.
+   */
+  static TransitiveClosure read(ByteBuffer in) {
+    IntBuffer offsets = ConceptGraph.readInts(in);
+    return new TransitiveClosure(offsets, ConceptGraph.readInts(in));
+  }
+
+  /** Returns the heap memory used by the closure */
+  long ramBytesUsed() {
+    return RamUsageEstimator.shallowSizeOf(this)
+        + Storage.ramBytesUsed(offsets) + Storage.ramBytesUsed(targets);
+  }
+
+  /**
+   * Computes the transitive closure of a graph with <code>size</code> nodes
+   */
+  static TransitiveClosure compute(int size, int[] offsets, int[] targets) {
+    int[] component = new int[size];
+    int componentCount = findComponents(size, offsets, targets, component);
+
+    // the members of each component
+    int[] memberOffsets = new int[componentCount + 1];
+    for (int node = 0; node < size; node++) {
+      memberOffsets[component[node] + 1]++;
+    }
+    for (int c = 0; c < componentCount; c++) {
+      memberOffsets[c + 1] += memberOffsets[c];
+    }
+    int[] members = new int[size];
+    int[] fill = Arrays.copyOf(memberOffsets, componentCount);
+    for (int node = 0; node < size; node++) {
+      members[fill[component[node]]++] = node;
+    }
+
+    // the components reachable from each component
+    boolean[] cyclic = new boolean[componentCount];
+    int[] reachOffsets = new int[componentCount + 1];
+    int[] reach = new int[Math.max(16, componentCount)];
+    int[] stamp = new int[componentCount];
+    Arrays.fill(stamp, -1);
+    for (int c = 0; c < componentCount; c++) {
+      int count = reachOffsets[c];
+      cyclic[c] = memberOffsets[c + 1] - memberOffsets[c] > 1;
+      for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+        int node = members[m];
+        for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+          int d = component[targets[e]];
+          if (d == c) {
+            // a self loop
+            cyclic[c] = true;
+            continue;
+          }
+          if (stamp[d] == c) {
+            continue;
+          }
+          stamp[d] = c;
+          reach = ArrayUtil.grow(reach, count + 1 + reachOffsets[d + 1]
+              - reachOffsets[d]);
+          reach[count++] = d;
+          for (int r = reachOffsets[d]; r < reachOffsets[d + 1]; r++) {
+            if (stamp[reach[r]] != c) {
+              stamp[reach[r]] = c;
+              reach[count++] = reach[r];
+            }
+          }
+        }
+      }
+      reachOffsets[c + 1] = count;
+    }
+
+    // expand the components into their members
+    int[] closureOffsets = new int[size + 1];
+    int[] closure = new int[Math.max(16, size)];
+    int count = 0;
+    for (int node = 0; node < size; node++) {
+      closureOffsets[node] = count;
+      int c = component[node];
+      if (cyclic[c]) {
+        closure = ArrayUtil.grow(closure, count + memberOffsets[c + 1]
+            - memberOffsets[c]);
+        for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+          if (members[m] != node) {
+            closure[count++] = members[m];
+          }
+        }
+      }
+      for (int r = reachOffsets[c]; r < reachOffsets[c + 1]; r++) {
+        int d = reach[r];
+        closure = ArrayUtil.grow(closure, count + memberOffsets[d + 1]
+            - memberOffsets[d]);
+        for (int m = memberOffsets[d]; m < memberOffsets[d + 1]; m++) {
+          closure[count++] = members[m];
+        }
+      }
+      Arrays.sort(closure, closureOffsets[node], count);
+    }
+    closureOffsets[size] = count;
+
+    return new TransitiveClosure(IntBuffer.wrap(closureOffsets),
+        IntBuffer.wrap(Arrays.copyOf(closure, count)));
+  }
+
+  /**
+   * Assigns each node the id of its strongly connected component. Components
+   * are numbered in reverse topological order: edges only lead to components
+   * with a lower or the same id.
+   *
+   * @return the number of components
+   */
+  private static int findComponents(int size, int[] offsets, int[] targets,
+      int[] component) {
+    int[] index = new int[size];
+    Arrays.fill(index, -1);
+    int[] low = new int[size];
+    int[] next = new int[size];
+    int[] stack = new int[size];
+    boolean[] onStack = new boolean[size];
+    int[] path = new int[size];
+
+    int stackSize = 0;
+    int counter = 0;
+    int componentCount = 0;
+
+    for (int root = 0; root < size; root++) {
+      if (index[root] != -1) {
+        continue;
+      }
+
+      int depth = 0;
+      index[root] = low[root] = counter++;
+      next[root] = offsets[root];
+      stack[stackSize++] = root;
+      onStack[root] = true;
+      path[depth++] = root;
+
+      while (depth > 0) {
+        int node = path[depth - 1];
+        if (next[node] < offsets[node + 1]) {
+          int target = targets[next[node]++];
+          if (index[target] == -1) {
+            index[target] = low[target] = counter++;
+            next[target] = offsets[target];
+            stack[stackSize++] = target;
+            onStack[target] = true;
+            path[depth++] = target;
+          } else if (onStack[target]) {
+            low[node] = Math.min(low[node], index[target]);
+          }
+          continue;
+        }
+
+        depth--;
+        if (low[node] == index[node]) {
+          int member;
+          do {
+            member = stack[--stackSize];
+            onStack[member] = false;
+            component[member] = componentCount;
+          } while (member != node);
+          componentCount++;
+        }
+        if (depth > 0) {
+          int parent = path[depth - 1];
+          low[parent] = Math.min(low[parent], low[node]);
+        }
+      }
+    }
+
+    return componentCount;
+  }
+}
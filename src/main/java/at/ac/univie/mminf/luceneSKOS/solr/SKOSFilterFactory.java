@@ -21,12 +21,22 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.util.ResourceLoader;
 import org.apache.lucene.analysis.util.ResourceLoaderAware;
 import org.apache.lucene.analysis.util.TokenFilterFactory;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrResourceLoader;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.update.processor.UpdateRequestProcessor;
+import org.apache.solr.update.processor.UpdateRequestProcessorFactory;
+import org.apache.solr.util.plugin.SolrCoreAware;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import at.ac.univie.mminf.luceneSKOS.analysis.SKOSAnalyzer.ExpansionType;
 import at.ac.univie.mminf.luceneSKOS.analysis.SKOSLabelFilter;
@@ -34,16 +44,31 @@ import at.ac.univie.mminf.luceneSKOS.analysis.SKOSURIFilter;
 import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory.EngineType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineRegistry;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine.EvictionPolicy;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.Storage;
 
 /**
  * A factory for plugging SKOS filters into Apache Solr
+ * 
+ * All field types and cores using the same skos file, languages and engine
+ * options share one engine, see {@link SKOSEngineRegistry}. A factory
+ * releases its reference when its core is closed. If the schema is shared by
+ * several cores, it outlives the core, and the reference is released once the
+ * factory has been garbage collected along with the schema.
  */
 public class SKOSFilterFactory extends TokenFilterFactory implements
     ResourceLoaderAware {
   
+  private static final Logger log = LoggerFactory
+      .getLogger(SKOSFilterFactory.class);
+  
   protected SKOSFilterFactory(Map<String, String> args) {
 		super(args);
 		assureMatchVersion();
+		analyzer = new StandardAnalyzer(luceneMatchVersion);
 	}
 
 private ExpansionType expansionType;
@@ -54,6 +79,12 @@ private ExpansionType expansionType;
   
   private SKOSEngine skosEngine;
   
+  /**
+   * Analyzes the expansion terms of all streams of this factory; analyzers
+   * reuse their components per thread, so it is safe to share
+   */
+  private final Analyzer analyzer;
+  
   @Override
   public void inform(ResourceLoader loader) {
     SolrResourceLoader solrLoader = (SolrResourceLoader) loader;
@@ -70,27 +101,83 @@ private ExpansionType expansionType;
     
     String typeString = args.get("type");
     
-    System.out.println("Passed argument: " + skosFile + " Type: "
-        + expansionTypeString + " bufferSize: "
-        + (bufferSizeString != null ? bufferSizeString : "Default")
-        + " language: " + (languageString != null ? languageString : "All")
-        + " type: " + (typeString != null ? typeString : "Default"));
+    String engineString = args.get("engine");
+    
+    String cacheSizeString = args.get("cacheSize");
+    
+    String cachePolicyString = args.get("cachePolicy");
+    
+    String cacheMissesString = args.get("cacheMisses");
+    
+    String storageString = args.get("storage");
+    
+    log.debug("SKOS filter arguments: {}", args);
     
     if (skosFile == null || expansionTypeString == null) {
       throw new IllegalArgumentException(
           "Mandatory parameters 'skosFile=FILENAME' or 'expansionType=[URI|LABEL]' missing");
     }
     
+    EngineType engineType = SKOSEngineFactory.DEFAULT_ENGINE_TYPE;
+    if (engineString != null) {
+      try {
+        engineType = EngineType.valueOf(engineString.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            "The property 'engine' must be either INDEX, DOCVALUES or GRAPH");
+      }
+    }
+    
+    int cacheSize = 0;
+    EvictionPolicy policy = null;
+    if (cacheSizeString != null) {
+      cacheSize = Integer.parseInt(cacheSizeString);
+      if (cacheSize < 1) {
+        throw new IllegalArgumentException(
+            "The property 'cacheSize' must be a positive integer");
+      }
+      policy = CachingSKOSEngine.DEFAULT_EVICTION_POLICY;
+      if (cachePolicyString != null) {
+        try {
+          policy = EvictionPolicy.valueOf(cachePolicyString.toUpperCase());
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException(
+              "The property 'cachePolicy' must be either LRU or LFU");
+        }
+      }
+    }
+    
+    Storage storage = Storage.HEAP;
+    if (storageString != null) {
+      try {
+        storage = Storage.valueOf(storageString.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            "The property 'storage' must be either HEAP or OFF_HEAP");
+      }
+    }
+    
     try {
-      if (skosFile.endsWith(".n3") || skosFile.endsWith(".rdf")
-          || skosFile.endsWith(".ttl") || skosFile.endsWith(".zip")) {
-        skosEngine = SKOSEngineFactory.getSKOSEngine(luceneMatchVersion,
-            solrLoader.getConfigDir() + skosFile,
-            languageString != null ? languageString.split(" ") : null);
-      } else {
-        throw new IOException(
-            "Allowed file suffixes are: .n3 (N3), .rdf (RDF/XML), .ttl (TURTLE) and .zip (ZIP)");
+      // several files are merged into one engine, the first one has the
+      // highest priority
+      String[] skosFiles = skosFile.trim().split("\\s+");
+      for (int i = 0; i < skosFiles.length; i++) {
+        String file = skosFiles[i];
+        if (!(file.endsWith(".n3") || file.endsWith(".rdf")
+            || file.endsWith(".ttl") || file.endsWith(".zip")
+            || file.endsWith(".skosgraph") && skosFiles.length == 1)) {
+          throw new IOException(
+              "Allowed file suffixes are: .n3 (N3), .rdf (RDF/XML), .ttl (TURTLE), .zip (ZIP) and .skosgraph (graph snapshot, single file only)");
+        }
+        skosFiles[i] = solrLoader.getConfigDir() + file;
       }
+      SKOSEngineRegistry.Key key = new SKOSEngineRegistry.Key(
+          luceneMatchVersion, engineType, skosFiles,
+          languageString != null ? languageString.split(" ") : null,
+          cacheSize, policy, Boolean.parseBoolean(cacheMissesString), storage);
+      skosEngine = SKOSEngineRegistry.getInstance().acquire(key, this);
+      solrLoader.newInstance(CoreCloseListener.class.getName(),
+          CoreCloseListener.class).factory = this;
       
     } catch (IOException e) {
       throw new RuntimeException("Could not instantiate SKOS engine", e);
@@ -126,17 +213,65 @@ private ExpansionType expansionType;
     }
   }
   
+  /** Hands back the engine once the core of this factory is closed */
+  private void release() {
+    try {
+      SKOSEngineRegistry.getInstance().release(skosEngine, this);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not close SKOS engine", e);
+    }
+  }
+  
   @Override
   public TokenStream create(TokenStream input) {
     
     if (expansionType.equals(ExpansionType.LABEL)) {
-      return new SKOSLabelFilter(input, skosEngine, new StandardAnalyzer(
-          luceneMatchVersion), bufferSize, type);
+      return new SKOSLabelFilter(input, skosEngine, analyzer, bufferSize,
+          type);
       
     } else {
-      return new SKOSURIFilter(input, skosEngine, new StandardAnalyzer(
-          luceneMatchVersion), type);
+      return new SKOSURIFilter(input, skosEngine, analyzer, type);
     }
     
   }
+  
+  /**
+   * Releases the engine of a factory when its core is closed. Solr does not
+   * let filter factories be SolrCoreAware, so a factory has the resource
+   * loader of its core create this listener, which the loader informs once
+   * the core is initialized. Only some plugin types may be SolrCoreAware,
+   * hence the (otherwise unused) update processor factory.
+   */
+  public static final class CoreCloseListener extends
+      UpdateRequestProcessorFactory implements SolrCoreAware {
+    
+    private SKOSFilterFactory factory;
+    
+    @Override
+    public void inform(SolrCore core) {
+      core.addCloseHook(new CloseHook() {
+        @Override
+        public void preClose(SolrCore core) {}
+        
+        @Override
+        public void postClose(SolrCore core) {
+          for (SolrCore other : core.getCoreDescriptor().getCoreContainer()
+              .getCores()) {
+            if (other != core
+                && other.getLatestSchema() == core.getLatestSchema()) {
+              // the schema is shared with another core
+              return;
+            }
+          }
+          factory.release();
+        }
+      });
+    }
+    
+    @Override
+    public UpdateRequestProcessor getInstance(SolrQueryRequest req,
+        SolrQueryResponse rsp, UpdateRequestProcessor next) {
+      return next;
+    }
+  }
 }
@@ -0,0 +1,55 @@
+package at.ac.univie.mminf.luceneSKOS.analysis;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.Version;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Testing the cache of analyzed expansion terms
+ */
+public class AnalyzedTermCacheTest {
+
+  @Test
+  public void testCache() throws IOException {
+    Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_48);
+    AnalyzedTermCache cache = AnalyzedTermCache.forAnalyzer(analyzer);
+    Assert.assertSame(cache, AnalyzedTermCache.forAnalyzer(analyzer));
+    Assert.assertNotSame(cache, AnalyzedTermCache.forAnalyzer(
+        new StandardAnalyzer(Version.LUCENE_48)));
+
+    CharsRef buffer = new CharsRef();
+    Assert.assertEquals("military equipment", cache.analyze(analyzer,
+        "Military Equipment", buffer));
+    // stop words are eliminated
+    Assert.assertNull(cache.analyze(analyzer, "the", buffer));
+    Assert.assertEquals(2, cache.size());
+
+    // answered from the cache
+    String analyzed = cache.analyze(analyzer, "Military Equipment", buffer);
+    Assert.assertSame(analyzed, cache.analyze(analyzer, "Military Equipment",
+        buffer));
+    Assert.assertNull(cache.analyze(analyzer, "the", buffer));
+    Assert.assertEquals(2, cache.size());
+  }
+}
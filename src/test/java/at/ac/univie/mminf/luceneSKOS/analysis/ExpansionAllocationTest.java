@@ -0,0 +1,151 @@
+package at.ac.univie.mminf.luceneSKOS.analysis;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine.EvictionPolicy;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSGraphEngineImpl;
+import at.ac.univie.mminf.luceneSKOS.util.TestUtil;
+
+/**
+ * Checks that emitting expanded terms does not allocate in steady state,
+ * using the allocated bytes counter of the current thread
+ */
+public class ExpansionAllocationTest {
+
+  private static final int ROUNDS = 2000;
+
+  /*
+   * the tokenizer and the label the filter looks up allocate, shared by the
+   * eight terms a token expands to; emitting a term allocated more than 100
+   * bytes before
+   */
+  private static final long BYTES_PER_EXPANDED_TOKEN = 24;
+
+  private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+  private static com.sun.management.ThreadMXBean threads() {
+    Object threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads)
+            .isThreadAllocatedMemorySupported()) {
+      ((com.sun.management.ThreadMXBean) threads)
+          .setThreadAllocatedMemoryEnabled(true);
+      return (com.sun.management.ThreadMXBean) threads;
+    }
+    return null;
+  }
+
+  private static long allocatedBytes() {
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  @Test
+  public void testLabelExpansion() throws IOException {
+    Assume.assumeNotNull(THREADS);
+
+    StringBuilder n3 = new StringBuilder();
+    n3.append("@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n");
+    n3.append("@prefix ex: <http://www.example.com/> .\n");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      n3.append("ex:c").append(i).append(" a skos:Concept ;\n");
+      n3.append("  skos:prefLabel \"concept").append(i).append("\"@en ;\n");
+      n3.append("  skos:altLabel \"alias").append(i).append("\"@en ,");
+      n3.append(" \"synonym").append(i).append("\"@en ,");
+      n3.append(" \"variant").append(i).append("\"@en ;\n");
+      n3.append("  skos:broader ex:c").append(i / 10).append(" .\n");
+      text.append("the concept").append(i).append(" is ");
+    }
+    // the cached expansions are not decoded again, so that only the filter
+    // is measured
+    SKOSEngine engine = SKOSEngineFactory.getCachingSKOSEngine(
+        new SKOSGraphEngineImpl(TestUtil.vocabulary(n3), "N3"), 1000,
+        EvictionPolicy.LRU, true);
+
+    Tokenizer tokenizer = new WhitespaceTokenizer(Version.LUCENE_48,
+        new StringReader(""));
+    SKOSLabelFilter filter = new SKOSLabelFilter(tokenizer, engine,
+        new StandardAnalyzer(Version.LUCENE_48),
+        SKOSLabelFilter.DEFAULT_BUFFER_SIZE, SKOSType.PREF, SKOSType.ALT,
+        SKOSType.BROADER);
+    PositionIncrementAttribute posIncrAtt = filter
+        .addAttribute(PositionIncrementAttribute.class);
+    PayloadAttribute payloadAtt = filter.addAttribute(PayloadAttribute.class);
+
+    String document = text.toString();
+    // warm up
+    expand(tokenizer, filter, posIncrAtt, document, ROUNDS);
+
+    long before = allocatedBytes();
+    long expanded = expand(tokenizer, filter, posIncrAtt, document, ROUNDS);
+    long allocated = allocatedBytes() - before;
+
+    // the pref and three alt labels of each concept and of its broader one
+    Assert.assertEquals(ROUNDS * 100 * 8, expanded);
+    Assert.assertTrue("allocated " + allocated + " bytes",
+        allocated < expanded * BYTES_PER_EXPANDED_TOKEN);
+
+    // the payload is the encoded type of the expanded term
+    tokenizer.setReader(new StringReader("concept1"));
+    filter.reset();
+    Assert.assertTrue(filter.incrementToken());
+    Assert.assertTrue(filter.incrementToken());
+    BytesRef payload = payloadAtt.getPayload();
+    Assert.assertEquals(SKOSType.BROADER.ordinal(), PayloadHelper.decodeInt(
+        payload.bytes, payload.offset));
+    filter.end();
+    filter.close();
+  }
+
+  /** Runs the filter over the text and returns the number of expanded terms */
+  private static long expand(Tokenizer tokenizer, SKOSLabelFilter filter,
+      PositionIncrementAttribute posIncrAtt, String text, int rounds)
+      throws IOException {
+    long expanded = 0;
+    for (int i = 0; i < rounds; i++) {
+      tokenizer.setReader(new StringReader(text));
+      filter.reset();
+      while (filter.incrementToken()) {
+        if (posIncrAtt.getPositionIncrement() == 0) {
+          expanded++;
+        }
+      }
+      filter.end();
+      filter.close();
+    }
+    return expanded;
+  }
+}
@@ -0,0 +1,131 @@
+package at.ac.univie.mminf.luceneSKOS.analysis;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.util.Version;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.SKOSAnalyzer.ExpansionType;
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSGraphEngineImpl;
+import at.ac.univie.mminf.luceneSKOS.util.TestUtil;
+
+/**
+ * Measures the bytes allocated per document when indexing short documents,
+ * the way Solr and an IndexWriter drive the filters: a label filter with an
+ * analyzer of its own for every document, as the Solr factory used to create
+ * it, a label filter sharing one analyzer, and the reused components of a
+ * SKOSAnalyzer. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=at.ac.univie.mminf.luceneSKOS.analysis.SKOSAnalyzerBenchmark
+ * </pre>
+ */
+public class SKOSAnalyzerBenchmark {
+
+  private static final int DOCUMENTS = 5000;
+
+  private static final int WORDS_PER_DOCUMENT = 40;
+
+  private static final int ROUNDS = 10;
+
+  private static final SKOSType[] TYPES = {SKOSType.PREF, SKOSType.ALT};
+
+  private enum Mode {
+    ANALYZER_PER_DOCUMENT, SHARED_ANALYZER, SKOS_ANALYZER
+  }
+
+  public static void main(String[] args) throws IOException {
+    Random random = new Random(42);
+    SKOSEngine engine = new SKOSGraphEngineImpl(TestUtil
+        .vocabulary(SKOSLabelFilterBenchmark.vocabulary(random)), "N3");
+    String[] documents = new String[DOCUMENTS];
+    for (int i = 0; i < DOCUMENTS; i++) {
+      documents[i] = SKOSLabelFilterBenchmark.phrase(random,
+          WORDS_PER_DOCUMENT);
+    }
+
+    Analyzer shared = new StandardAnalyzer(Version.LUCENE_48);
+    SKOSAnalyzer skosAnalyzer = new SKOSAnalyzer(Version.LUCENE_48, engine,
+        ExpansionType.LABEL);
+    skosAnalyzer.setTypes(TYPES);
+
+    for (Mode mode : Mode.values()) {
+      // warm up
+      for (int i = 0; i < ROUNDS; i++) {
+        run(mode, documents, engine, shared, skosAnalyzer);
+      }
+
+      long bytes = SKOSLabelFilterBenchmark.allocatedBytes();
+      long start = System.nanoTime();
+      long tokens = 0;
+      for (int i = 0; i < ROUNDS; i++) {
+        tokens += run(mode, documents, engine, shared, skosAnalyzer);
+      }
+      long nanos = System.nanoTime() - start;
+      bytes = SKOSLabelFilterBenchmark.allocatedBytes() - bytes;
+
+      System.out.println(mode + ": "
+          + (ROUNDS * DOCUMENTS * 1000000000L / nanos) + " documents/s, "
+          + tokens / (ROUNDS * DOCUMENTS) + " output tokens/document, "
+          + (bytes < 0 ? "n/a" : String.valueOf(bytes / (ROUNDS * DOCUMENTS)))
+          + " bytes/document");
+    }
+    skosAnalyzer.close();
+    shared.close();
+  }
+
+  /** Analyzes every document and returns the number of output tokens */
+  private static int run(Mode mode, String[] documents, SKOSEngine engine,
+      Analyzer shared, Analyzer skosAnalyzer) throws IOException {
+    int tokens = 0;
+    for (String document : documents) {
+      TokenStream stream;
+      switch (mode) {
+        case ANALYZER_PER_DOCUMENT:
+          stream = new SKOSLabelFilter(new WhitespaceTokenizer(
+              Version.LUCENE_48, new StringReader(document)), engine,
+              new StandardAnalyzer(Version.LUCENE_48),
+              SKOSLabelFilter.DEFAULT_BUFFER_SIZE, TYPES);
+          break;
+        case SHARED_ANALYZER:
+          stream = new SKOSLabelFilter(new WhitespaceTokenizer(
+              Version.LUCENE_48, new StringReader(document)), engine, shared,
+              SKOSLabelFilter.DEFAULT_BUFFER_SIZE, TYPES);
+          break;
+        default:
+          stream = skosAnalyzer.tokenStream("content", document);
+      }
+      stream.reset();
+      while (stream.incrementToken()) {
+        tokens++;
+      }
+      stream.end();
+      stream.close();
+    }
+    return tokens;
+  }
+}
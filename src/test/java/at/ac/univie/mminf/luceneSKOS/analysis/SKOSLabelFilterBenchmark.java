@@ -0,0 +1,151 @@
+package at.ac.univie.mminf.luceneSKOS.analysis;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.util.Version;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSGraphEngineImpl;
+import at.ac.univie.mminf.luceneSKOS.util.TestUtil;
+
+/**
+ * Measures the throughput of the label filter at bufferSize 1, 4 and 8 over a
+ * vocabulary with labels of up to eight words, and the bytes it allocates per
+ * input token. Run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=at.ac.univie.mminf.luceneSKOS.analysis.SKOSLabelFilterBenchmark
+ * </pre>
+ */
+public class SKOSLabelFilterBenchmark {
+
+  private static final int CONCEPTS = 10000;
+
+  private static final int TOKENS = 20000;
+
+  private static final int ROUNDS = 20;
+
+  private static final String[] SYLLABLES = {"ri", "ver", "val", "ley",
+      "sto", "ne", "bri", "dge", "ro", "man", "i", "ron", "a", "ge", "fort",
+      "nor", "th", "to", "wer", "mill"};
+
+  /* 400 words shared by the labels and the text */
+  private static final String[] WORDS = new String[SYLLABLES.length
+      * SYLLABLES.length];
+  static {
+    for (int i = 0; i < WORDS.length; i++) {
+      WORDS[i] = SYLLABLES[i / SYLLABLES.length]
+          + SYLLABLES[i % SYLLABLES.length];
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Random random = new Random(42);
+    SKOSEngine engine = new SKOSGraphEngineImpl(TestUtil
+        .vocabulary(vocabulary(random)), "N3");
+    Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_48);
+    String text = text(random);
+
+    for (int bufferSize : new int[] {1, 4, 8}) {
+      // warm up
+      for (int i = 0; i < ROUNDS; i++) {
+        run(text, engine, analyzer, bufferSize);
+      }
+
+      long bytes = allocatedBytes();
+      long start = System.nanoTime();
+      long tokens = 0;
+      for (int i = 0; i < ROUNDS; i++) {
+        tokens += run(text, engine, analyzer, bufferSize);
+      }
+      long nanos = System.nanoTime() - start;
+      bytes = allocatedBytes() - bytes;
+
+      System.out.println("bufferSize " + bufferSize + ": "
+          + (ROUNDS * TOKENS * 1000000000L / nanos) + " input tokens/s, "
+          + tokens / ROUNDS + " output tokens, "
+          + (bytes < 0 ? "n/a" : String.valueOf(bytes / (ROUNDS * TOKENS)))
+          + " bytes/input token");
+    }
+  }
+
+  /** Runs the filter over the text and returns the number of output tokens */
+  private static int run(String text, SKOSEngine engine, Analyzer analyzer,
+      int bufferSize) throws IOException {
+    TokenStream stream = new SKOSLabelFilter(new WhitespaceTokenizer(
+        Version.LUCENE_48, new StringReader(text)), engine, analyzer,
+        bufferSize, SKOSType.PREF, SKOSType.ALT);
+    int tokens = 0;
+    stream.reset();
+    while (stream.incrementToken()) {
+      tokens++;
+    }
+    stream.end();
+    stream.close();
+    return tokens;
+  }
+
+  /** Concepts with a pref label of one to eight words and an alt label */
+  static String vocabulary(Random random) {
+    StringBuilder n3 = new StringBuilder();
+    n3.append("@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n");
+    n3.append("@prefix ex: <http://www.example.com/> .\n");
+    for (int i = 0; i < CONCEPTS; i++) {
+      n3.append("ex:c").append(i).append(" a skos:Concept ;\n");
+      n3.append("  skos:prefLabel \"").append(phrase(random, 1 + i % 8))
+          .append("\"@en ;\n");
+      n3.append("  skos:altLabel \"term").append(i).append("\"@en .\n");
+    }
+    return n3.toString();
+  }
+
+  /** Text made of random words, which often start a label */
+  private static String text(Random random) {
+    return phrase(random, TOKENS);
+  }
+
+  static String phrase(Random random, int words) {
+    StringBuilder phrase = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        phrase.append(' ');
+      }
+      phrase.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return phrase.toString();
+  }
+
+  static long allocatedBytes() {
+    Object threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
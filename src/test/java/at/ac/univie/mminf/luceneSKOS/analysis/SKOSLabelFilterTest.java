@@ -17,8 +17,21 @@ package at.ac.univie.mminf.luceneSKOS.analysis;
  */
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
+import org.apache.lucene.analysis.CachingTokenFilter;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.core.SimpleAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -34,11 +47,14 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import at.ac.univie.mminf.luceneSKOS.analysis.SKOSAnalyzer.ExpansionType;
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute;
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
 import at.ac.univie.mminf.luceneSKOS.util.AnalyzerUtils;
 import at.ac.univie.mminf.luceneSKOS.util.TestUtil;
 
@@ -148,6 +164,173 @@ public class SKOSLabelFilterTest extends AbstractFilterTest {
     
   }
   
+  @Test
+  public void longestLabelMatch() throws IOException {
+    
+    // "lazy dog" is preferred over "lazy", however far the filter may look
+    TokenStream stream = new SKOSLabelFilter(new WhitespaceTokenizer(
+        matchVersion, new StringReader("the lazy dog barks")), skosEngine,
+        new SimpleAnalyzer(matchVersion), 8, SKOSType.PREF, SKOSType.ALT);
+    CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+    
+    List<String> terms = new ArrayList<String>();
+    stream.reset();
+    while (stream.incrementToken()) {
+      terms.add(termAtt.toString());
+    }
+    stream.end();
+    stream.close();
+    
+    Assert.assertEquals(Arrays.asList("the", "lazy", "odie", "lazy dog",
+        "dog", "pooch", "canine", "dog", "barks"), terms);
+    
+    // the lookahead wraps around its ring
+    stream = new SKOSLabelFilter(new WhitespaceTokenizer(matchVersion,
+        new StringReader("lazy dog lazy lazy dog dog lazy dog")), skosEngine,
+        new SimpleAnalyzer(matchVersion), 3, SKOSType.ALT);
+    termAtt = stream.addAttribute(CharTermAttribute.class);
+    
+    terms.clear();
+    stream.reset();
+    while (stream.incrementToken()) {
+      terms.add(termAtt.toString());
+    }
+    stream.end();
+    stream.close();
+    
+    Assert.assertEquals(Arrays.asList("lazy", "odie", "dog", "pooch",
+        "canine", "lazy", "sluggish", "apathic", "lazy", "odie", "dog",
+        "pooch", "canine", "dog", "pooch", "canine", "lazy", "odie", "dog",
+        "pooch", "canine"), terms);
+    
+  }
+  
+  @Test
+  public void labelPrefixAtEndOfInput() throws IOException {
+    
+    // "lazy" starts the label "lazy dog", the input ends before "dog"
+    List<String> terms = new ArrayList<String>();
+    for (String text : new String[] {"the lazy dog", "fox jumps lazy"}) {
+      SKOSLabelFilter filter = new SKOSLabelFilter(new WhitespaceTokenizer(
+          matchVersion, new StringReader(text)), skosEngine,
+          new SimpleAnalyzer(matchVersion), 2, SKOSType.ALT);
+      CharTermAttribute termAtt = filter.addAttribute(CharTermAttribute.class);
+      filter.reset();
+      while (filter.incrementToken()) {
+        terms.add(termAtt.toString());
+      }
+      filter.end();
+      filter.close();
+    }
+    
+    Assert.assertEquals(Arrays.asList("the", "lazy", "odie", "dog", "pooch",
+        "canine", "fox", "jumps", "hops", "leaps", "lazy", "sluggish",
+        "apathic"), terms);
+    
+  }
+  
+  @Test
+  public void payloadsOfBufferedTokens() throws IOException {
+    
+    SKOSLabelFilter filter = new SKOSLabelFilter(new WhitespaceTokenizer(
+        matchVersion, new StringReader("the quick fox jumps")), skosEngine,
+        new SimpleAnalyzer(matchVersion), 1, SKOSType.PREF, SKOSType.ALT);
+    // the cache captures the states of all tokens before they are read
+    TokenStream stream = new CachingTokenFilter(filter);
+    PositionIncrementAttribute posIncrAtt = stream
+        .addAttribute(PositionIncrementAttribute.class);
+    PayloadAttribute payloadAtt = stream.addAttribute(PayloadAttribute.class);
+    SKOSTypeAttribute skosAtt = stream.addAttribute(SKOSTypeAttribute.class);
+    
+    Set<SKOSType> types = EnumSet.noneOf(SKOSType.class);
+    filter.reset();
+    while (stream.incrementToken()) {
+      if (posIncrAtt.getPositionIncrement() == 0) {
+        BytesRef payload = payloadAtt.getPayload();
+        Assert.assertEquals(skosAtt.getSkosType().ordinal(), PayloadHelper
+            .decodeInt(payload.bytes, payload.offset));
+        types.add(skosAtt.getSkosType());
+      }
+    }
+    stream.end();
+    stream.close();
+    
+    Assert.assertEquals(EnumSet.of(SKOSType.PREF, SKOSType.ALT), types);
+    
+  }
+  
+  @Test
+  public void bufferSizeFromVocabulary() throws IOException {
+    
+    SKOSLabelFilter filter = new SKOSLabelFilter(new WhitespaceTokenizer(
+        matchVersion, new StringReader("the united nations")), skosEngine,
+        new SimpleAnalyzer(matchVersion), SKOSLabelFilter.DEFAULT_BUFFER_SIZE,
+        SKOSType.ALT);
+    CharTermAttribute termAtt = filter.addAttribute(CharTermAttribute.class);
+    
+    // "united nations" and "lazy dog" have two words
+    Assert.assertEquals(2, filter.getBufferSize());
+    
+    List<String> terms = new ArrayList<String>();
+    filter.reset();
+    while (filter.incrementToken()) {
+      terms.add(termAtt.toString());
+    }
+    filter.end();
+    filter.close();
+    
+    Assert.assertEquals(Arrays.asList("the", "united", "un", "nations"),
+        terms);
+    
+  }
+  
+  @Test
+  public void analyzerSharedByThreads() throws Exception {
+    
+    final String text = "The quick brown fox jumps over the lazy dog";
+    final List<String> expected = terms(skosAnalyzer.tokenStream("content",
+        text));
+    
+    // all threads expand through the same term analyzer
+    final List<Throwable> failures = new ArrayList<Throwable>();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 100; j++) {
+              Assert.assertEquals(expected, terms(skosAnalyzer.tokenStream(
+                  "content", text)));
+            }
+          } catch (Throwable t) {
+            synchronized (failures) {
+              failures.add(t);
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals("[]", failures.toString());
+    
+  }
+  
+  private static List<String> terms(TokenStream stream) throws IOException {
+    CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+    List<String> terms = new ArrayList<String>();
+    stream.reset();
+    while (stream.incrementToken()) {
+      terms.add(termAtt.toString());
+    }
+    stream.end();
+    stream.close();
+    return terms;
+  }
+  
   // @Test
   public void displayTokensWithLabelExpansion() throws IOException {
     
@@ -22,9 +22,13 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.LabelMatcher;
 import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
 
 /**
  * A mock that simulates the behavior of a SKOS engine for testing purposes
@@ -37,9 +41,10 @@ public class SKOSEngineMock implements SKOSEngine {
   private Map<String,Map<SKOSType,List<String>>> conceptMap = new HashMap<String,Map<SKOSType,List<String>>>();
   
   /**
-   * Stores the maximum number of terms contained in a prefLabel
+   * Stores the maximum number of terms contained in a pref-, alt- or
+   * hiddenLabel
    */
-  private int maxPrefLabelTerms = -1;
+  private int maxLabelTerms = 0;
   
   /**
    * Method for feeding mock with data
@@ -65,13 +70,13 @@ public class SKOSEngineMock implements SKOSEngine {
     for (String value : values) {
       entries.add(value.toLowerCase());
       
-      // check for longest prefLabel
-      if (type.equals(SKOSType.PREF)) {
+      // check for longest label
+      if (type.ordinal() <= SKOSType.HIDDEN.ordinal()) {
         
         int noTerms = countLabelTerms(value);
         
-        if (maxPrefLabelTerms < noTerms) {
-          maxPrefLabelTerms = noTerms;
+        if (maxLabelTerms < noTerms) {
+          maxLabelTerms = noTerms;
         }
         
       }
@@ -230,6 +235,32 @@ public class SKOSEngineMock implements SKOSEngine {
     return getLabels(conceptURI, SKOSType.RELATED);
   }
   
+  @Override
+  public void expandLabel(String label, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    for (String conceptURI : getConcepts(label)) {
+      expandConcept(conceptURI, types, expansion);
+    }
+  }
+  
+  @Override
+  public void expandConcept(String conceptURI, Set<SKOSType> types,
+      SKOSExpansion expansion) throws IOException {
+    if (!conceptMap.containsKey(conceptURI)) {
+      return;
+    }
+    for (SKOSType type : SKOSExpansion.EXPANSION_ORDER) {
+      if (!types.contains(type)) {
+        continue;
+      }
+      if (type.ordinal() <= SKOSType.HIDDEN.ordinal()) {
+        expansion.addAll(readConceptFieldValues(conceptURI, type), type);
+      } else {
+        expansion.addAll(getLabels(conceptURI, type), type);
+      }
+    }
+  }
+  
   /** Returns the values of a given field for a given concept */
   private String[] readConceptFieldValues(String conceptURI, SKOSType type)
       throws IOException {
@@ -241,4 +272,57 @@ public class SKOSEngineMock implements SKOSEngine {
     
     return new String[0];
   }
+  
+  /** Matches the pref, alt and hidden labels by their prefixes */
+  @Override
+  public LabelMatcher newLabelMatcher() {
+    final TreeSet<String> labels = new TreeSet<String>();
+    for (Map<SKOSType,List<String>> entryMap : conceptMap.values()) {
+      for (SKOSType type : new SKOSType[] {SKOSType.PREF, SKOSType.ALT,
+          SKOSType.HIDDEN}) {
+        if (entryMap.containsKey(type)) {
+          labels.addAll(entryMap.get(type));
+        }
+      }
+    }
+    
+    return new LabelMatcher() {
+      private final StringBuilder prefix = new StringBuilder();
+      
+      @Override
+      public void reset() {
+        prefix.setLength(0);
+      }
+      
+      @Override
+      public boolean append(char[] word, int offset, int length) {
+        if (prefix.length() > 0) {
+          prefix.append(' ');
+        }
+        prefix.append(new String(word, offset, length).toLowerCase());
+        String next = labels.ceiling(prefix.toString());
+        return next != null && next.startsWith(prefix.toString());
+      }
+      
+      @Override
+      public boolean isLabel() {
+        return labels.contains(prefix.toString());
+      }
+    };
+  }
+  
+  @Override
+  public int getMaxLabelWords() {
+    return maxLabelTerms;
+  }
+  
+  @Override
+  public SKOSEngine getLanguageView(String... languages) {
+    return this;
+  }
+  
+  @Override
+  public long ramBytesUsed() {
+    return 0;
+  }
 }
@@ -0,0 +1,196 @@
+package at.ac.univie.mminf.luceneSKOS.skos;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.mock.SKOSEngineMock;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine.EvictionPolicy;
+
+/**
+ * Tests caching the answers of a SKOS engine
+ */
+public class CachingSKOSEngineTest {
+  
+  private SKOSEngineMock getSKOSEngine() {
+    SKOSEngineMock skosEngine = new SKOSEngineMock();
+    skosEngine.addEntry("http://example.com/a", SKOSType.PREF, "weapon");
+    skosEngine.addEntry("http://example.com/a", SKOSType.ALT, "arms");
+    skosEngine.addEntry("http://example.com/b", SKOSType.PREF, "ammunition");
+    skosEngine.addEntry("http://example.com/c", SKOSType.PREF, "artillery");
+    return skosEngine;
+  }
+  
+  @Test
+  public void testHitsAndMisses() throws IOException {
+    
+    CachingSKOSEngine cache = new CachingSKOSEngine(getSKOSEngine());
+    
+    SKOSExpansion expansion = new SKOSExpansion();
+    
+    cache.expandLabel("Weapon", EnumSet.of(SKOSType.ALT), expansion);
+    cache.expandLabel("weapon", EnumSet.of(SKOSType.ALT), expansion);
+    
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(1, cache.getHitCount());
+    
+    Assert.assertEquals(2, expansion.size());
+    Assert.assertEquals("arms", expansion.getTerm(1));
+    
+    // other types are a different request
+    cache.expandLabel("weapon", EnumSet.of(SKOSType.PREF), expansion);
+    
+    Assert.assertEquals(2, cache.getMissCount());
+    
+    // callers cannot modify cached answers
+    cache.getPrefLabels("http://example.com/a")[0] = "modified";
+    
+    Assert.assertEquals("weapon", cache.getPrefLabels("http://example.com/a")[0]);
+    
+  }
+  
+  @Test
+  public void testNegativeCaching() throws IOException {
+    
+    CachingSKOSEngine cache = new CachingSKOSEngine(getSKOSEngine(), 10,
+        EvictionPolicy.LRU, false);
+    
+    cache.getConcepts("unknown");
+    cache.getConcepts("unknown");
+    
+    Assert.assertEquals(0, cache.getHitCount());
+    Assert.assertEquals(0, cache.size());
+    
+    cache = new CachingSKOSEngine(getSKOSEngine(), 10, EvictionPolicy.LRU,
+        true);
+    
+    cache.getConcepts("unknown");
+    cache.getConcepts("unknown");
+    
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(0, cache.getConcepts("unknown").length);
+    
+  }
+  
+  @Test
+  public void testLRUEviction() throws IOException {
+    
+    CachingSKOSEngine cache = new CachingSKOSEngine(getSKOSEngine(), 2,
+        EvictionPolicy.LRU, false);
+    
+    // a single segment holds both answers
+    cache.getConcepts("weapon");
+    cache.getConcepts("ammunition");
+    cache.getConcepts("weapon");
+    cache.getConcepts("artillery");
+    
+    Assert.assertEquals(2, cache.size());
+    
+    long misses = cache.getMissCount();
+    
+    cache.getConcepts("weapon");
+    
+    Assert.assertEquals(misses, cache.getMissCount());
+    
+    cache.getConcepts("ammunition");
+    
+    Assert.assertEquals(misses + 1, cache.getMissCount());
+    
+  }
+  
+  @Test
+  public void testLFUEviction() throws IOException {
+    
+    CachingSKOSEngine cache = new CachingSKOSEngine(getSKOSEngine(), 2,
+        EvictionPolicy.LFU, false);
+    
+    cache.getConcepts("weapon");
+    cache.getConcepts("weapon");
+    cache.getConcepts("ammunition");
+    cache.getConcepts("ammunition");
+    cache.getConcepts("ammunition");
+    
+    // evicts weapon, the less frequently used answer
+    cache.getConcepts("artillery");
+    
+    Assert.assertEquals(2, cache.size());
+    
+    long misses = cache.getMissCount();
+    
+    cache.getConcepts("ammunition");
+    
+    Assert.assertEquals(misses, cache.getMissCount());
+    
+    cache.getConcepts("weapon");
+    
+    Assert.assertEquals(misses + 1, cache.getMissCount());
+    
+  }
+  
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    
+    final CachingSKOSEngine cache = new CachingSKOSEngine(getSKOSEngine(), 2,
+        EvictionPolicy.LFU, true);
+    
+    final String[] labels = {"weapon", "arms", "ammunition", "artillery",
+        "unknown"};
+    
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int t = 0; t < 4; t++) {
+      results.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws IOException {
+          SKOSExpansion expansion = new SKOSExpansion();
+          for (int i = 0; i < 10000; i++) {
+            String label = labels[i % labels.length];
+            expansion.clear();
+            cache.expandLabel(label, EnumSet.of(SKOSType.PREF), expansion);
+            if (expansion.size() != (label.equals("unknown") ? 0 : 1)) {
+              return false;
+            }
+          }
+          return true;
+        }
+      }));
+    }
+    executor.shutdown();
+    
+    for (Future<Boolean> result : results) {
+      Assert.assertTrue(result.get());
+    }
+    
+    Assert.assertEquals(40000, cache.getHitCount() + cache.getMissCount());
+    
+    Assert.assertTrue(cache.size() <= 2);
+    
+  }
+}
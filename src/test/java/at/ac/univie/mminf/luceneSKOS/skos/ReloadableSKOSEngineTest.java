@@ -0,0 +1,116 @@
+package at.ac.univie.mminf.luceneSKOS.skos;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.apache.lucene.analysis.core.SimpleAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.SKOSLabelFilter;
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory.EngineType;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.ReloadableSKOSEngine;
+
+/**
+ * Tests replacing the vocabulary of a reloadable engine at runtime
+ */
+public class ReloadableSKOSEngineTest {
+  
+  private final Version matchVersion = Version.LUCENE_40;
+  
+  private static final String SKOS = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n"
+      + "<http://example.com/a> skos:prefLabel \"weapon\"@en ; skos:altLabel \"%s\"@en .\n";
+  
+  @Test
+  public void testReload() throws IOException, InterruptedException,
+      ExecutionException {
+    
+    File skosFile = File.createTempFile("reloadable", ".n3");
+    skosFile.deleteOnExit();
+    FileUtils.writeStringToFile(skosFile, String.format(SKOS, "arms"));
+    
+    try {
+      ReloadableSKOSEngine skosEngine = SKOSEngineFactory
+          .getReloadableSKOSEngine(matchVersion, EngineType.INDEX,
+              skosFile.getPath());
+      
+      Assert.assertEquals(1, skosEngine.getConcepts("arms").length);
+      
+      // a stream started before the reload keeps its vocabulary
+      TokenStream stream = new SKOSLabelFilter(new KeywordTokenizer(
+          new StringReader("weapon")), skosEngine, new SimpleAnalyzer(
+          matchVersion), 1, SKOSType.ALT);
+      CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+      stream.reset();
+      
+      FileUtils.writeStringToFile(skosFile, String.format(SKOS, "guns"));
+      skosEngine.reloadInBackground().get();
+      
+      Assert.assertEquals(0, skosEngine.getConcepts("arms").length);
+      Assert.assertEquals(1, skosEngine.getConcepts("guns").length);
+      
+      Assert.assertTrue(stream.incrementToken());
+      Assert.assertEquals("weapon", termAtt.toString());
+      Assert.assertTrue(stream.incrementToken());
+      Assert.assertEquals("arms", termAtt.toString());
+      Assert.assertFalse(stream.incrementToken());
+      stream.end();
+      stream.close();
+      
+      skosEngine.close();
+    } finally {
+      SKOSEngineTest.deleteCompiled(skosFile);
+    }
+  }
+  
+  @Test(expected = IllegalStateException.class)
+  public void testAcquireAfterClose() throws IOException {
+    
+    ReloadableSKOSEngine skosEngine = SKOSEngineFactory
+        .getReloadableSKOSEngine(matchVersion, EngineType.GRAPH,
+            "src/test/resources/skos_samples/ukat_examples.n3");
+    
+    skosEngine.close();
+    
+    skosEngine.acquire();
+  }
+  
+  @Test(expected = IllegalStateException.class)
+  public void testLookupAfterClose() throws IOException {
+    
+    ReloadableSKOSEngine skosEngine = SKOSEngineFactory
+        .getReloadableSKOSEngine(matchVersion, EngineType.GRAPH,
+            "src/test/resources/skos_samples/ukat_examples.n3");
+    
+    skosEngine.close();
+    
+    // lookups hold a reference to the engine as well
+    skosEngine.getConcepts("weapons");
+  }
+  
+}
@@ -0,0 +1,59 @@
+package at.ac.univie.mminf.luceneSKOS.skos;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory.EngineType;
+
+/**
+ * Runs the SKOS Engine tests against the doc values index layout
+ */
+public class SKOSDocValuesEngineTest extends SKOSEngineTest {
+  
+  @Override
+  protected SKOSEngine getSKOSEngine(String skosFile, String... languages)
+      throws IOException {
+    return SKOSEngineFactory.getSKOSEngine(matchVersion, EngineType.DOCVALUES,
+        skosFile, languages);
+  }
+  
+  @Test
+  public void testInputStream() throws IOException {
+    
+    InputStream in = new FileInputStream(
+        "src/test/resources/skos_samples/ukat_examples.n3");
+    
+    SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
+        EngineType.DOCVALUES, in, "N3");
+    
+    in.close();
+    
+    String conceptURI = "http://www.ukat.org.uk/thesaurus/concept/859";
+    
+    Assert.assertEquals(2, skosEngine.getAltLabels(conceptURI).length);
+    
+    Assert.assertEquals(3, skosEngine.getBroaderLabels(conceptURI).length);
+    
+  }
+}
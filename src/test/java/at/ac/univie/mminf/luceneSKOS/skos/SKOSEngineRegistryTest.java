@@ -0,0 +1,160 @@
+package at.ac.univie.mminf.luceneSKOS.skos;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory.EngineType;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.CachingSKOSEngine.EvictionPolicy;
+
+/**
+ * Tests sharing engines among the users of a vocabulary
+ */
+public class SKOSEngineRegistryTest {
+
+  private final Version matchVersion = Version.LUCENE_48;
+
+  private static final String SKOS_FILE = "src/test/resources/skos_samples/ukat_examples.n3";
+
+  @Test
+  public void testSharing() throws IOException {
+    SKOSEngineRegistry registry = new SKOSEngineRegistry();
+
+    SKOSEngineRegistry.Key key = new SKOSEngineRegistry.Key(matchVersion,
+        EngineType.INDEX, SKOS_FILE, (String[]) null);
+    // the same file through another path
+    SKOSEngineRegistry.Key sameKey = new SKOSEngineRegistry.Key(
+        matchVersion, EngineType.INDEX, "src/../" + SKOS_FILE, (String[]) null);
+    Assert.assertEquals(key, sameKey);
+    Assert.assertFalse(key.equals(new SKOSEngineRegistry.Key(matchVersion,
+        EngineType.INDEX, SKOS_FILE, "en")));
+
+    SKOSEngine engine = registry.acquire(key);
+    Assert.assertSame(engine, registry.acquire(sameKey));
+    Assert.assertEquals(2, registry.getRefCount(key));
+    Assert.assertEquals(1, engine.getConcepts("weapons").length);
+
+    // other options yield another engine
+    SKOSEngineRegistry.Key cachedKey = new SKOSEngineRegistry.Key(
+        matchVersion, EngineType.INDEX, SKOS_FILE, null, 100,
+        EvictionPolicy.LRU, false);
+    SKOSEngine cached = registry.acquire(cachedKey);
+    Assert.assertNotSame(engine, cached);
+    Assert.assertTrue(cached instanceof CachingSKOSEngine);
+    registry.release(cached);
+    Assert.assertEquals(0, registry.getRefCount(cachedKey));
+
+    registry.release(engine);
+    Assert.assertEquals(1, registry.getRefCount(key));
+    Assert.assertEquals(1, engine.getConcepts("weapons").length);
+
+    // the last release closes the engine, the next acquire loads a new one
+    registry.release(engine);
+    Assert.assertEquals(0, registry.getRefCount(key));
+    SKOSEngine reloaded = registry.acquire(key);
+    Assert.assertNotSame(engine, reloaded);
+    registry.release(reloaded);
+  }
+
+  @Test
+  public void testLanguageViews() throws IOException {
+    testLanguageViews(EngineType.INDEX);
+  }
+
+  @Test
+  public void testGraphLanguageViews() throws IOException {
+    testLanguageViews(EngineType.GRAPH);
+  }
+
+  private void testLanguageViews(EngineType type) throws IOException {
+    SKOSEngineRegistry registry = new SKOSEngineRegistry();
+    String skosFile = "src/test/resources/skos_samples/skos_spec_samples.n3";
+
+    SKOSEngineRegistry.Key all = new SKOSEngineRegistry.Key(matchVersion,
+        type, skosFile, (String[]) null);
+    SKOSEngineRegistry.Key english = new SKOSEngineRegistry.Key(matchVersion,
+        type, skosFile, "en");
+    SKOSEngineRegistry.Key french = new SKOSEngineRegistry.Key(matchVersion,
+        type, skosFile, new String[] {"fr"}, 100,
+        EvictionPolicy.LFU, true);
+
+    // both languages are views of the engine of all languages, each holding
+    // a reference to it
+    SKOSEngine englishEngine = registry.acquire(english);
+    SKOSEngine frenchEngine = registry.acquire(french);
+    Assert.assertEquals(2, registry.getRefCount(all));
+    Assert.assertTrue(frenchEngine instanceof CachingSKOSEngine);
+    Assert.assertEquals(1, englishEngine.getAltTerms("animals").length);
+    Assert.assertEquals(0, frenchEngine.getAltTerms("animals").length);
+    Assert.assertEquals(2, frenchEngine.getAltTerms("animaux").length);
+
+    SKOSEngine allEngine = registry.acquire(all);
+    Assert.assertEquals(3, allEngine.getAltTerms("animals").length);
+    Assert.assertEquals(3, registry.getRefCount(all));
+    registry.release(allEngine);
+
+    // the engine of all languages is closed along with the last view
+    registry.release(englishEngine);
+    Assert.assertEquals(1, registry.getRefCount(all));
+    Assert.assertEquals(2, frenchEngine.getAltTerms("animaux").length);
+    registry.release(frenchEngine);
+    Assert.assertEquals(0, registry.getRefCount(all));
+  }
+
+  @Test
+  public void testOwner() throws IOException, InterruptedException {
+    SKOSEngineRegistry registry = new SKOSEngineRegistry();
+
+    SKOSEngineRegistry.Key key = new SKOSEngineRegistry.Key(matchVersion,
+        EngineType.GRAPH, SKOS_FILE, (String[]) null);
+
+    Object owner = new Object();
+    SKOSEngine engine = registry.acquire(key, owner);
+    Assert.assertSame(engine, registry.acquire(key, new Object()));
+
+    // released explicitly
+    registry.release(engine, owner);
+    Assert.assertEquals(1, registry.getRefCount(key));
+
+    // released by the reaper once the other owner is collected
+    for (int i = 0; i < 100 && registry.getRefCount(key) > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(0, registry.getRefCount(key));
+  }
+
+  @Test
+  public void testLoadFailure() throws IOException {
+    SKOSEngineRegistry registry = new SKOSEngineRegistry();
+    SKOSEngineRegistry.Key key = new SKOSEngineRegistry.Key(matchVersion,
+        EngineType.GRAPH, "src/test/resources/missing.n3", (String[]) null);
+    try {
+      registry.acquire(key);
+      Assert.fail();
+    } catch (Exception e) {
+      // the file does not exist
+    }
+    Assert.assertEquals(0, registry.getRefCount(key));
+  }
+}
@@ -16,14 +16,21 @@ package at.ac.univie.mminf.luceneSKOS.skos;
  * limitations under the License.
  */
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 
 import junit.framework.Assert;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.lucene.util.Version;
 import org.junit.Test;
 
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+
 /**
  * Tests the functionality of the Lucene-backed SKOS Engine implementation
  */
@@ -31,13 +38,20 @@ public class SKOSEngineTest {
   
   protected final Version matchVersion = Version.LUCENE_40;
   
+  /**
+   * Sets up the engine under test
+   */
+  protected SKOSEngine getSKOSEngine(String skosFile, String... languages)
+      throws IOException {
+    return SKOSEngineFactory.getSKOSEngine(matchVersion, skosFile, languages);
+  }
+  
   @Test
   public void testSimpleSKOSSamplesRDFXML() throws IOException {
     
     String skosFile = "src/test/resources/skos_samples/simple_test_skos.rdf";
     
-    SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
-        skosFile);
+    SKOSEngine skosEngine = getSKOSEngine(skosFile);
     
     Assert.assertEquals(2, skosEngine.getAltTerms("quick").length);
     
@@ -50,8 +64,7 @@ public class SKOSEngineTest {
     
     String skosFile = "src/test/resources/skos_samples/simple_test_skos.rdf";
     
-    SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
-        skosFile);
+    SKOSEngine skosEngine = getSKOSEngine(skosFile);
     
     Assert.assertEquals(2, skosEngine.getAltTerms("quick").length);
     
@@ -67,8 +80,7 @@ public class SKOSEngineTest {
       
       String skosFile = "src/test/resources/skos_samples/simple_test_skos.n3";
 
-      SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
-          skosFile);
+      SKOSEngine skosEngine = getSKOSEngine(skosFile);
 
       Assert.assertEquals(2, skosEngine.getAltTerms("sheep").length);
 
@@ -81,8 +93,7 @@ public class SKOSEngineTest {
     
     String skosFile = "src/test/resources/skos_samples/skos_spec_samples.n3";
     
-    SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
-        skosFile);
+    SKOSEngine skosEngine = getSKOSEngine(skosFile);
     
     Assert.assertEquals(3, skosEngine.getAltTerms("animals").length);
     
@@ -96,8 +107,7 @@ public class SKOSEngineTest {
     
     String skosFile = "src/test/resources/skos_samples/skos_spec_samples.n3";
     
-    SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
-        skosFile, "en");
+    SKOSEngine skosEngine = getSKOSEngine(skosFile, "en");
     
     String[] altTerms = skosEngine.getAltTerms("animals");
     
@@ -107,6 +117,79 @@ public class SKOSEngineTest {
     
   }
   
+  @Test
+  public void testLabelMatcher() throws IOException {
+    
+    String skosFile = "src/test/resources/skos_samples/skos_spec_samples.n3";
+    
+    SKOSEngine skosEngine = getSKOSEngine(skosFile, "en");
+    
+    // "Food and Agriculture Organization"
+    Assert.assertEquals(4, skosEngine.getMaxLabelWords());
+    
+    LabelMatcher matcher = skosEngine.newLabelMatcher();
+    
+    String[] words = "Food and Agriculture Organization".split(" ");
+    for (int i = 0; i < words.length; i++) {
+      Assert.assertTrue(matcher.append(words[i].toCharArray(), 0, words[i]
+          .length()));
+      Assert.assertEquals(i == words.length - 1, matcher.isLabel());
+    }
+    
+    matcher.reset();
+    Assert.assertTrue(matcher.append("xFAOx".toCharArray(), 1, 3));
+    Assert.assertTrue(matcher.isLabel());
+    // no label continues with another word
+    Assert.assertFalse(matcher.append("chain".toCharArray(), 0, 5));
+    Assert.assertFalse(matcher.isLabel());
+    
+    // labels of other languages are not matched
+    matcher.reset();
+    matcher.append("animaux".toCharArray(), 0, 7);
+    Assert.assertFalse(matcher.isLabel());
+    
+  }
+  
+  @Test
+  public void testLanguageView() throws IOException {
+    
+    String skosFile = "src/test/resources/skos_samples/skos_spec_samples.n3";
+    
+    SKOSEngine skosEngine = getSKOSEngine(skosFile);
+    
+    SKOSEngine french = skosEngine.getLanguageView("fr");
+    
+    Assert.assertEquals(0, french.getConcepts("animals").length);
+    
+    Assert.assertEquals(1, french.getConcepts("animaux").length);
+    
+    Assert.assertEquals(2, french.getAltTerms("animaux").length);
+    
+    Assert.assertTrue(Arrays.equals(new String[] {"animaux"},
+        french.getPrefLabels("http://www.example.com/animals")));
+    
+    Assert.assertTrue(Arrays.equals(new String[] {"betes"},
+        french.getHiddenLabels("http://www.example.com/animals")));
+    
+    SKOSExpansion expansion = new SKOSExpansion();
+    french.expandLabel("animaux", EnumSet.of(SKOSType.PREF, SKOSType.NARROWER),
+        expansion);
+    Assert.assertEquals(1, expansion.size());
+    Assert.assertEquals("animaux", expansion.getTerm(0));
+    
+    // the French labels are single words
+    Assert.assertEquals(1, french.getMaxLabelWords());
+    Assert.assertEquals(4, skosEngine.getMaxLabelWords());
+    
+    // views are restricted to the languages of the engine they are taken of
+    Assert.assertEquals(0, french.getLanguageView("en", "fr").getConcepts(
+        "animals").length);
+    
+    // the engine itself is not restricted
+    Assert.assertEquals(3, skosEngine.getAltTerms("animals").length);
+    
+  }
+  
   @Test
   public void testUKATSamples() throws IOException {
     
@@ -114,8 +197,7 @@ public class SKOSEngineTest {
     
     String conceptURI = "http://www.ukat.org.uk/thesaurus/concept/859";
     
-    SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
-        skosFile);
+    SKOSEngine skosEngine = getSKOSEngine(skosFile);
     
     // testing pref-labels
     String[] prefLabel = skosEngine.getPrefLabels(conceptURI);
@@ -176,4 +258,186 @@ public class SKOSEngineTest {
     
   }
   
+  @Test
+  public void testExpansion() throws IOException {
+    
+    String skosFile = "src/test/resources/skos_samples/ukat_examples.n3";
+    
+    String conceptURI = "http://www.ukat.org.uk/thesaurus/concept/859";
+    
+    SKOSEngine skosEngine = getSKOSEngine(skosFile);
+    
+    SKOSExpansion expansion = new SKOSExpansion();
+    
+    skosEngine.expandLabel("Weapons", EnumSet.allOf(SKOSType.class), expansion);
+    
+    List<String> expected = new ArrayList<String>();
+    expected.addAll(Arrays.asList(skosEngine.getPrefLabels(conceptURI)));
+    expected.addAll(Arrays.asList(skosEngine.getAltLabels(conceptURI)));
+    expected.addAll(Arrays.asList(skosEngine.getHiddenLabels(conceptURI)));
+    expected.addAll(Arrays.asList(skosEngine.getBroaderLabels(conceptURI)));
+    expected.addAll(Arrays.asList(skosEngine
+        .getBroaderTransitiveLabels(conceptURI)));
+    expected.addAll(Arrays.asList(skosEngine.getNarrowerLabels(conceptURI)));
+    expected.addAll(Arrays.asList(skosEngine
+        .getNarrowerTransitiveLabels(conceptURI)));
+    expected.addAll(Arrays.asList(skosEngine.getRelatedLabels(conceptURI)));
+    
+    List<String> terms = new ArrayList<String>();
+    for (int i = 0; i < expansion.size(); i++) {
+      terms.add(expansion.getTerm(i));
+    }
+    
+    Assert.assertEquals(expected, terms);
+    
+    Assert.assertEquals(SKOSType.PREF, expansion.getType(0));
+    
+    // only the requested types, appended to the previous expansion
+    skosEngine.expandConcept(conceptURI, EnumSet.of(SKOSType.NARROWER),
+        expansion);
+    
+    Assert.assertEquals(expected.size() + 2, expansion.size());
+    
+    Assert.assertEquals(SKOSType.NARROWER, expansion.getType(expected.size()));
+    
+    // unknown concepts do not expand
+    expansion.clear();
+    
+    skosEngine.expandLabel("unknown", EnumSet.allOf(SKOSType.class), expansion);
+    
+    skosEngine.expandConcept("http://example.com/unknown",
+        EnumSet.allOf(SKOSType.class), expansion);
+    
+    Assert.assertTrue(expansion.isEmpty());
+    
+  }
+  
+  @Test
+  public void testInverseRelations() throws IOException {
+    
+    String skosFile = "src/test/resources/skos_samples/inverse_relations.n3";
+    
+    SKOSEngine skosEngine = getSKOSEngine(skosFile);
+    
+    // narrower is inferred from broader
+    String[] narrower = skosEngine
+        .getNarrowerConcepts("http://example.com/equipment");
+    
+    Assert.assertEquals(2, narrower.length);
+    
+    Assert.assertTrue(Arrays.asList(narrower).contains(
+        "http://example.com/weapons"));
+    
+    // relations stated in both directions are not duplicated
+    Assert.assertTrue(Arrays.asList(narrower).contains(
+        "http://example.com/tools"));
+    
+    Assert.assertEquals(1,
+        skosEngine.getBroaderConcepts("http://example.com/tools").length);
+    
+    // related is symmetric
+    String[] related = skosEngine
+        .getRelatedConcepts("http://example.com/ammunition");
+    
+    Assert.assertEquals(1, related.length);
+    
+    Assert.assertEquals("http://example.com/weapons", related[0]);
+    
+    Assert.assertEquals(2, skosEngine.getNarrowerLabels(
+        "http://example.com/equipment").length);
+    
+  }
+  
+  @Test
+  public void testTransitiveClosure() throws IOException {
+    
+    String skosFile = "src/test/resources/skos_samples/transitive_closure.n3";
+    
+    assertTransitiveClosure(getSKOSEngine(skosFile));
+    
+    // opened again, the engine reads what was saved along with the index
+    assertTransitiveClosure(getSKOSEngine(skosFile));
+    
+  }
+  
+  private void assertTransitiveClosure(SKOSEngine skosEngine)
+      throws IOException {
+    
+    String[] broader = skosEngine
+        .getBroaderTransitiveConcepts("http://example.com/d");
+    
+    Assert.assertEquals(5, broader.length);
+    
+    Assert.assertTrue(Arrays.asList(broader).containsAll(
+        Arrays.asList("http://example.com/a", "http://example.com/b",
+            "http://example.com/c", "http://example.com/e",
+            "http://example.com/external")));
+    
+    // the closure of a concept on a cycle does not contain the concept
+    broader = skosEngine.getBroaderTransitiveConcepts("http://example.com/a");
+    
+    Assert.assertEquals(2, broader.length);
+    
+    Assert.assertFalse(Arrays.asList(broader).contains("http://example.com/a"));
+    
+    String[] narrower = skosEngine
+        .getNarrowerTransitiveConcepts("http://example.com/c");
+    
+    Assert.assertEquals(4, narrower.length);
+    
+    Assert.assertFalse(Arrays.asList(narrower).contains("http://example.com/c"));
+    
+    // dangling concepts have no labels
+    Assert.assertEquals(4,
+        skosEngine.getBroaderTransitiveLabels("http://example.com/d").length);
+    
+  }
+  
+  @Test
+  public void testRebuildOnSourceChange() throws IOException {
+    
+    File skosFile = File.createTempFile("changing", ".n3");
+    skosFile.deleteOnExit();
+    
+    String skos = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n"
+        + "<http://example.com/a> skos:prefLabel \"%s\"@en .\n";
+    
+    FileUtils.writeStringToFile(skosFile, String.format(skos, "first"));
+    
+    try {
+      SKOSEngine skosEngine = getSKOSEngine(skosFile.getPath());
+      
+      Assert.assertEquals(1, skosEngine.getConcepts("first").length);
+      
+      FileUtils.writeStringToFile(skosFile, String.format(skos,
+          "second label"));
+      
+      skosEngine = getSKOSEngine(skosFile.getPath());
+      
+      Assert.assertEquals(0, skosEngine.getConcepts("first").length);
+      
+      Assert.assertEquals(1, skosEngine.getConcepts("second label").length);
+    } finally {
+      deleteCompiled(skosFile);
+    }
+    
+  }
+  
+  /**
+   * Removes the compiled versions of a temporary vocabulary, which are not
+   * used again
+   */
+  public static void deleteCompiled(File skosFile) {
+    File[] compiled = new File(System.getProperty("luceneSKOS.dataDir",
+        "skosdata")).listFiles();
+    if (compiled == null) {
+      return;
+    }
+    for (File dir : compiled) {
+      if (dir.getName().startsWith(skosFile.getName())) {
+        FileUtils.deleteQuietly(dir);
+      }
+    }
+  }
+  
 }
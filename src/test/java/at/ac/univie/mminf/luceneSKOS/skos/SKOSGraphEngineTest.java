@@ -0,0 +1,133 @@
+package at.ac.univie.mminf.luceneSKOS.skos;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngineFactory.EngineType;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.ConceptIndexBuilder;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSGraphEngineImpl;
+
+/**
+ * Runs the SKOS Engine tests against the in-memory graph implementation
+ */
+public class SKOSGraphEngineTest extends SKOSEngineTest {
+
+  @Override
+  protected SKOSEngine getSKOSEngine(String skosFile, String... languages)
+      throws IOException {
+    return SKOSEngineFactory.getSKOSEngine(matchVersion, EngineType.GRAPH,
+        skosFile, languages);
+  }
+
+  @Test
+  public void testInputStream() throws IOException {
+
+    InputStream in = new FileInputStream(
+        "src/test/resources/skos_samples/ukat_examples.n3");
+
+    SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
+        EngineType.GRAPH, in, "N3");
+
+    in.close();
+
+    String[] concepts = skosEngine.getConcepts("Arms");
+
+    Assert.assertEquals(1, concepts.length);
+
+    Assert.assertEquals("http://www.ukat.org.uk/thesaurus/concept/859",
+        concepts[0]);
+
+    // unknown concepts have no labels
+    Assert.assertNull(skosEngine.getPrefLabels("http://example.com/unknown"));
+
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+
+    InputStream in = new FileInputStream(
+        "src/test/resources/skos_samples/ukat_examples.n3");
+
+    SKOSGraphEngineImpl compiled = new SKOSGraphEngineImpl(in, "N3");
+
+    in.close();
+
+    File snapshot = File.createTempFile("ukat", ".skosgraph");
+    snapshot.deleteOnExit();
+
+    compiled.save(snapshot);
+
+    SKOSEngine skosEngine = SKOSEngineFactory.getSKOSEngine(matchVersion,
+        snapshot.getPath());
+
+    String conceptURI = skosEngine.getConcepts("weapons")[0];
+
+    Assert.assertEquals("http://www.ukat.org.uk/thesaurus/concept/859",
+        conceptURI);
+
+    Assert.assertTrue(Arrays.asList(skosEngine.getAltLabels(conceptURI))
+        .contains("arms"));
+
+    Assert.assertEquals(3, skosEngine.getBroaderLabels(conceptURI).length);
+
+    Assert.assertEquals(2, skosEngine.getNarrowerConcepts(conceptURI).length);
+
+    // every overload opens snapshots with the graph engine
+    Assert.assertTrue(SKOSEngineFactory.getSKOSEngine(matchVersion,
+        EngineType.INDEX, snapshot.getPath()) instanceof SKOSGraphEngineImpl);
+    Assert.assertTrue(SKOSEngineFactory.getSKOSEngine(matchVersion,
+        EngineType.DOCVALUES, snapshot.getPath(), new ConceptIndexBuilder())
+        instanceof SKOSGraphEngineImpl);
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testSnapshotVersionMismatch() throws IOException {
+
+    InputStream in = new FileInputStream(
+        "src/test/resources/skos_samples/ukat_examples.n3");
+
+    SKOSGraphEngineImpl compiled = new SKOSGraphEngineImpl(in, "N3");
+
+    in.close();
+
+    File snapshot = File.createTempFile("ukat", ".skosgraph");
+    snapshot.deleteOnExit();
+
+    compiled.save(snapshot);
+
+    // overwrite the format version
+    RandomAccessFile raf = new RandomAccessFile(snapshot, "rw");
+    raf.seek(4);
+    raf.writeInt(Integer.MAX_VALUE);
+    raf.close();
+
+    new SKOSGraphEngineImpl(snapshot);
+
+  }
+
+}
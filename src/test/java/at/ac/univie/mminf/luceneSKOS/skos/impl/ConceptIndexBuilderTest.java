@@ -0,0 +1,107 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSEngineImpl.IndexLayout;
+import at.ac.univie.mminf.luceneSKOS.util.TestUtil;
+
+/**
+ * Checks that an index built by several threads answers like one built by a
+ * single thread
+ */
+public class ConceptIndexBuilderTest {
+
+  private static final int CONCEPTS = 2500;
+
+  /** A vocabulary whose concepts each have a broader concept */
+  private static InputStream vocabulary() {
+    StringBuilder n3 = new StringBuilder();
+    n3.append("@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n");
+    n3.append("@prefix ex: <http://www.example.com/> .\n");
+    for (int i = 0; i < CONCEPTS; i++) {
+      n3.append("ex:c").append(i).append(" a skos:Concept ;\n");
+      n3.append("  skos:prefLabel \"concept ").append(i).append("\"@en ;\n");
+      n3.append("  skos:altLabel \"group ").append(i % 10).append("\"@en");
+      if (i > 0) {
+        n3.append(" ;\n  skos:broader ex:c").append(i / 10);
+      }
+      n3.append(" .\n");
+    }
+    return TestUtil.vocabulary(n3);
+  }
+
+  private static SKOSEngineImpl build(IndexLayout layout,
+      ConceptIndexBuilder builder) throws IOException {
+    return new SKOSEngineImpl(Version.LUCENE_48, vocabulary(), "N3",
+        layout, builder);
+  }
+
+  @Test
+  public void testParallelBuild() throws IOException {
+    for (IndexLayout layout : IndexLayout.values()) {
+      SKOSEngineImpl serial = build(layout, new ConceptIndexBuilder(1, 16));
+      SKOSEngineImpl parallel = build(layout, new ConceptIndexBuilder(4, 16,
+          100));
+
+      Assert.assertEquals(1, serial.getBuildReport().getThreadCount());
+      Assert.assertEquals(4, parallel.getBuildReport().getThreadCount());
+      Assert.assertEquals(CONCEPTS, parallel.getBuildReport()
+          .getConceptCount());
+
+      for (int i = 0; i < CONCEPTS; i += 37) {
+        String uri = "http://www.example.com/c" + i;
+        Assert.assertTrue(Arrays.equals(new String[] {uri},
+            parallel.getConcepts("concept " + i)));
+        Assert.assertEquals(set(serial.getBroaderTransitiveConcepts(uri)),
+            set(parallel.getBroaderTransitiveConcepts(uri)));
+        Assert.assertEquals(set(serial.getNarrowerConcepts(uri)),
+            set(parallel.getNarrowerConcepts(uri)));
+      }
+      Assert.assertEquals(set(serial.getConcepts("group 3")),
+          set(parallel.getConcepts("group 3")));
+
+      SKOSExpansion expected = new SKOSExpansion();
+      SKOSExpansion actual = new SKOSExpansion();
+      serial.expandLabel("concept 12", EnumSet.allOf(SKOSType.class),
+          expected);
+      parallel.expandLabel("concept 12", EnumSet.allOf(SKOSType.class),
+          actual);
+      Assert.assertEquals(expected.size(), actual.size());
+
+      serial.close();
+      parallel.close();
+    }
+  }
+
+  private static Set<String> set(String[] values) {
+    return new HashSet<String>(Arrays.asList(values));
+  }
+}
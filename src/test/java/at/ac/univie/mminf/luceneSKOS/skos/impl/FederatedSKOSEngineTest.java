@@ -0,0 +1,146 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.FederatedSKOSEngine.Vocabulary;
+import at.ac.univie.mminf.luceneSKOS.util.TestUtil;
+
+/**
+ * Testing the engine merging several vocabularies
+ */
+public class FederatedSKOSEngineTest {
+
+  private static final String PREFIXES = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n"
+      + "@prefix ex: <http://www.example.com/> .\n";
+
+  private static final String WEAPONS = PREFIXES
+      + "ex:weapons a skos:Concept ; skos:inScheme ex:ukat ;\n"
+      + "  skos:prefLabel \"weapons\"@en ; skos:altLabel \"arms\"@en ;\n"
+      + "  skos:narrower ex:spears .\n"
+      + "ex:spears a skos:Concept ; skos:inScheme ex:ukat ;\n"
+      + "  skos:prefLabel \"spears\"@en .\n";
+
+  private static final String LIMBS = PREFIXES
+      + "ex:arms a skos:Concept ; skos:inScheme ex:anatomy ;\n"
+      + "  skos:prefLabel \"arms\"@en ; skos:altLabel \"upper limbs\"@en ;\n"
+      + "  skos:broader ex:body .\n"
+      + "ex:body a skos:Concept ; skos:inScheme ex:anatomy ;\n"
+      + "  skos:prefLabel \"body\"@en .\n"
+      // also defined in the weapons vocabulary
+      + "ex:weapons a skos:Concept ; skos:inScheme ex:anatomy ;\n"
+      + "  skos:altLabel \"armament\"@en .\n";
+
+  private static Vocabulary vocabulary(String name, String n3, int priority,
+      SKOSType... types) {
+    return new Vocabulary(name, TestUtil.vocabulary(n3), "N3", priority,
+        types);
+  }
+
+  @Test
+  public void testPriorities() throws IOException {
+    List<Vocabulary> vocabularies = new ArrayList<Vocabulary>();
+    vocabularies.add(vocabulary("limbs", LIMBS, 1));
+    vocabularies.add(vocabulary("weapons", WEAPONS, 2));
+    FederatedSKOSEngine engine = new FederatedSKOSEngine(vocabularies);
+
+    Assert.assertEquals("weapons", engine.getVocabularies().get(0).getName());
+
+    // one lookup resolves the label in both vocabularies, by priority
+    Assert.assertTrue(Arrays.equals(new String[] {
+        "http://www.example.com/weapons", "http://www.example.com/arms"},
+        engine.getConcepts("Arms")));
+
+    // a concept defined twice belongs to the vocabulary of higher priority
+    // and has the labels and schemes of both
+    String weapons = "http://www.example.com/weapons";
+    Assert.assertEquals("weapons", engine.getVocabulary(weapons).getName());
+    Assert.assertEquals("limbs", engine.getVocabulary(
+        "http://www.example.com/body").getName());
+    Assert.assertTrue(Arrays.equals(new String[] {"arms", "armament"}, engine
+        .getAltLabels(weapons)));
+    Assert.assertTrue(Arrays.equals(new String[] {
+        "http://www.example.com/ukat", "http://www.example.com/anatomy"},
+        engine.getSchemes(weapons)));
+    Assert.assertNull(engine.getVocabulary("http://www.example.com/unknown"));
+    Assert.assertNull(engine.getSchemes("http://www.example.com/unknown"));
+  }
+
+  @Test
+  public void testLanguageView() throws IOException {
+    List<Vocabulary> vocabularies = new ArrayList<Vocabulary>();
+    vocabularies.add(vocabulary("weapons", WEAPONS, 1));
+    vocabularies.add(vocabulary("limbs", LIMBS
+        + "ex:arms skos:altLabel \"bras\"@fr .\n"
+        + "ex:body skos:prefLabel \"corps\"@fr .\n", 0, SKOSType.PREF,
+        SKOSType.ALT));
+    FederatedSKOSEngine engine = new FederatedSKOSEngine(vocabularies);
+
+    FederatedSKOSEngine french = (FederatedSKOSEngine) engine
+        .getLanguageView("fr");
+    Assert.assertEquals(0, french.getConcepts("arms").length);
+    Assert.assertEquals("limbs", french.getVocabulary(
+        french.getConcepts("bras")[0]).getName());
+    Assert.assertTrue(Arrays.equals(new String[] {"bras"}, french
+        .getAltLabels("http://www.example.com/arms")));
+
+    // the view keeps the type restrictions of the vocabularies
+    SKOSExpansion expansion = new SKOSExpansion();
+    french.expandLabel("bras", EnumSet.of(SKOSType.ALT, SKOSType.BROADER),
+        expansion);
+    Assert.assertEquals(1, expansion.size());
+    Assert.assertEquals("bras", expansion.getTerm(0));
+  }
+
+  @Test
+  public void testTypeRestrictions() throws IOException {
+    List<Vocabulary> vocabularies = new ArrayList<Vocabulary>();
+    vocabularies.add(vocabulary("weapons", WEAPONS, 1));
+    // anatomy only contributes synonyms
+    vocabularies.add(vocabulary("limbs", LIMBS, 0, SKOSType.PREF, SKOSType.ALT));
+    FederatedSKOSEngine engine = new FederatedSKOSEngine(vocabularies, "en");
+
+    // twice with equal sets of types, the second one is restricted from the
+    // remembered restriction
+    for (int i = 0; i < 2; i++) {
+      Set<SKOSType> types = EnumSet.of(SKOSType.ALT, SKOSType.BROADER,
+          SKOSType.NARROWER);
+      SKOSExpansion expansion = new SKOSExpansion();
+      engine.expandLabel("arms", types, expansion);
+
+      List<String> terms = new ArrayList<String>();
+      for (int j = 0; j < expansion.size(); j++) {
+        terms.add(expansion.getTerm(j) + "/" + expansion.getType(j));
+      }
+      // weapons first; no broader "body" from the anatomy vocabulary
+      Assert.assertEquals(Arrays.asList("arms/ALT", "armament/ALT",
+          "spears/NARROWER", "upper limbs/ALT"), terms);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the membership filter over the labels of a vocabulary
+ */
+public class LabelBloomFilterTest {
+  
+  @Test
+  public void testMembership() throws IOException {
+    
+    LabelBloomFilter.Builder builder = new LabelBloomFilter.Builder();
+    for (int i = 0; i < 10000; i++) {
+      builder.add("label " + i);
+    }
+    builder.add("weapons");
+    
+    LabelBloomFilter filter = builder.build();
+    
+    // the labels of the vocabulary are never rejected
+    for (int i = 0; i < 10000; i++) {
+      Assert.assertTrue(filter.mightContain("label " + i));
+    }
+    Assert.assertTrue(filter.mightContain("weapons"));
+    
+    // labels of other lengths are always rejected
+    Assert.assertFalse(filter.mightContain("label 1 2"));
+    Assert.assertFalse(filter.mightContain(""));
+    
+    int falsePositives = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (filter.mightContain("other " + i)) {
+        falsePositives++;
+      }
+    }
+    Assert.assertTrue(falsePositives < 300);
+    
+    // written and read back
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    filter.write(new DataOutputStream(bytes));
+    LabelBloomFilter read = LabelBloomFilter.read(ByteBuffer.wrap(bytes
+        .toByteArray()));
+    
+    for (int i = 0; i < 10000; i++) {
+      Assert.assertTrue(read.mightContain("label " + i));
+      Assert.assertEquals(filter.mightContain("other " + i),
+          read.mightContain("other " + i));
+    }
+    
+  }
+}
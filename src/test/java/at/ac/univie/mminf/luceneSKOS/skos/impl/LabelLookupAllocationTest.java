@@ -0,0 +1,138 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.EnumSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.Version;
+import org.junit.Assume;
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+
+/**
+ * Checks that label lookups do not allocate in steady state, using the
+ * allocated bytes counter of the current thread
+ */
+public class LabelLookupAllocationTest {
+
+  private static final int LOOKUPS = 100000;
+
+  /* the thread local of the lookup buffers allocates now and then */
+  private static final long BYTES_PER_LOOKUP = 2;
+
+  private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+  private static com.sun.management.ThreadMXBean threads() {
+    Object threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads)
+            .isThreadAllocatedMemorySupported()) {
+      ((com.sun.management.ThreadMXBean) threads)
+          .setThreadAllocatedMemoryEnabled(true);
+      return (com.sun.management.ThreadMXBean) threads;
+    }
+    return null;
+  }
+
+  private static long allocatedBytes() {
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  @Test
+  public void testDictionaryLookup() throws IOException {
+    Assume.assumeNotNull(THREADS);
+
+    LabelDictionary.Builder builder = new LabelDictionary.Builder();
+    String[] labels = new String[1000];
+    for (int i = 0; i < labels.length; i++) {
+      labels[i] = "label " + i;
+      builder.add(labels[i], i, SKOSType.PREF);
+      builder.add(labels[i], i + 1, SKOSType.ALT);
+    }
+    String[] others = new String[labels.length];
+    for (int i = 0; i < others.length; i++) {
+      others[i] = "other " + i;
+    }
+    LabelDictionary dictionary = builder.build();
+
+    int found = 0;
+    // warm up
+    for (int i = 0; i < LOOKUPS; i++) {
+      found += dictionary.concepts(labels[i % labels.length]).length;
+      found += dictionary.concepts(others[i % others.length]).length;
+    }
+
+    long before = allocatedBytes();
+    for (int i = 0; i < LOOKUPS; i++) {
+      found += dictionary.concepts(labels[i % labels.length]).length;
+      found += dictionary.concepts(others[i % others.length]).length;
+    }
+    long allocated = allocatedBytes() - before;
+
+    Assert.assertEquals(4 * LOOKUPS, found);
+    Assert.assertTrue("allocated " + allocated + " bytes",
+        allocated < 2 * LOOKUPS * BYTES_PER_LOOKUP);
+
+    IntsRef concepts = dictionary.concepts("label 7");
+    Assert.assertEquals(2, concepts.length);
+    Assert.assertEquals(7, concepts.ints[0]);
+    Assert.assertEquals(8, concepts.ints[1]);
+
+    dictionary.close();
+  }
+
+  @Test
+  public void testExpandUnknownLabels() throws IOException {
+    Assume.assumeNotNull(THREADS);
+
+    SKOSEngineImpl engine = new SKOSEngineImpl(Version.LUCENE_48,
+        "src/test/resources/skos_samples/ukat_examples.n3", "en");
+    Set<SKOSType> types = EnumSet.allOf(SKOSType.class);
+    SKOSExpansion expansion = new SKOSExpansion();
+
+    String[] tokens = new String[1000];
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = "token" + i;
+    }
+
+    // warm up
+    for (int i = 0; i < LOOKUPS; i++) {
+      engine.expandLabel(tokens[i % tokens.length], types, expansion);
+    }
+    Assert.assertTrue(expansion.isEmpty());
+
+    long before = allocatedBytes();
+    for (int i = 0; i < LOOKUPS; i++) {
+      engine.expandLabel(tokens[i % tokens.length], types, expansion);
+    }
+    long allocated = allocatedBytes() - before;
+
+    Assert.assertTrue(expansion.isEmpty());
+    Assert.assertTrue("allocated " + allocated + " bytes",
+        allocated < LOOKUPS * BYTES_PER_LOOKUP);
+
+    engine.close();
+  }
+}
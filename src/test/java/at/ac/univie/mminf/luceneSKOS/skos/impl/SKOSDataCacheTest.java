@@ -0,0 +1,101 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the generations of a vocabulary cache
+ */
+public class SKOSDataCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPreviousGenerationIsKept() throws IOException {
+    File source = folder.newFile("vocabulary.n3");
+    FileUtils.writeStringToFile(source, "first");
+    SKOSDataCache cache = new SKOSDataCache(folder.newFolder("cache"));
+
+    File first = build(cache, source);
+    File second = build(cache, source);
+    // engines may still read the first generation
+    Assert.assertTrue(first.isDirectory());
+    Assert.assertEquals(second, cache.getCurrent(SourceFingerprint.of(
+        source.getPath(), null, 1)));
+
+    // the first generation is removed once it is older than the previous one
+    File third = build(cache, source);
+    Assert.assertTrue(first.isDirectory());
+    File fourth = build(cache, source);
+    Assert.assertFalse(first.exists());
+    Assert.assertTrue(second.isDirectory());
+    Assert.assertTrue(third.isDirectory());
+    Assert.assertEquals(fourth, cache.getCurrent(SourceFingerprint.of(
+        source.getPath(), null, 1)));
+  }
+
+  @Test
+  public void testSourceChangedDuringBuild() throws IOException {
+    File source = folder.newFile("vocabulary.n3");
+    FileUtils.writeStringToFile(source, "first");
+    SKOSDataCache cache = new SKOSDataCache(folder.newFolder("cache"));
+
+    SourceFingerprint fingerprint = SourceFingerprint.of(source.getPath(),
+        null, 1);
+    File generation = cache.newGeneration();
+    FileUtils.writeStringToFile(source, "changed while building");
+
+    Assert.assertFalse(cache.publish(generation, fingerprint));
+    Assert.assertNull(cache.getCurrent(SourceFingerprint.of(source.getPath(),
+        null, 1)));
+  }
+
+  @Test
+  public void testSameNamedSourcesAreCachedSeparately() throws IOException {
+    File first = new File(folder.newFolder("first"), "vocabulary.n3");
+    File second = new File(folder.newFolder("second"), "vocabulary.n3");
+    FileUtils.writeStringToFile(first, "first");
+    FileUtils.writeStringToFile(second, "second");
+
+    File root = SKOSDataCache.forSource(first.getPath(), "").getRoot();
+    Assert.assertTrue(root.getName().startsWith("vocabulary.n3-"));
+    Assert.assertFalse(root.equals(SKOSDataCache.forSource(
+        second.getPath(), "").getRoot()));
+    // another path to the same file shares the directory
+    Assert.assertEquals(root, SKOSDataCache.forSource(
+        new File(first.getParentFile(), "../first/vocabulary.n3").getPath(),
+        "").getRoot());
+  }
+
+  private static File build(SKOSDataCache cache, File source)
+      throws IOException {
+    SourceFingerprint fingerprint = SourceFingerprint.of(source.getPath(),
+        null, 1);
+    File generation = cache.newGeneration();
+    Assert.assertTrue(cache.publish(generation, fingerprint));
+    return generation;
+  }
+}
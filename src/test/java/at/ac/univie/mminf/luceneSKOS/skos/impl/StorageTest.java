@@ -0,0 +1,139 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import junit.framework.Assert;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import at.ac.univie.mminf.luceneSKOS.analysis.tokenattributes.SKOSTypeAttribute.SKOSType;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSEngine;
+import at.ac.univie.mminf.luceneSKOS.skos.SKOSExpansion;
+import at.ac.univie.mminf.luceneSKOS.skos.impl.SKOSEngineImpl.IndexLayout;
+import at.ac.univie.mminf.luceneSKOS.util.TestUtil;
+
+/**
+ * Checks that engines keeping their tables off the heap answer like engines
+ * keeping them on the heap, and report less heap memory
+ */
+public class StorageTest {
+
+  private static final int CONCEPTS = 2000;
+
+  /** A vocabulary whose concepts each have a broader and a related concept */
+  private static InputStream vocabulary() {
+    StringBuilder n3 = new StringBuilder();
+    n3.append("@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n");
+    n3.append("@prefix ex: <http://www.example.com/> .\n");
+    for (int i = 0; i < CONCEPTS; i++) {
+      n3.append("ex:c").append(i).append(" a skos:Concept ;\n");
+      n3.append("  skos:prefLabel \"concept ").append(i).append("\"@en ;\n");
+      n3.append("  skos:altLabel \"group ").append(i % 10).append("\"@en ;\n");
+      n3.append("  skos:related ex:c").append((i + 1) % CONCEPTS);
+      if (i > 0) {
+        n3.append(" ;\n  skos:broader ex:c").append(i / 10);
+      }
+      n3.append(" .\n");
+    }
+    return TestUtil.vocabulary(n3);
+  }
+
+  @Test
+  public void testIndexEngine() throws IOException {
+    for (IndexLayout layout : IndexLayout.values()) {
+      SKOSEngineImpl heap = new SKOSEngineImpl(Version.LUCENE_48,
+          vocabulary(), "N3", layout, new ConceptIndexBuilder(1, 16),
+          Storage.HEAP);
+      SKOSEngineImpl offHeap = new SKOSEngineImpl(Version.LUCENE_48,
+          vocabulary(), "N3", layout, new ConceptIndexBuilder(1, 16),
+          Storage.OFF_HEAP);
+
+      assertSameAnswers(heap, offHeap);
+      Assert.assertTrue(offHeap.ramBytesUsed() < heap.ramBytesUsed());
+      // views share the tables of their engine
+      Assert.assertEquals(offHeap.ramBytesUsed(), offHeap.getLanguageView(
+          "en").ramBytesUsed());
+
+      heap.close();
+      offHeap.close();
+    }
+  }
+
+  @Test
+  public void testGraphEngine() throws IOException {
+    SKOSGraphEngineImpl heap = new SKOSGraphEngineImpl(vocabulary(),
+        "N3", Storage.HEAP);
+    SKOSGraphEngineImpl offHeap = new SKOSGraphEngineImpl(vocabulary(),
+        "N3", Storage.OFF_HEAP);
+
+    assertSameAnswers(heap, offHeap);
+    // only the label FST stays on the heap
+    Assert.assertTrue(2 * offHeap.ramBytesUsed() < heap.ramBytesUsed());
+  }
+
+  @Test
+  public void testStringPool() {
+    StringPool pool = new StringPool();
+    for (int i = 0; i < 100; i++) {
+      pool.add(new BytesRef("http://www.example.com/concept/" + i), true);
+    }
+    pool.trim(Storage.OFF_HEAP);
+
+    String uri = "http://www.example.com/concept/42";
+    int id = pool.find(uri);
+    Assert.assertEquals(uri, pool.get(id));
+    BytesRef utf8 = new BytesRef(uri);
+    Assert.assertEquals(id, pool.find(utf8.bytes, utf8.offset, utf8.length));
+    Assert.assertEquals(-1, pool.find("http://www.example.com/concept/100"));
+  }
+
+  private static void assertSameAnswers(SKOSEngine expected, SKOSEngine actual)
+      throws IOException {
+    for (int i = 0; i < CONCEPTS; i += 31) {
+      String uri = "http://www.example.com/c" + i;
+      Assert.assertTrue(Arrays.equals(expected.getConcepts("concept " + i),
+          actual.getConcepts("concept " + i)));
+      Assert.assertTrue(Arrays.equals(expected.getPrefLabels(uri), actual
+          .getPrefLabels(uri)));
+      Assert.assertTrue(Arrays.equals(sorted(expected
+          .getBroaderTransitiveConcepts(uri)), sorted(actual
+          .getBroaderTransitiveConcepts(uri))));
+      Assert.assertTrue(Arrays.equals(sorted(expected.getRelatedLabels(uri)),
+          sorted(actual.getRelatedLabels(uri))));
+    }
+
+    SKOSExpansion expectedExpansion = new SKOSExpansion();
+    SKOSExpansion actualExpansion = new SKOSExpansion();
+    expected.expandLabel("concept 123", EnumSet.allOf(SKOSType.class),
+        expectedExpansion);
+    actual.expandLabel("concept 123", EnumSet.allOf(SKOSType.class),
+        actualExpansion);
+    Assert.assertEquals(expectedExpansion.size(), actualExpansion.size());
+  }
+
+  private static String[] sorted(String[] values) {
+    Arrays.sort(values);
+    return values;
+  }
+}
@@ -0,0 +1,71 @@
+package at.ac.univie.mminf.luceneSKOS.skos.impl;
+
+/**
+ * Copyright 2010 Bernhard Haslhofer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import junit.framework.Assert;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+/**
+ * Tests the pool of labels and URIs
+ */
+public class StringPoolTest {
+
+  private static final String[] LABELS = {"animals", "bêtes", "créatures",
+      "𝄞 clef", "a/b#c", ""};
+
+  @Test
+  public void testPool() {
+    StringPool pool = new StringPool();
+
+    for (String label : LABELS) {
+      pool.add(new BytesRef(label), false);
+    }
+    for (int i = 0; i < 1000; i++) {
+      pool.add(new BytesRef("http://www.example.com/concept/" + i), true);
+      pool.add(new BytesRef("http://www.example.org/terms#" + i), true);
+    }
+    // no duplicates
+    Assert.assertEquals(LABELS.length + 2000, pool.size());
+    Assert.assertEquals(0, pool.add(new BytesRef("animals"), false));
+    pool.trim();
+
+    for (String label : LABELS) {
+      int id = pool.find(label);
+      Assert.assertTrue(id >= 0);
+      Assert.assertEquals(label, pool.get(id));
+      BytesRef utf8 = new BytesRef(label);
+      Assert.assertEquals(id, pool.find(utf8.bytes, utf8.offset, utf8.length));
+    }
+
+    String uri = "http://www.example.org/terms#42";
+    int id = pool.find(uri);
+    Assert.assertEquals(uri, pool.get(id));
+    // one shared instance
+    Assert.assertSame(pool.get(id), pool.intern(new String(uri)));
+    BytesRef utf8 = new BytesRef(uri);
+    Assert.assertSame(pool.get(id), pool.get(utf8.bytes, utf8.offset,
+        utf8.length));
+
+    // strings that are not pooled
+    Assert.assertEquals(-1, pool.find("http://www.example.org/terms#1000"));
+    Assert.assertEquals(-1, pool.find("animal"));
+    String unknown = "unknown";
+    Assert.assertSame(unknown, pool.intern(unknown));
+  }
+}
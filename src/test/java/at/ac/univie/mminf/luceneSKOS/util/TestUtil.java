@@ -16,7 +16,10 @@ package at.ac.univie.mminf.luceneSKOS.util;
  * limitations under the License.
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.IndexSearcher;
@@ -29,6 +32,17 @@ import org.apache.lucene.search.TopDocs;
  */
 public class TestUtil {
   
+  /**
+   * Returns a stream of a test vocabulary given as text (N3 in most tests),
+   * encoded as UTF-8
+   */
+  public static InputStream vocabulary(CharSequence text) {
+    
+    return new ByteArrayInputStream(text.toString().getBytes(
+        Charset.forName("UTF-8")));
+    
+  }
+  
   public static int hitCount(IndexSearcher searcher, Query query)
       throws IOException {
     